@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the number of QF-Test processes running at the same time on an agent to its load.
+ * The load average and the available memory are sampled from <tt>/proc</tt> on the agent every few seconds:
+ * the limit is lowered while the agent is overloaded or short of memory,
+ * and raised while there is room and suites are waiting for a worker.
+ */
+class AdaptiveLimiter {
+
+    static final long SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /* load average per CPU */
+    static final double HIGH_LOAD = 1.0;
+    static final double LOW_LOAD = 0.7;
+
+    /* share of the memory available */
+    static final double LOW_MEMORY = 0.10;
+    static final double HIGH_MEMORY = 0.25;
+
+    /**
+     * The load of an agent at some point in time.
+     */
+    static class Load implements Serializable {
+
+        private static final long serialVersionUID = -2392717312580453419L;
+
+        final double loadAverage;
+        final int cpus;
+        final long memTotalKb;
+        final long memAvailableKb;
+
+        Load(double loadAverage, int cpus, long memTotalKb, long memAvailableKb) {
+            this.loadAverage = loadAverage;
+            this.cpus = Math.max(1, cpus);
+            this.memTotalKb = memTotalKb;
+            this.memAvailableKb = memAvailableKb;
+        }
+
+        double getLoadPerCpu() {
+            return loadAverage / cpus;
+        }
+
+        double getMemoryAvailable() {
+            return (memTotalKb > 0 ? (double) memAvailableKb / memTotalKb : 1.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "load %.2f on %d CPUs, %d%% memory available",
+                    loadAverage, cpus, Math.round(100 * getMemoryAvailable()));
+        }
+    }
+
+    /**
+     * Reads the load of the agent, or null if <tt>/proc</tt> is not available, e.g. on Windows.
+     */
+    static class Sample extends MasterToSlaveCallable<Load, IOException> {
+
+        private static final long serialVersionUID = 5503936427167101372L;
+
+        @Override
+        @CheckForNull
+        public Load call() throws IOException {
+            File loadavg = new File("/proc/loadavg");
+            File meminfo = new File("/proc/meminfo");
+            if (!loadavg.isFile() || !meminfo.isFile()) {
+                return null;
+            }
+            return parse(
+                    new String(Files.readAllBytes(loadavg.toPath()), StandardCharsets.US_ASCII),
+                    Files.readAllLines(meminfo.toPath(), StandardCharsets.US_ASCII),
+                    Runtime.getRuntime().availableProcessors()
+            );
+        }
+    }
+
+    static Load parse(String loadavg, List<String> meminfo, int cpus) throws IOException {
+        try {
+            double load = Double.parseDouble(loadavg.trim().split("\\s+")[0]);
+            long total = -1;
+            long available = -1;
+            long free = 0;
+            long cached = 0;
+            for (String line : meminfo) {
+                String[] fields = line.trim().split("[:\\s]+");
+                if (fields.length < 2) {
+                    continue;
+                }
+                long kb = Long.parseLong(fields[1]);
+                switch (fields[0]) {
+                    case "MemTotal": total = kb; break;
+                    case "MemAvailable": available = kb; break;
+                    case "MemFree": free = kb; break;
+                    case "Cached": cached = kb; break;
+                    default: break;
+                }
+            }
+            if (total < 0) {
+                throw new IOException("No MemTotal in /proc/meminfo");
+            }
+            //kernels before 3.14 do not provide MemAvailable
+            return new Load(load, cpus, total, (available >= 0 ? available : free + cached));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Unable to parse the load of the agent", ex);
+        }
+    }
+
+    /**
+     * @return the new limit for the given load
+     * @param waiting whether there are suites waiting for a worker
+     */
+    static int decide(int limit, boolean waiting, Load load, int min, int max) {
+        int ret = limit;
+        if (load.getLoadPerCpu() > HIGH_LOAD || load.getMemoryAvailable() < LOW_MEMORY) {
+            ret = limit - 1;
+        } else if (waiting && load.getLoadPerCpu() < LOW_LOAD && load.getMemoryAvailable() > HIGH_MEMORY) {
+            ret = limit + 1;
+        }
+        return Math.max(min, Math.min(max, ret));
+    }
+
+    private final String name;
+    private final int min;
+    private final int max;
+    @CheckForNull
+    private final VirtualChannel channel;
+
+    private int limit;
+    private final Set<Integer> active = new HashSet<>();
+    private long lastSample = 0;
+    private boolean unsupported = false;
+
+    /**
+     * @param channel to the agent, or null for this JVM
+     */
+    AdaptiveLimiter(String name, int min, int max, @CheckForNull VirtualChannel channel) {
+        this.name = name;
+        this.max = Math.max(1, max);
+        this.min = Math.max(1, Math.min(min, this.max));
+        this.channel = channel;
+        this.limit = this.min;
+    }
+
+    /**
+     * Lets the given worker start a QF-Test process, if the current limit allows for it.
+     * @return whether the worker may start its process
+     */
+    synchronized boolean admit(int worker, TaskListener listener) throws IOException, InterruptedException {
+        if (active.contains(worker)) {
+            return true;
+        }
+        adapt(active.size() >= limit, listener);
+        if (active.size() >= limit) {
+            return false;
+        }
+        active.add(worker);
+        return true;
+    }
+
+    synchronized void leave(int worker) {
+        active.remove(worker);
+    }
+
+    private void adapt(boolean waiting, TaskListener listener) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        if (unsupported || now - lastSample < SAMPLE_INTERVAL_MS) {
+            return;
+        }
+        lastSample = now;
+        Sample sample = new Sample();
+        Load load;
+        try {
+            load = (channel != null ? channel.call(sample) : sample.call());
+        } catch (IOException ex) {
+            listener.getLogger().println("Adaptive parallelism" + on() + ": unable to sample the load, keeping "
+                    + limit + " (" + ex.getMessage() + ")");
+            return;
+        }
+        if (load == null) {
+            unsupported = true;
+            limit = max;
+            listener.getLogger().println("Adaptive parallelism" + on() + ": no /proc available, running up to "
+                    + max + " QF-Test processes");
+            return;
+        }
+        int next = decide(limit, waiting, load, min, max);
+        if (next != limit) {
+            listener.getLogger().println("Adaptive parallelism" + on() + ": " + limit + " -> " + next + " (" + load + ")");
+            limit = next;
+        }
+    }
+
+    private String on() {
+        return (name.isEmpty() ? "" : " on " + name);
+    }
+}
@@ -0,0 +1,370 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records the suites which have been completed by a durable QF-Test step,
+ * so only the remaining suites have to be run after the step has been resumed.
+ * Every completed suite is appended as a single line holding its {@link SuiteResult}
+ * and the runlogs it produced (relative to the <tt>qrz</tt> directory). A suite which has been retried
+ * has a line for each attempt, the last one superseding the previous ones.
+ * <p>
+ * The launch cookie of every runner is recorded as well (see {@link SuiteRunner#COOKIE_VAR}),
+ * so the QF-Test processes of a previous attempt can be killed before the step is resumed.
+ */
+class Checkpoint implements Serializable {
+
+    private static final long serialVersionUID = 7318569407207325740L;
+
+    static final String FILE_NAME = "checkpoint.tsv";
+    static final String LAUNCHES_FILE = "launches.txt";
+
+    private final FilePath file;
+    private final FilePath launches;
+    private final FilePath qrzdir;
+
+    Checkpoint(FilePath logdir, FilePath qrzdir) {
+        this.file = logdir.child(FILE_NAME);
+        this.launches = logdir.child(LAUNCHES_FILE);
+        this.qrzdir = qrzdir;
+    }
+
+    FilePath getQrzdir() {
+        return qrzdir;
+    }
+
+    static String key(Suites sf) {
+        return sf.getSuitename() + "\t" + sf.getCustomParam();
+    }
+
+    static class Entry implements Serializable {
+
+        private static final long serialVersionUID = -8862390785021434402L;
+
+        final SuiteResult result;
+        final List<String> runlogs;
+
+        Entry(SuiteResult result, List<String> runlogs) {
+            this.result = result;
+            this.runlogs = Collections.unmodifiableList(new ArrayList<>(runlogs));
+        }
+
+        String key() {
+            return result.key();
+        }
+
+        String toLine() {
+            List<String> fields = new ArrayList<>();
+            fields.add(Integer.toString(result.getReturnValue()));
+            fields.add(escape(result.getSuitename()));
+            fields.add(escape(result.getCustomParam()));
+            fields.add(Long.toString(result.getStartTime()));
+            fields.add(Long.toString(result.getEndTime()));
+            fields.add(Long.toString(result.getRunlogSize()));
+            fields.add(Integer.toString(result.getAttempts()));
+            fields.add(result.isFlaky() ? "flaky" : "");
+            for (String runlog : runlogs) {
+                fields.add(escape(runlog));
+            }
+            return String.join("\t", fields);
+        }
+
+        static Entry fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 8) {
+                throw new IllegalArgumentException("Malformed checkpoint entry: " + line);
+            }
+            List<String> runlogs = new ArrayList<>();
+            for (int i = 8; i < fields.length; i++) {
+                runlogs.add(unescape(fields[i]));
+            }
+            SuiteResult result = new SuiteResult(
+                    unescape(fields[1]), unescape(fields[2]), Integer.parseInt(fields[0]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5])
+            );
+            result.setAttempts(Integer.parseInt(fields[6]));
+            result.setFlaky(!fields[7].isEmpty());
+            return new Entry(result, runlogs);
+        }
+    }
+
+    static String escape(String s) {
+        if (s == null) {
+            return "";
+        }
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String s) {
+        StringBuilder ret = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                ret.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Appends the given entries and syncs the file to disk.
+     */
+    synchronized void record(Collection<Entry> entries) throws IOException, InterruptedException {
+        List<String> lines = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            lines.add(e.toLine());
+        }
+        file.act(new Append(lines));
+    }
+
+    /**
+     * @return every attempt of every suite completed so far, in the order of their completion
+     */
+    List<Entry> loadAll() throws IOException, InterruptedException {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        List<Entry> ret = new ArrayList<>();
+        for (String line : file.act(new Read())) {
+            if (!line.isEmpty()) {
+                ret.add(Entry.fromLine(line));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the last attempt of every suite completed so far, keyed by {@link #key(Suites)}
+     */
+    Map<String, Entry> load() throws IOException, InterruptedException {
+        return latest(loadAll());
+    }
+
+    static Map<String, Entry> latest(Collection<Entry> all) {
+        Map<String, Entry> ret = new LinkedHashMap<>();
+        for (Entry e : all) {
+            ret.put(e.key(), e);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes all runlogs not referenced by any completed attempt,
+     * i.e. the (incomplete) runlogs of QF-Test calls which have been interrupted.
+     * Any QF-Test process still writing to them has to be killed beforehand, see {@link #killLeftovers}.
+     */
+    void discardIncomplete(Collection<Entry> completed) throws IOException, InterruptedException {
+        Set<String> keep = new HashSet<>();
+        for (Entry e : completed) {
+            keep.addAll(e.runlogs);
+        }
+        qrzdir.act(new Discard(keep));
+    }
+
+    /**
+     * Notes the launch cookie of a runner, before it starts any QF-Test process.
+     */
+    synchronized void recordLaunches(String cookie) throws IOException, InterruptedException {
+        launches.act(new Append(Collections.singletonList(cookie)));
+    }
+
+    /**
+     * @return the launch cookies of all runners of this step so far
+     */
+    List<String> loadLaunches() throws IOException, InterruptedException {
+        if (!launches.exists()) {
+            return Collections.emptyList();
+        }
+        List<String> ret = new ArrayList<>();
+        for (String line : launches.act(new Read())) {
+            if (!line.isEmpty()) {
+                ret.add(line);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Kills the processes, which have been started with any of the given launch cookies, on the node of the given
+     * channel. These are the QF-Test calls of a previous attempt, which are still running after a restart
+     * of the controller, as the agent has not been restarted.
+     * @param channel the channel to the agent, or null to kill the processes of the local node
+     */
+    static void killLeftovers(@CheckForNull VirtualChannel channel, Collection<String> cookies)
+            throws IOException, InterruptedException
+    {
+        if (cookies.isEmpty()) {
+            return;
+        }
+        KillLaunches kill = new KillLaunches(new ArrayList<>(cookies));
+        if (channel != null) {
+            channel.call(kill);
+        } else {
+            kill.call();
+        }
+    }
+
+    private static final Pattern BATCH_DIR = Pattern.compile("(^|/)batch(\\d+)/");
+
+    /**
+     * @return the index of the next batch directory, which does not collide with the completed ones
+     */
+    static int nextBatchIndex(Collection<Entry> completed) {
+        int ret = 0;
+        for (Entry e : completed) {
+            for (String runlog : e.runlogs) {
+                Matcher m = BATCH_DIR.matcher(runlog);
+                if (m.find()) {
+                    ret = Math.max(ret, Integer.parseInt(m.group(2)) + 1);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the names and sizes of all runlogs directly within the given directory
+     */
+    static Map<String, Long> runlogs(FilePath dir) throws IOException, InterruptedException {
+        return dir.act(new ListRunLogs());
+    }
+
+    private static class Append extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 3096870040306436010L;
+
+        private final List<String> lines;
+
+        Append(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            try (FileOutputStream out = new FileOutputStream(f, true)) {
+                Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.flush();
+                out.getFD().sync();
+            }
+            return null;
+        }
+    }
+
+    private static class Read extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = -1404766419960300727L;
+
+        @Override
+        public List<String> invoke(File f, VirtualChannel channel) throws IOException {
+            List<String> ret = new ArrayList<>();
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+                for (String line = r.readLine(); line != null; line = r.readLine()) {
+                    ret.add(line);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static class KillLaunches extends MasterToSlaveCallable<Void, InterruptedException> {
+        private static final long serialVersionUID = -6470829167702359823L;
+
+        private final List<String> cookies;
+
+        KillLaunches(List<String> cookies) {
+            this.cookies = cookies;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            for (String cookie : cookies) {
+                ProcessTree.get().killAll(Collections.singletonMap(SuiteRunner.COOKIE_VAR, cookie));
+            }
+            return null;
+        }
+    }
+
+    private static class Discard extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 5404011722898386569L;
+
+        private final Set<String> keep;
+
+        Discard(Set<String> keep) {
+            this.keep = keep;
+        }
+
+        @Override
+        public Void invoke(File qrzdir, VirtualChannel channel) throws IOException {
+            discard(qrzdir, "");
+            return null;
+        }
+
+        private void discard(File dir, String rel) throws IOException {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                String childRel = rel + child.getName();
+                if (child.isDirectory()) {
+                    discard(child, childRel + "/");
+                } else if (RunLogSummary.isRunLog(child.getName()) && !keep.contains(childRel)) {
+                    if (!child.delete()) {
+                        throw new IOException("Unable to delete incomplete runlog " + child);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class ListRunLogs extends MasterToSlaveFileCallable<Map<String, Long>> {
+        private static final long serialVersionUID = -3146417007372850036L;
+
+        @Override
+        public Map<String, Long> invoke(File dir, VirtualChannel channel) {
+            File[] files = dir.listFiles();
+            Map<String, Long> ret = new TreeMap<>();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.isFile() && RunLogSummary.isRunLog(f.getName())) {
+                        ret.put(f.getName(), f.length());
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+}
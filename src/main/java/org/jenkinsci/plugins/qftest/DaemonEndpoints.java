@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QF-Test daemons which are already running somewhere, given as a list of <tt>host:port</tt> endpoints.
+ * Every QF-Test call goes to the endpoint with the least calls in progress.
+ * An endpoint which does not accept connections is skipped for a while and the call goes to the next one.
+ * <p>
+ * The suites and the runlog directory are passed by their paths on the agent,
+ * so the daemons must see the workspace of the agent under the same path.
+ */
+class DaemonEndpoints implements Serializable {
+
+    private static final long serialVersionUID = 6427091873470118562L;
+
+    static final long CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+    static final long RETRY_DOWN_AFTER_MS = TimeUnit.MINUTES.toMillis(1);
+
+    static class Endpoint implements Serializable {
+
+        private static final long serialVersionUID = -2875830142337395816L;
+
+        final String host;
+        final int port;
+
+        /* guarded by the enclosing endpoints */
+        private int load = 0;
+        private long downSince = 0;
+
+        Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+
+    DaemonEndpoints(List<Endpoint> endpoints) {
+        this.endpoints = new ArrayList<>(endpoints);
+    }
+
+    /**
+     * Parses endpoints separated by white space or commas. The port defaults to the one of QF-Test daemons.
+     */
+    static DaemonEndpoints parse(String spec) throws AbortException {
+        List<Endpoint> ret = new ArrayList<>();
+        for (String tok : spec.trim().split("[\\s,]+")) {
+            if (tok.isEmpty()) {
+                continue;
+            }
+            int colon = tok.lastIndexOf(':');
+            try {
+                ret.add(colon < 0
+                        ? new Endpoint(tok, DaemonPool.PORT_BASE)
+                        : new Endpoint(tok.substring(0, colon), Integer.parseInt(tok.substring(colon + 1))));
+            } catch (NumberFormatException ex) {
+                throw new AbortException("Invalid QF-Test daemon endpoint `" + tok + "'");
+            }
+        }
+        if (ret.isEmpty()) {
+            throw new AbortException("No QF-Test daemon endpoint given");
+        }
+        return new DaemonEndpoints(ret);
+    }
+
+    int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Picks the least loaded endpoint, which accepts connections from the machine behind the given channel.
+     * @param channel where the QF-Test call is started, or null for this JVM
+     */
+    Endpoint acquire(@CheckForNull VirtualChannel channel, TaskListener listener) throws IOException, InterruptedException {
+        List<Endpoint> tried = new ArrayList<>();
+        while (true) {
+            Endpoint best = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Endpoint e : endpoints) {
+                    if (tried.contains(e) || (e.downSince > 0 && now - e.downSince < RETRY_DOWN_AFTER_MS)) {
+                        continue;
+                    }
+                    if (best == null || e.load < best.load) {
+                        best = e;
+                    }
+                }
+                if (best == null) {
+                    throw new IOException("None of the QF-Test daemons " + endpoints + " is reachable");
+                }
+                best.load++;
+            }
+            tried.add(best);
+
+            Probe probe = new Probe(best.host, best.port);
+            IOException failure = null;
+            try {
+                if (channel != null) {
+                    channel.call(probe);
+                } else {
+                    probe.call();
+                }
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            synchronized (this) {
+                if (failure == null) {
+                    best.downSince = 0;
+                    return best;
+                }
+                best.load--;
+                best.downSince = System.currentTimeMillis();
+            }
+            listener.getLogger().println("QF-Test daemon " + best + " does not respond (" + failure.getMessage()
+                    + "), trying another one");
+        }
+    }
+
+    synchronized void release(Endpoint endpoint) {
+        release(endpoint, true);
+    }
+
+    /**
+     * @param idle whether the daemon is done with the call, which is not the case if the call has been killed
+     *             and its run could not be stopped: the endpoint is skipped for a while then
+     */
+    synchronized void release(Endpoint endpoint, boolean idle) {
+        endpoint.load--;
+        if (!idle) {
+            endpoint.downSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Checks whether a daemon accepts connections.
+     */
+    static class Probe extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 3906424521838105707L;
+
+        private final String host;
+        private final int port;
+
+        Probe(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), (int) CONNECT_TIMEOUT_MS);
+            }
+            return null;
+        }
+    }
+}
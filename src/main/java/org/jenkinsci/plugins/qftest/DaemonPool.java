@@ -0,0 +1,340 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.NullStream;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived QF-Test daemons, which run the suites instead of a new QF-Test process per call.
+ * The daemons of a node are started on demand, each one listening on its own port, and are kept running
+ * across suites and builds. A daemon is checked before it is handed out, if it has been idle for a while,
+ * and it is replaced after a given number of runs or as soon as a run on it has been killed.
+ * The ports are reserved in a registry of the agent and only handed out if no other process listens on them
+ * (see {@link Ports}), so daemons left over from a restart of the controller are not hit by accident.
+ * <p>
+ * As the daemons are shared by the builds, they only get the parts of the build environment
+ * needed to run QF-Test (see {@link #DAEMON_ENV}), but no credentials bound to the build which has started them.
+ * The license of an idle daemon is not counted by the {@link LicenseThrottle}.
+ * <p>
+ * The suites are passed to a daemon by a <tt>qftest -batch -calldaemon</tt> call, which is much cheaper
+ * than a full QF-Test run, as neither QF-Test nor the clients of the system under test need to be started again.
+ */
+class DaemonPool {
+
+    /* the default port of QF-Test daemons, further ones are numbered upwards */
+    static final int PORT_BASE = 3543;
+
+    static final long START_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    static final long PING_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    static final long HEALTH_CHECK_IDLE_MS = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_DAEMONS = 100;
+
+    /* the variables of the build environment passed to a daemon */
+    static final List<String> DAEMON_ENV = Arrays.asList(
+            "PATH", "HOME", "USER", "USERNAME", "USERPROFILE", "DISPLAY", "XAUTHORITY", "LANG", "LC_ALL",
+            "TMP", "TEMP", "TMPDIR", "SystemRoot", "JAVA_HOME"
+    );
+
+    private static final DaemonPool INSTANCE = new DaemonPool();
+
+    static DaemonPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * A daemon running on a node, used by one QF-Test call at a time.
+     */
+    static class Daemon {
+        final String node;
+        final int port;
+        final String binary;
+        final boolean isUnix;
+        /* the agent holding the port */
+        @CheckForNull
+        final VirtualChannel channel;
+
+        /* only touched by the current lessee */
+        @CheckForNull
+        private Proc proc;
+        @CheckForNull
+        private Launcher launcher;
+        private long lastChecked = 0;
+
+        /* guarded by the pool */
+        private int runs = 0;
+        private boolean leased = false;
+
+        Daemon(String node, int port, String binary, boolean isUnix, @CheckForNull VirtualChannel channel) {
+            this.node = node;
+            this.port = port;
+            this.binary = binary;
+            this.isUnix = isUnix;
+            this.channel = channel;
+        }
+
+        /**
+         * @return a call passing suites to this daemon
+         */
+        QFTestCommandLine newCall() throws InterruptedException {
+            return QFTestCommandLine.newDaemonCall(binary, isUnix, "localhost", port);
+        }
+
+        @Override
+        public String toString() {
+            return "QF-Test daemon on port " + port + (node.isEmpty() ? "" : " of " + node);
+        }
+    }
+
+    private final Map<String, List<Daemon>> daemons = new HashMap<>();
+
+    /**
+     * @return the daemons of the given node, leased or idle
+     */
+    synchronized List<Daemon> getDaemons(String node) {
+        return new ArrayList<>(daemons.getOrDefault(node, Collections.emptyList()));
+    }
+
+    /**
+     * Hands out an idle daemon of the given node, starting a new one if needed.
+     * The daemon has to be given back by {@link #giveBack(Daemon, int, boolean)}.
+     */
+    Daemon lease(String node, String binary, boolean isUnix,
+                 Launcher launcher, FilePath workspace, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        Daemon ret = null;
+        Daemon stale = null;
+        synchronized (this) {
+            List<Daemon> own = daemons.computeIfAbsent(node, n -> new ArrayList<>());
+            for (Daemon d : own) {
+                if (!d.leased && d.binary.equals(binary) && d.isUnix == isUnix) {
+                    ret = d;
+                    break;
+                }
+            }
+            if (ret == null) {
+                //replaces an idle daemon of another QF-Test version
+                for (Daemon d : own) {
+                    if (!d.leased) {
+                        stale = d;
+                        break;
+                    }
+                }
+                if (stale != null) {
+                    own.remove(stale);
+                }
+            } else {
+                ret.leased = true;
+            }
+        }
+
+        if (ret == null) {
+            if (stale != null) {
+                stop(stale);
+            }
+            VirtualChannel channel = launcher.getChannel();
+            ret = new Daemon(node, Ports.reserve(channel), binary, isUnix, channel);
+            ret.leased = true;
+            synchronized (this) {
+                daemons.computeIfAbsent(node, n -> new ArrayList<>()).add(ret);
+            }
+        }
+
+        try {
+            if (ret.proc != null && !isHealthy(ret)) {
+                listener.getLogger().println("Restarting " + ret + ", as it does not respond");
+                stop(ret);
+            }
+            if (ret.proc == null) {
+                start(ret, launcher, workspace, env, listener);
+            }
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            giveBack(ret, 0, false);
+            throw ex;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a daemon after a call, stopping it if it is due for recycling or may be in an undefined state.
+     * @param recycleAfter number of calls after which a daemon is replaced, 0 for no limit
+     * @param healthy      whether the call has ended normally, i.e. it has not been killed
+     */
+    void giveBack(Daemon daemon, int recycleAfter, boolean healthy) throws IOException, InterruptedException {
+        boolean retire;
+        synchronized (this) {
+            daemon.runs++;
+            daemon.leased = false;
+            retire = !healthy || daemon.proc == null || (recycleAfter > 0 && daemon.runs >= recycleAfter);
+            if (retire) {
+                List<Daemon> own = daemons.get(daemon.node);
+                if (own != null) {
+                    own.remove(daemon);
+                }
+            }
+        }
+        if (retire) {
+            stop(daemon);
+        } else {
+            daemon.lastChecked = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isHealthy(Daemon d) throws IOException, InterruptedException {
+        if (d.proc == null || !d.proc.isAlive()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - d.lastChecked < HEALTH_CHECK_IDLE_MS) {
+            return true;
+        }
+        boolean ret = ping(d);
+        d.lastChecked = System.currentTimeMillis();
+        return ret;
+    }
+
+    private static boolean ping(Daemon d) throws IOException, InterruptedException {
+        QFTestCommandLine args = d.newCall();
+        args.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-ping");
+        Proc ping = args.start(d.launcher, new NullStream(), null, new EnvVars());
+        return ping.joinWithTimeout(PING_TIMEOUT_MS, TimeUnit.MILLISECONDS, TaskListener.NULL) == 0;
+    }
+
+    private static void start(Daemon d, Launcher launcher, FilePath workspace, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        listener.getLogger().println("Starting " + d);
+        QFTestCommandLine args = QFTestCommandLine.newCommandLine(d.binary, d.isUnix, QFTestCommandLine.RunMode.DAEMON);
+        args.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-daemonport", Integer.toString(d.port));
+
+        EnvVars daemonEnv = new EnvVars();
+        for (String name : DAEMON_ENV) {
+            String value = env.get(name);
+            if (value != null) {
+                daemonEnv.put(name, value);
+            }
+        }
+        //keep the daemon alive after the build, which has started it, has finished
+        daemonEnv.put("BUILD_ID", "dontKillMe");
+        daemonEnv.put("JENKINS_NODE_COOKIE", "dontKillMe");
+
+        d.launcher = launcher;
+        d.proc = args.start(launcher, new NullStream(), workspace, daemonEnv);
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (!ping(d)) {
+            if (!d.proc.isAlive()) {
+                throw new IOException(d + " has terminated during startup");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(d + " has not responded within " + TimeUnit.MILLISECONDS.toSeconds(START_TIMEOUT_MS) + " s");
+            }
+            Thread.sleep(1000);
+        }
+        d.lastChecked = System.currentTimeMillis();
+    }
+
+    private static void stop(Daemon d) throws IOException, InterruptedException {
+        if (d.proc != null) {
+            d.proc.kill();
+            d.proc = null;
+        }
+        Ports.release(d.channel, d.port);
+    }
+
+    /**
+     * The ports of the daemons running on an agent, kept within the JVM of the agent.
+     * A port is only handed out, if no other process is listening on it either.
+     */
+    static class Ports {
+
+        private static final BitSet RESERVED = new BitSet(MAX_DAEMONS);
+
+        /**
+         * @param channel the channel to the agent, or null for the local node
+         * @return the port reserved
+         */
+        static int reserve(@CheckForNull VirtualChannel channel) throws IOException, InterruptedException {
+            Reserve reserve = new Reserve();
+            return (channel != null ? channel.call(reserve) : reserve.call());
+        }
+
+        static void release(@CheckForNull VirtualChannel channel, int port) throws IOException, InterruptedException {
+            Release release = new Release(port);
+            if (channel != null) {
+                channel.call(release);
+            } else {
+                release.call();
+            }
+        }
+
+        /**
+         * @return whether the given port has been reserved on this node
+         */
+        static boolean isReserved(int port) {
+            synchronized (RESERVED) {
+                return RESERVED.get(port - PORT_BASE);
+            }
+        }
+
+        private static boolean isFree(int port) {
+            try (ServerSocket ignored = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+                return true;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+
+        private static class Reserve extends MasterToSlaveCallable<Integer, IOException> {
+            private static final long serialVersionUID = 6310259745781634452L;
+
+            @Override
+            public Integer call() throws IOException {
+                synchronized (RESERVED) {
+                    for (int i = RESERVED.nextClearBit(0); i < MAX_DAEMONS; i = RESERVED.nextClearBit(i + 1)) {
+                        if (isFree(PORT_BASE + i)) {
+                            RESERVED.set(i);
+                            return PORT_BASE + i;
+                        }
+                    }
+                }
+                throw new IOException("No free TCP port found for a QF-Test daemon");
+            }
+        }
+
+        private static class Release extends MasterToSlaveCallable<Void, RuntimeException> {
+            private static final long serialVersionUID = -5719180263378402816L;
+
+            private final int port;
+
+            Release(int port) {
+                this.port = port;
+            }
+
+            @Override
+            public Void call() {
+                synchronized (RESERVED) {
+                    RESERVED.clear(port - PORT_BASE);
+                }
+                return null;
+            }
+        }
+    }
+}
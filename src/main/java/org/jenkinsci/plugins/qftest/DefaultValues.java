@@ -8,4 +8,13 @@ class DefaultValues {
     public static final Result testError = Result.FAILURE;
     public static final Result testException = Result.FAILURE;
     public static final Result testFailure = Result.FAILURE;
+    public static final int parallelism = 1;
+    public static final int batchSize = 1;
+    public static final int shardCount = 1;
+    public static final FailFast failFast = FailFast.NEVER;
+    public static final int daemonRecycleAfter = 100;
+    public static final int minParallelism = 1;
+    public static final RetryLevel retryLevel = RetryLevel.ERROR;
+    /* in MB */
+    public static final int resultCacheSize = 1024;
 }
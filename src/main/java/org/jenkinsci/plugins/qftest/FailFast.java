@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * The least QF-Test return value of a single call which cancels all other suites of the step.
+ * Suites already running are killed, pending ones are skipped, reports are still created for the suites run so far.
+ */
+enum FailFast {
+    NEVER(Integer.MAX_VALUE, "Never"),
+    WARNING(1, "On warning"),
+    ERROR(2, "On error"),
+    EXCEPTION(3, "On exception"),
+    FAILURE(4, "On failure");
+
+    private final int returnValue;
+    private final String displayName;
+
+    FailFast(int returnValue, String displayName) {
+        this.returnValue = returnValue;
+        this.displayName = displayName;
+    }
+
+    boolean isTriggeredBy(int returnValue) {
+        return returnValue >= this.returnValue;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the level of the given name, falling back to {@link #NEVER} for unknown ones
+     */
+    static FailFast fromString(String name) {
+        for (FailFast f : values()) {
+            if (f.name().equalsIgnoreCase(name)) {
+                return f;
+            }
+        }
+        return NEVER;
+    }
+
+    static ListBoxModel fill(FailFast preSelect) {
+        ListBoxModel items = new ListBoxModel();
+        for (FailFast f : values()) {
+            items.add(new ListBoxModel.Option(f.getDisplayName(), f.name(), f == preSelect));
+        }
+        return items;
+    }
+}
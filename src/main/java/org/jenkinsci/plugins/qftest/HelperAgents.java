@@ -0,0 +1,368 @@
+package org.jenkinsci.plugins.qftest;
+
+import antlr.ANTLRException;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Further agents a single QF-Test step hands out suites to, besides the agent of its own workspace.
+ * Every helper is reserved through the build queue, so the step occupies one of its executors
+ * and gets a workspace of its own (see {@link WorkspaceList}), which is deleted once the helper is released.
+ * The workspace is copied to every helper agent upfront. Each helper contributes as many workers
+ * as the step's own agent, which pull their suites from the same queue, so a slow agent simply runs fewer suites.
+ * The runlogs of each call are copied back into the <tt>qrz</tt> directory of the step's own workspace afterwards.
+ */
+class HelperAgents {
+
+    private static final Logger LOGGER = Logger.getLogger(HelperAgents.class.getName());
+
+    static final String WORKSPACES = "qftest-workspaces";
+
+    /* how long to wait for a free executor on the helper agents, before running without them */
+    static final long EXECUTOR_WAIT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * An agent running suites on behalf of the step.
+     */
+    static class Target {
+        final String name;
+        final FilePath workspace;
+        final Launcher launcher;
+        final FilePath qrzdir;
+        @CheckForNull
+        final String qfBinaryPath;
+        final boolean isUnix;
+        final EnvVars env;
+        @CheckForNull
+        private final Reservation reservation;
+
+        Target(String name, FilePath workspace, Launcher launcher, FilePath qrzdir,
+               @CheckForNull String qfBinaryPath, boolean isUnix, EnvVars env, @CheckForNull Reservation reservation) {
+            this.name = name;
+            this.workspace = workspace;
+            this.launcher = launcher;
+            this.qrzdir = qrzdir;
+            this.qfBinaryPath = qfBinaryPath;
+            this.isUnix = isUnix;
+            this.env = env;
+            this.reservation = reservation;
+        }
+
+        /**
+         * Frees the executor and deletes the workspace of the helper.
+         */
+        void release() {
+            if (reservation != null) {
+                reservation.release();
+            }
+        }
+    }
+
+    /**
+     * Occupies an executor of a single helper agent, until the step releases it.
+     */
+    static class Reservation implements Queue.TransientTask {
+
+        private final Run<?, ?> run;
+        private final Node node;
+        private final CompletableFuture<WorkspaceList.Lease> granted = new CompletableFuture<>();
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        Reservation(Run<?, ?> run, Node node) {
+            this.run = run;
+            this.node = node;
+        }
+
+        @Override
+        public Label getAssignedLabel() {
+            return node.getSelfLabel();
+        }
+
+        @Override
+        public String getName() {
+            return getDisplayName();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "QF-Test helper for " + run.getFullDisplayName();
+        }
+
+        @Override
+        public String getFullDisplayName() {
+            return getDisplayName();
+        }
+
+        @Override
+        public String getUrl() {
+            return run.getUrl();
+        }
+
+        @Override
+        public Queue.Executable createExecutable() {
+            return new Holder(this);
+        }
+
+        /**
+         * Called on the executor of the helper: hands the workspace to the step and keeps both until released.
+         * The workspace is deleted afterwards, so the next build starts with a fresh copy.
+         */
+        void hold(WorkspaceList.Lease lease) throws InterruptedException {
+            try {
+                if (granted.complete(lease)) {
+                    released.await();
+                }
+            } finally {
+                try {
+                    lease.path.deleteRecursive();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Unable to delete QF-Test helper workspace " + lease.path, ex);
+                }
+                lease.release();
+            }
+        }
+
+        void fail(Exception ex) {
+            granted.completeExceptionally(ex);
+        }
+
+        /**
+         * @return the workspace on the helper, or null if no executor has become free in time
+         */
+        @CheckForNull
+        WorkspaceList.Lease await(long timeoutMs) throws IOException, InterruptedException {
+            try {
+                return granted.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                return null;
+            } catch (ExecutionException ex) {
+                throw new IOException("Unable to reserve agent " + node.getNodeName(), ex.getCause());
+            }
+        }
+
+        /**
+         * Gives back the executor, or withdraws the request for it, if not granted yet.
+         */
+        void release() {
+            released.countDown();
+            if (granted.cancel(false)) {
+                Queue.getInstance().cancel(this);
+            }
+        }
+    }
+
+    private static class Holder implements Queue.Executable {
+        private final Reservation reservation;
+
+        Holder(Reservation reservation) {
+            this.reservation = reservation;
+        }
+
+        @Override
+        public Reservation getParent() {
+            return reservation;
+        }
+
+        @Override
+        public void run() {
+            Executor executor = Executor.currentExecutor();
+            Computer comp = (executor != null ? executor.getOwner() : null);
+            Node node = (comp != null ? comp.getNode() : null);
+            FilePath root = (node != null ? node.getRootPath() : null);
+            if (root == null) {
+                reservation.fail(new AbortException("Agent " + reservation.node.getNodeName() + " is offline"));
+                return;
+            }
+            try {
+                reservation.hold(comp.getWorkspaceList().allocate(
+                        root.child(WORKSPACES).child(reservation.run.getParent().getFullName())
+                ));
+            } catch (InterruptedException ex) {
+                //the executor has been interrupted, e.g. by aborting the helper
+                reservation.fail(ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return reservation.getDisplayName();
+        }
+    }
+
+    /**
+     * Reserves an executor on all online agents matching the label of the step, except the controller
+     * and the one of the step's own workspace, and prepares their workspaces.
+     * Agents without a free executor within {@link #EXECUTOR_WAIT_MS} are left out.
+     */
+    static List<Target> allocate(
+            @Nonnull Run<?, ?> run,
+            @Nonnull FilePath workspace,
+            @Nonnull TaskListener listener,
+            @Nonnull EnvVars env,
+            QFTestParamProvider qftParams,
+            QFTestExecutor.Imp.Setup setup)
+            throws IOException, InterruptedException
+    {
+        List<Target> ret = new ArrayList<>();
+        String expr = qftParams.getAgentLabel();
+        if (expr == null) {
+            return ret;
+        }
+
+        Label label;
+        try {
+            label = Label.parseExpression(expr);
+        } catch (ANTLRException ex) {
+            throw new AbortException("Invalid agent label expression `" + expr + "': " + ex.getMessage());
+        }
+
+        String logdir = QFTestExecutor.Imp.relativePath(workspace, setup.logdir);
+        Computer own = workspace.toComputer();
+
+        List<Node> nodes = new ArrayList<>(label.getNodes());
+        nodes.sort(Comparator.comparing(Node::getNodeName));
+        List<Reservation> reservations = new ArrayList<>();
+        for (Node node : nodes) {
+            Computer comp = node.toComputer();
+            if (node instanceof Jenkins || comp == null || comp == own) {
+                continue;
+            }
+            if (!comp.isOnline()) {
+                listener.getLogger().println("Skipping agent " + node.getNodeName() + ", as it is offline");
+                continue;
+            }
+            Reservation r = new Reservation(run, node);
+            Queue.getInstance().schedule2(r, 0);
+            reservations.add(r);
+        }
+
+        boolean done = false;
+        try {
+            long until = System.currentTimeMillis() + EXECUTOR_WAIT_MS;
+            for (Reservation r : reservations) {
+                String name = r.node.getNodeName();
+                listener.getLogger().println("Waiting for an executor on agent " + name);
+                WorkspaceList.Lease lease = r.await(Math.max(0, until - System.currentTimeMillis()));
+                Computer comp = r.node.toComputer();
+                Boolean isUnix = (comp != null ? comp.isUnix() : null);
+                if (lease == null || isUnix == null) {
+                    r.release();
+                    listener.getLogger().println("Skipping agent " + name + (lease == null
+                            ? ", as none of its executors has become free" : ", as it is offline"));
+                    continue;
+                }
+
+                //the environment and the QF-Test binary of the helper, which may differ from the own agent
+                EnvVars helperEnv = new EnvVars(env);
+                helperEnv.overrideAll(comp.buildEnvironment(listener));
+                String qfBinaryPath = qfBinaryPath(run, qftParams, isUnix, helperEnv);
+
+                FilePath helperWorkspace = lease.path;
+                listener.getLogger().println("Copying workspace to agent " + name + ", " + helperWorkspace.getRemote());
+                helperWorkspace.deleteRecursive(); //left behind by a build, which has been killed
+                helperWorkspace.mkdirs();
+                workspace.copyRecursiveTo("**/*", logdir + "/**", helperWorkspace);
+
+                FilePath qrzdir = helperWorkspace.child(logdir).child(setup.qrzdir.getName());
+                qrzdir.mkdirs();
+                ret.add(new Target(name, helperWorkspace, r.node.createLauncher(listener), qrzdir,
+                        qfBinaryPath, isUnix, helperEnv, r));
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (Reservation r : reservations) {
+                    r.release();
+                }
+            }
+        }
+
+        if (ret.isEmpty()) {
+            listener.getLogger().println("No further agent matches `" + expr + "', running all suites on this agent");
+        }
+        return ret;
+    }
+
+    /**
+     * Kills the QF-Test calls with any of the given launch cookies on all agents matching the label of the step,
+     * which may have served as helpers before the step has been resumed.
+     */
+    static void killLeftovers(QFTestParamProvider qftParams, Collection<String> cookies)
+            throws IOException, InterruptedException
+    {
+        String expr = qftParams.getAgentLabel();
+        if (expr == null || qftParams.isAgentSideExecution()) {
+            return;
+        }
+        Label label;
+        try {
+            label = Label.parseExpression(expr);
+        } catch (ANTLRException ex) {
+            return; //reported by allocate
+        }
+        for (Node node : label.getNodes()) {
+            Computer comp = node.toComputer();
+            if (!(node instanceof Jenkins) && comp != null && comp.isOnline()) {
+                Checkpoint.killLeftovers(comp.getChannel(), cookies);
+            }
+        }
+    }
+
+    /* same logic as in QFTestExecutor.Imp.prepare, for an agent of the given OS */
+    @CheckForNull
+    private static String qfBinaryPath(Run<?, ?> run, QFTestParamProvider qftParams, boolean isUnix, EnvVars env) {
+        if (qftParams.getCustomPath() == null && run instanceof AbstractBuild) {
+            QFTestConfigBuilder.DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(QFTestConfigBuilder.DescriptorImpl.class);
+            return env.expand(isUnix ? descriptor.getQfPathUnix() : descriptor.getQfPath());
+        }
+        return env.expand(qftParams.getCustomPath());
+    }
+
+    /**
+     * Maps an expanded suite within the step's workspace onto the copy within a helper's workspace.
+     */
+    static Suites rebase(Suites sf, FilePath from, FilePath to) {
+        String path = sf.getSuitename();
+        String prefix = from.getRemote();
+        if (prefix.endsWith("/") || prefix.endsWith("\\")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        //the path must continue with a separator, /ws/job-libs is not within /ws/job
+        if (!path.startsWith(prefix) || path.length() == prefix.length()
+                || (path.charAt(prefix.length()) != '/' && path.charAt(prefix.length()) != '\\')) {
+            return sf; //outside of the workspace, e.g. on a network share
+        }
+        String rest = path.substring(prefix.length());
+        char sep = (to.getRemote().indexOf('\\') >= 0 ? '\\' : '/');
+        rest = rest.replace('\\', sep).replace('/', sep);
+        return sf.derive(to.getRemote() + rest, sf.getCustomParam());
+    }
+}
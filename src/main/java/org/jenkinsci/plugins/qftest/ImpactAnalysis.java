@@ -0,0 +1,350 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the suites affected by the changes of a build: a suite is run, if the suite itself or any suite it refers to,
+ * directly or transitively, has been changed, or if it matches one of the patterns of suites to run always.
+ * <p>
+ * The references of a suite are its include files and the suites named by references to dependencies,
+ * procedures or tests (<tt>lib.qft#name</tt>). They are kept in an index in the temporary directory of the workspace,
+ * keyed by the SHA-256 hash of every suite, so only suites changed since the previous build have to be parsed again.
+ * <p>
+ * The SCM records the changed paths relative to the root of the checkout, which is the nearest directory
+ * of a suite within the workspace holding the metadata of a version control system, or the workspace itself.
+ */
+class ImpactAnalysis implements Serializable {
+
+    private static final long serialVersionUID = -7750931688215203482L;
+
+    static final String INDEX_FILE = "qftest-impact-index.tsv";
+
+    /* the metadata of a version control system, which marks the root of a checkout */
+    private static final String[] CHECKOUT_MARKERS = {".git", ".hg", ".svn"};
+
+    /* relative to the root of the checkout, separated by slashes */
+    private final Set<String> changed;
+    private final List<String> alwaysRun = new ArrayList<>();
+
+    /**
+     * @param changed   paths of the files changed by the build, as recorded by the SCM
+     * @param alwaysRun comma separated ant-style patterns of suites, relative to the workspace
+     */
+    ImpactAnalysis(Collection<String> changed, @CheckForNull String alwaysRun) {
+        this.changed = new HashSet<>();
+        for (String path : changed) {
+            this.changed.add(path.replace('\\', '/'));
+        }
+        if (alwaysRun != null) {
+            for (String pattern : alwaysRun.split(",")) {
+                if (!pattern.trim().isEmpty()) {
+                    this.alwaysRun.add(SuiteExpansion.normalizePattern(pattern));
+                }
+            }
+        }
+    }
+
+    int getChangeCount() {
+        return changed.size();
+    }
+
+    /**
+     * Whether the file of the given path relative to the root of its checkout has been changed.
+     */
+    boolean isChanged(String rel) {
+        return changed.contains(rel.replace('\\', '/'));
+    }
+
+    /**
+     * @return the suites referred to by the given suite, as given in the suite
+     */
+    static Set<String> references(InputStream suite) throws IOException {
+        Set<String> ret = new LinkedHashSet<>();
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(suite);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (reader.getLocalName().equals("include")) {
+                        String include = reader.getElementText().trim();
+                        if (!include.isEmpty()) {
+                            ret.add(include);
+                        }
+                        continue;
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String value = reader.getAttributeValue(i);
+                        int hash = value.indexOf('#');
+                        String file = (hash >= 0 ? value.substring(0, hash) : value).trim();
+                        if (file.endsWith(".qft")) {
+                            ret.add(file);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Unable to parse suite: " + ex.getMessage(), ex);
+        }
+        return ret;
+    }
+
+    /**
+     * Resolves a reference of the given suite, relative to the suite first, then to the workspace.
+     */
+    static File resolve(String ref, File suite, File base) {
+        File ret = new File(ref);
+        if (!ret.isAbsolute()) {
+            ret = new File(suite.getParentFile(), ref);
+            if (!ret.isFile() && new File(base, ref).isFile()) {
+                ret = new File(base, ref);
+            }
+        }
+        return ret;
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            StringBuilder ret = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                ret.append(String.format("%02x", b));
+            }
+            return ret.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /* a suite of the index */
+    private static class Node {
+        final String hash;
+        final List<String> references;
+
+        Node(String hash, List<String> references) {
+            this.hash = hash;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Selects the suites of a single expansion on the agent.
+     */
+    Selection open(File base) {
+        return new Selection(base);
+    }
+
+    class Selection {
+        private final File base;
+        private final File indexFile;
+        private final Map<String, Node> index = new HashMap<>();
+        /* suites checked during this build, whether changed or not */
+        private final Map<String, Node> current = new HashMap<>();
+        /* the checkout root of every directory looked up so far, null for directories outside of the workspace */
+        private final Map<Path, Path> roots = new HashMap<>();
+        private int selected = 0;
+        private int skipped = 0;
+
+        Selection(File base) {
+            this.base = base;
+            FilePath tmp = WorkspaceList.tempDir(new FilePath(base));
+            this.indexFile = new File(tmp != null ? tmp.getRemote() : base.getPath(), INDEX_FILE);
+            try {
+                if (indexFile.isFile()) {
+                    for (String line : Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+                        String[] fields = line.split("\t");
+                        if (fields.length >= 2) {
+                            List<String> refs = new ArrayList<>();
+                            for (int i = 2; i < fields.length; i++) {
+                                refs.add(fields[i]);
+                            }
+                            index.put(fields[0], new Node(fields[1], refs));
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                //rebuilt from scratch
+                index.clear();
+            }
+        }
+
+        private String relative(File file) {
+            String path = file.getAbsolutePath();
+            String prefix = base.getAbsolutePath() + File.separator;
+            return (path.startsWith(prefix) ? path.substring(prefix.length()) : path);
+        }
+
+        /* the path of the given file relative to the root of its checkout, or null if outside of the workspace */
+        @CheckForNull
+        private String checkoutPath(File file) {
+            Path path = file.toPath().toAbsolutePath().normalize();
+            Path root = checkoutRoot(path.getParent());
+            return (root != null ? root.relativize(path).toString() : null);
+        }
+
+        @CheckForNull
+        private Path checkoutRoot(@CheckForNull Path dir) {
+            if (dir == null) {
+                return null;
+            }
+            if (roots.containsKey(dir)) {
+                return roots.get(dir);
+            }
+            Path workspace = base.toPath().toAbsolutePath().normalize();
+            Path ret;
+            if (!dir.startsWith(workspace)) {
+                ret = null;
+            } else if (dir.equals(workspace) || isCheckout(dir)) {
+                ret = dir;
+            } else {
+                ret = checkoutRoot(dir.getParent());
+            }
+            roots.put(dir, ret);
+            return ret;
+        }
+
+        private boolean isCheckout(Path dir) {
+            for (String marker : CHECKOUT_MARKERS) {
+                if (Files.exists(dir.resolve(marker))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /* the suite as of this build, parsed again only if its hash has changed */
+        @CheckForNull
+        private Node node(File suite) {
+            String key = suite.getAbsolutePath();
+            Node ret = current.get(key);
+            if (ret != null || !suite.isFile()) {
+                return ret;
+            }
+            try {
+                byte[] content = Files.readAllBytes(suite.toPath());
+                String hash = sha256(content);
+                ret = index.get(key);
+                if (ret == null || !ret.hash.equals(hash)) {
+                    List<String> refs = new ArrayList<>();
+                    try {
+                        for (String ref : references(new ByteArrayInputStream(content))) {
+                            refs.add(resolve(ref, suite, base).getAbsolutePath());
+                        }
+                    } catch (IOException ex) {
+                        //not a plain XML suite, e.g. compressed: only changes of the suite itself count
+                    }
+                    ret = new Node(hash, refs);
+                }
+            } catch (IOException ex) {
+                ret = new Node("", new ArrayList<>());
+            }
+            current.put(key, ret);
+            return ret;
+        }
+
+        /**
+         * @return whether the given suite is to be run
+         */
+        boolean isSelected(File suite) {
+            boolean ret = isAlwaysRun(relative(suite)) || isAffected(suite);
+            if (ret) {
+                selected++;
+            } else {
+                skipped++;
+            }
+            return ret;
+        }
+
+        private boolean isAlwaysRun(String rel) {
+            for (String pattern : alwaysRun) {
+                if (SelectorUtils.matchPath(pattern, rel)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isAffected(File suite) {
+            Set<String> seen = new HashSet<>();
+            Deque<File> pending = new ArrayDeque<>();
+            pending.add(suite);
+            while (!pending.isEmpty()) {
+                File f = pending.poll();
+                if (!seen.add(f.getAbsolutePath())) {
+                    continue;
+                }
+                String path = checkoutPath(f);
+                if (path != null && isChanged(path)) {
+                    return true;
+                }
+                Node node = node(f);
+                if (node != null) {
+                    for (String ref : node.references) {
+                        pending.add(new File(ref));
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes back the index, including the suites checked during this build, and reports the selection.
+         */
+        void close(TaskListener listener) {
+            listener.getLogger().println("Impact analysis: running " + selected + " of " + (selected + skipped)
+                    + " suites affected by " + changed.size() + " changed file(s) or always run");
+            Map<String, Node> all = new HashMap<>(index);
+            all.putAll(current);
+            List<String> lines = new ArrayList<>(all.size());
+            for (Map.Entry<String, Node> e : all.entrySet()) {
+                if (new File(e.getKey()).isFile()) {
+                    StringBuilder line = new StringBuilder(e.getKey()).append('\t').append(e.getValue().hash);
+                    for (String ref : e.getValue().references) {
+                        line.append('\t').append(ref);
+                    }
+                    lines.add(line.toString());
+                }
+            }
+            try {
+                Files.createDirectories(indexFile.getParentFile().toPath());
+                Files.write(indexFile.toPath(), lines, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                listener.getLogger().println("Unable to write the impact index " + indexFile + ": " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.jenkinsci.plugins.qftest;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Access to the throttle of the controller, possibly through a remoting channel.
+ */
+interface LicenseSlots {
+    /**
+     * Acquires a slot for the given owner, unless it is already holding one. Blocks until a slot is free.
+     * @return the time the owner has been waiting for the slot in milliseconds
+     */
+    long acquire(String owner, String node) throws InterruptedException;
+
+    /**
+     * Acquires a slot for the given owner, if possible without waiting.
+     * Otherwise the owner is queued, so it keeps its turn for the next call.
+     * @return the time the owner has been waiting for the slot in milliseconds, or null if there is no slot yet
+     */
+    @CheckForNull
+    Long tryAcquire(String owner, String node);
+
+    /**
+     * Frees the slot of the given owner, or removes it from the queue.
+     */
+    void release(String owner);
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.qftest;
+
+import javax.annotation.CheckForNull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limits the number of QF-Test processes running at the same time, across all builds of the controller.
+ * There is a limit for all processes (i.e. the size of the license pool) and one per node.
+ * Processes waiting for a slot are served in the order they have asked for it,
+ * except that a process may pass waiting ones which are blocked by the limit of their node.
+ * <p>
+ * Slots are held by owners, i.e. the workers of a QF-Test step, identified by a unique string,
+ * so the slots can be acquired from an agent as well (see {@link LicenseSlots}).
+ */
+class LicenseThrottle implements LicenseSlots {
+
+    private static final LicenseThrottle INSTANCE = new LicenseThrottle();
+
+    static LicenseThrottle get() {
+        return INSTANCE;
+    }
+
+    private static class Waiter {
+        final String node;
+        final long since = System.currentTimeMillis();
+
+        Waiter(String node) {
+            this.node = node;
+        }
+    }
+
+    private static class Holder {
+        final String node;
+        final long waitedMs;
+
+        Holder(String node, long waitedMs) {
+            this.node = node;
+            this.waitedMs = waitedMs;
+        }
+    }
+
+    /* 0 means no limit */
+    private int poolSize = 0;
+    private int nodeLimit = 0;
+
+    private final LinkedHashMap<String, Waiter> queue = new LinkedHashMap<>();
+    private final Map<String, Holder> holders = new HashMap<>();
+    private final Map<String, Integer> perNode = new HashMap<>();
+
+    /* total time spent waiting for slots, for sizing the license pool */
+    private long totalWaitMs = 0;
+    private int totalAcquired = 0;
+
+    LicenseThrottle() {
+    }
+
+    synchronized void configure(int poolSize, int nodeLimit) {
+        this.poolSize = Math.max(0, poolSize);
+        this.nodeLimit = Math.max(0, nodeLimit);
+        notifyAll();
+    }
+
+    synchronized boolean isEnabled() {
+        return poolSize > 0 || nodeLimit > 0;
+    }
+
+    synchronized int getRunning() {
+        return holders.size();
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return the average time a process had to wait for its slot in milliseconds
+     */
+    synchronized long getAverageWaitMs() {
+        return (totalAcquired > 0 ? totalWaitMs / totalAcquired : 0);
+    }
+
+    private boolean fits(int running, Map<String, Integer> nodes, String node) {
+        return (poolSize <= 0 || running < poolSize)
+                && (nodeLimit <= 0 || nodes.getOrDefault(node, 0) < nodeLimit);
+    }
+
+    /* whether the given owner is the next one to be served, when earlier waiters with room on their node go first */
+    private boolean isTurn(String owner) {
+        int running = holders.size();
+        Map<String, Integer> nodes = new HashMap<>(perNode);
+        for (Map.Entry<String, Waiter> e : queue.entrySet()) {
+            String node = e.getValue().node;
+            if (!fits(running, nodes, node)) {
+                continue;
+            }
+            if (e.getKey().equals(owner)) {
+                return true;
+            }
+            running++;
+            nodes.merge(node, 1, Integer::sum);
+        }
+        return false;
+    }
+
+    private long grant(String owner) {
+        Waiter w = queue.remove(owner);
+        long waitedMs = System.currentTimeMillis() - w.since;
+        holders.put(owner, new Holder(w.node, waitedMs));
+        perNode.merge(w.node, 1, Integer::sum);
+        totalWaitMs += waitedMs;
+        totalAcquired++;
+        return waitedMs;
+    }
+
+    @Override
+    public synchronized long acquire(String owner, String node) throws InterruptedException {
+        Long ret;
+        while ((ret = tryAcquire(owner, node)) == null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                release(owner);
+                throw ex;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    @CheckForNull
+    public synchronized Long tryAcquire(String owner, String node) {
+        Holder h = holders.get(owner);
+        if (h != null) {
+            return h.waitedMs;
+        }
+        queue.computeIfAbsent(owner, o -> new Waiter(node));
+        return (isTurn(owner) ? grant(owner) : null);
+    }
+
+    @Override
+    public synchronized void release(String owner) {
+        queue.remove(owner);
+        Holder h = holders.remove(owner);
+        if (h != null) {
+            perNode.computeIfPresent(h.node, (n, count) -> (count > 1 ? count - 1 : null));
+        }
+        notifyAll();
+    }
+}
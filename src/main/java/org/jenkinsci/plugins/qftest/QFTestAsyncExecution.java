@@ -0,0 +1,541 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.actions.WarningAction;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous counterpart of {@link QFTestExecutor}.
+ * Instead of blocking a thread until all QF-Test processes have finished,
+ * the processes are started and then polled periodically. The shared {@link Timer} merely hands off every poll
+ * to a thread pool of this step, which does the blocking work like expanding suites, launching processes
+ * and evaluating their runlogs. Hence, no thread is held while the tests are running,
+ * and a slow agent never holds up other users of the {@link Timer}.
+ * <p>
+ * In durable mode every completed suite is recorded in a {@link Checkpoint}. After a restart of the controller
+ * or a lost connection to the agent, the execution starts over, skipping the suites recorded there
+ * and reusing their runlogs for the final report. QF-Test calls of the previous attempt, which are still running,
+ * are killed beforehand, and suites due for a retry keep the attempts they have already taken.
+ */
+public class QFTestAsyncExecution extends StepExecution {
+
+    private static final long serialVersionUID = -1806958325683096463L;
+
+    static final long POLL_INTERVAL_MS = 2000;
+    static final long RECONNECT_INTERVAL_MS = 10000;
+    static final int MAX_RECONNECT_ATTEMPTS = 60;
+
+    /* runs the polls of all asynchronous executions, threads are only kept while there is work to do */
+    private static final ExecutorService POLLS = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "QFTestAsyncExecution poll")
+    );
+
+    private final QFTestParamProvider params;
+    private final boolean durable;
+
+    /* whether a checkpoint of this execution may exist */
+    private volatile boolean prepared = false;
+    private transient boolean resume = false;
+    private transient int reconnectAttempts = 0;
+
+    /* only touched by the poll in progress, except for being killed by stop() */
+    private transient volatile Progress state;
+    private transient volatile ScheduledFuture<?> task;
+    private transient volatile Future<?> polling;
+    private transient volatile boolean stopped;
+
+    QFTestAsyncExecution(QFTestParamProvider params, StepContext context, boolean durable) {
+        super(context);
+        this.params = params;
+        this.durable = durable;
+    }
+
+    /**
+     * A running execution, advanced by every poll.
+     */
+    interface Progress {
+        /**
+         * Advances the execution as far as possible without waiting for QF-Test.
+         * @return the final result, or null if the execution has not yet finished
+         */
+        @CheckForNull
+        QFTestInfo step() throws Exception;
+
+        /**
+         * Terminates all processes of the execution. May be called concurrently to {@link #step()}.
+         */
+        void kill();
+
+        String getStatus();
+
+        TaskListener getListener();
+    }
+
+    /**
+     * Starts the execution, or starts it over after a restart or a lost connection.
+     * @param resume whether the suites completed according to the checkpoint are to be skipped
+     */
+    Progress open(boolean resume) throws IOException, InterruptedException {
+        StepContext context = getContext();
+        return new State(
+                context.get(Run.class), context.get(FilePath.class), context.get(Launcher.class),
+                context.get(TaskListener.class), context.get(EnvVars.class), resume
+        );
+    }
+
+    long pollInterval() {
+        return POLL_INTERVAL_MS;
+    }
+
+    long reconnectInterval() {
+        return RECONNECT_INTERVAL_MS;
+    }
+
+    /**
+     * Notes that a checkpoint of this execution may exist from now on.
+     */
+    void markPrepared() {
+        prepared = true;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        schedule(0);
+        return false;
+    }
+
+    /**
+     * Stops the execution right away, even if a poll is blocked, e.g. by an agent which does not respond.
+     * The poll in progress is interrupted, and the processes are killed by a thread of the pool.
+     */
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        stopped = true;
+        ScheduledFuture<?> t = task;
+        if (t != null) {
+            t.cancel(false);
+        }
+        Future<?> p = polling;
+        if (p != null) {
+            p.cancel(true);
+        }
+        Progress s = state;
+        if (s != null) {
+            POLLS.submit(s::kill);
+        }
+        getContext().onFailure(cause);
+    }
+
+    @Override
+    public void onResume() {
+        if (!durable) {
+            getContext().onFailure(new AbortException(
+                    "Resuming a QF-Test step after a restart is only supported in durable mode"
+            ));
+            return;
+        }
+        resume = prepared;
+        schedule(pollInterval());
+    }
+
+    @Override
+    public String getStatus() {
+        Progress s = state;
+        return (s != null ? s.getStatus() : "starting");
+    }
+
+    private void schedule(long delayMs) {
+        if (!stopped) {
+            task = Timer.get().schedule(this::handOff, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* runs on the Timer, which must never be blocked */
+    private void handOff() {
+        if (!stopped) {
+            polling = POLLS.submit(this::poll);
+        }
+    }
+
+    /* a single poll at a time, as the next one is only scheduled at its end */
+    private void poll() {
+        if (stopped) {
+            return;
+        }
+        StepContext context = getContext();
+        try {
+            if (state == null) {
+                state = open(resume);
+            }
+
+            QFTestInfo res = state.step();
+            reconnectAttempts = 0;
+            if (stopped) {
+                abandon();
+            } else if (res == null) {
+                schedule(pollInterval());
+            } else {
+                FlowNode node = context.get(FlowNode.class);
+                if (node != null) {
+                    node.addOrReplaceAction(new WarningAction((res.getJenkinsResult())));
+                }
+                context.onSuccess(res);
+            }
+        } catch (IOException ex) {
+            if (stopped) {
+                abandon();
+            } else if (durable && prepared && reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
+                //most likely the agent has been disconnected: start over from the checkpoint
+                reconnectAttempts++;
+                if (state != null) {
+                    state.getListener().getLogger().println(
+                            "Lost connection to the QF-Test processes (" + ex.getMessage() + "), "
+                            + "resuming from checkpoint (attempt " + reconnectAttempts + ")"
+                    );
+                    state.kill();
+                    state = null;
+                }
+                resume = true;
+                schedule(reconnectInterval());
+            } else {
+                fail(ex);
+            }
+        } catch (Throwable t) {
+            if (stopped) {
+                abandon();
+            } else {
+                fail(t);
+            }
+        }
+    }
+
+    /* the step has been stopped during the poll, which may have started further processes meanwhile */
+    private void abandon() {
+        Thread.interrupted(); //set by stop(), but the processes have to be killed nevertheless
+        Progress s = state;
+        if (s != null) {
+            s.kill();
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (state != null) {
+            state.kill();
+        }
+        getContext().onFailure(t);
+    }
+
+    private enum Phase {
+        RUNNING_SUITES,
+        CREATING_REPORTS
+    }
+
+    /**
+     * Everything belonging to a single, running execution. Nothing of this survives a restart,
+     * only the checkpoint written in durable mode.
+     */
+    private class State implements Progress {
+        final Run<?, ?> run;
+        final FilePath workspace;
+        final Launcher launcher;
+        final TaskListener listener;
+        final EnvVars env;
+        final boolean resume;
+
+        volatile Phase phase = Phase.RUNNING_SUITES;
+
+        QFTestExecutor.Imp.Setup setup;
+        SuiteRunner runner;
+
+        /* either the suites are controlled from here ... */
+        SuiteExpansion.Source source;
+        Iterator<List<Suites>> batches;
+        SuiteRunner.Launched[] slots;
+
+        /* ... or by an agent-side loop */
+        Future<SuiteRunner.Outcome> agentSideLoop;
+
+        Character reducedQFTReturnValue = null;
+        List<SuiteResult> suiteResults = Collections.emptyList();
+        Result jenkinsResult;
+        Proc report;
+        Future<List<RunLogReport>> nativeReport;
+        boolean nativeReportStarted = false;
+
+        State(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars env,
+              boolean resume) {
+            this.run = run;
+            this.workspace = workspace;
+            this.launcher = launcher;
+            this.listener = listener;
+            this.env = env;
+            this.resume = resume;
+        }
+
+        @Override
+        public String getStatus() {
+            return phase.toString();
+        }
+
+        @Override
+        public TaskListener getListener() {
+            return listener;
+        }
+
+        @Override
+        @CheckForNull
+        public QFTestInfo step() throws Exception {
+            if (setup == null) {
+                setup = QFTestExecutor.Imp.prepare(run, workspace, launcher, listener, env, params, resume);
+                if (setup == null) {
+                    return new QFTestInfo(Result.fromString(params.getOnTestFailure()));
+                }
+
+                List<Suites> suitefield = QFTestExecutor.Imp.suitefield(params, env);
+                ImpactAnalysis impact = QFTestExecutor.Imp.impact(run, listener, params);
+                runner = new SuiteRunner(setup, params, env);
+                QFTestExecutor.Imp.schedule(run, listener, params, runner);
+                SuiteRunner.AgentSideLoop.check(launcher, params);
+                if (durable) {
+                    Checkpoint checkpoint = new Checkpoint(setup.logdir, setup.qrzdir);
+                    if (resume) {
+                        List<Checkpoint.Entry> done = checkpoint.loadAll();
+                        Collection<Checkpoint.Entry> completed = Checkpoint.latest(done).values();
+                        listener.getLogger().println(
+                                "Resuming QF-Test step, skipping " + completed.size() + " completed suite(s)"
+                        );
+                        //the agents have kept running the calls started before the restart
+                        List<String> cookies = checkpoint.loadLaunches();
+                        Checkpoint.killLeftovers(launcher.getChannel(), cookies);
+                        HelperAgents.killLeftovers(params, cookies);
+                        checkpoint.discardIncomplete(done);
+                        runner.resume(done);
+                        for (Checkpoint.Entry e : completed) {
+                            reducedQFTReturnValue = QFTestExecutor.Imp.reduceReturnValues(
+                                    reducedQFTReturnValue, (char) e.result.getReturnValue()
+                            );
+                        }
+                    }
+                    checkpoint.recordLaunches(runner.getLaunchCookie());
+                    runner.setCheckpoint(checkpoint);
+                    markPrepared();
+                }
+                QFTestExecutor.Imp.fanOut(run, workspace, listener, env, params, setup, runner);
+                QFTestExecutor.Imp.throttle(workspace, params, runner);
+                QFTestExecutor.Imp.resultCache(workspace, listener, env, params, runner);
+                if (params.isAgentSideExecution()) {
+                    agentSideLoop = workspace.actAsync(new SuiteRunner.AgentSideLoop(runner, suitefield, impact, listener));
+                } else {
+                    source = workspace.act(new SuiteExpansion(suitefield, impact, listener));
+                    batches = runner.batches(SuiteExpansion.iterator(source, listener), workspace, listener);
+                    slots = new SuiteRunner.Launched[runner.getParallelism()];
+                }
+            }
+
+            switch (phase) {
+                case RUNNING_SUITES:
+                    if (runningSuites()) {
+                        return null;
+                    }
+                    phase = Phase.CREATING_REPORTS;
+                    jenkinsResult = QFTestExecutor.Imp.jenkinsResult(reducedQFTReturnValue, params);
+                    if (reducedQFTReturnValue == null) {
+                        listener.getLogger().println("No test suites were processed at all!");
+                        return QFTestExecutor.Imp.finish(run, workspace, listener, jenkinsResult, suiteResults);
+                    }
+                    try {
+                        report = QFTestExecutor.Imp.startReports(
+                                run, workspace, launcher, listener, runner.withCookie(env), params, setup
+                        );
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        reportFailed(ex);
+                    }
+                    //fall through
+
+                case CREATING_REPORTS:
+                    if (params.isNativeReport() && !nativeReportStarted) {
+                        //merge once the runlogs of the last calls have been converted
+                        if (runner.reportsPending()) {
+                            return null;
+                        }
+                        runner.cancelReports();
+                        nativeReportStarted = true;
+                        try {
+                            nativeReport = setup.logdir.actAsync(QFTestExecutor.Imp.nativeReports(listener, setup));
+                        } catch (IOException ex) {
+                            reportFailed(ex);
+                        }
+                    }
+                    if (nativeReport != null) {
+                        if (!nativeReport.isDone()) {
+                            return null;
+                        }
+                        try {
+                            QFTestExecutor.Imp.nativeReportsDone(listener, nativeReport.get());
+                        } catch (ExecutionException ex) {
+                            reportFailed(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                        }
+                        nativeReport = null;
+                    }
+                    if (report != null) {
+                        try {
+                            if (report.isAlive()) {
+                                return null;
+                            }
+                            report.join();
+                        } catch (IOException ex) {
+                            reportFailed(ex);
+                        }
+                        report = null;
+                    }
+                    QFTestExecutor.Imp.publishReports(run, workspace, listener, params, setup);
+                    return QFTestExecutor.Imp.finish(run, workspace, listener, jenkinsResult, suiteResults);
+
+                default:
+                    throw new IllegalStateException("Unknown phase " + phase);
+            }
+        }
+
+        private void reportFailed(Exception ex) {
+            jenkinsResult = Result.fromString(params.getOnTestFailure());
+            Functions.printStackTrace(ex, listener.fatalError(ex.getMessage()));
+        }
+
+        /**
+         * Collects finished QF-Test calls and starts new ones for idle slots.
+         * @return whether there are still suites running or pending
+         */
+        private boolean runningSuites() throws Exception {
+            if (agentSideLoop != null) {
+                if (!agentSideLoop.isDone()) {
+                    return true;
+                }
+                try {
+                    SuiteRunner.Outcome outcome = agentSideLoop.get();
+                    reducedQFTReturnValue = QFTestExecutor.Imp.reduceReturnValues(
+                            reducedQFTReturnValue, outcome.returnValue
+                    );
+                    //includes the suites skipped on resume
+                    suiteResults = outcome.results;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    throw ex;
+                }
+                return false;
+            }
+
+            boolean busy = false;
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null) {
+                    runner.checkTimeout(slots[i], listener);
+                    if (slots[i].proc.isAlive()) {
+                        busy = true;
+                        continue;
+                    }
+                    Character ret;
+                    try {
+                        ret = runner.complete(slots[i], slots[i].proc.join(), listener);
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        ret = runner.callFailed(ex, listener);
+                    }
+                    reducedQFTReturnValue = QFTestExecutor.Imp.reduceReturnValues(reducedQFTReturnValue, ret);
+                    slots[i] = null;
+                }
+
+                while (slots[i] == null && batches.hasNext()) {
+                    if (!runner.tryAcquire(i, launcher, listener)) {
+                        //keeps its turn in the queue of the throttle, or waits for the load of the agent to drop
+                        busy = true;
+                        break;
+                    }
+                    try {
+                        slots[i] = runner.launch(batches.next(), i, workspace, launcher, listener);
+                        busy = true;
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        reducedQFTReturnValue = QFTestExecutor.Imp.reduceReturnValues(
+                                reducedQFTReturnValue, runner.callFailed(ex, listener)
+                        );
+                    }
+                }
+            }
+
+            if (!busy) {
+                Iterator<List<Suites>> retries = runner.retries(listener);
+                if (retries != null) {
+                    batches = retries;
+                    return true;
+                }
+                runner.releaseWorkers(listener);
+                source.close();
+                suiteResults = runner.getResults();
+                reducedQFTReturnValue = runner.settle(reducedQFTReturnValue);
+            }
+            return busy;
+        }
+
+        @Override
+        public void kill() {
+            try {
+                if (source != null) {
+                    source.close();
+                }
+                if (agentSideLoop != null) {
+                    agentSideLoop.cancel(true);
+                }
+                if (slots != null) {
+                    for (SuiteRunner.Launched l : slots) {
+                        if (l != null) {
+                            l.proc.kill();
+                        }
+                    }
+                }
+                if (report != null) {
+                    report.kill();
+                }
+                if (runner != null) {
+                    runner.releaseWorkers(listener);
+                    runner.cancelReports();
+                }
+                if (nativeReport != null) {
+                    nativeReport.cancel(true);
+                }
+            } catch (IOException | InterruptedException ex) {
+                Functions.printStackTrace(ex, listener.error("Unable to terminate QF-Test processes"));
+            }
+        }
+    }
+}
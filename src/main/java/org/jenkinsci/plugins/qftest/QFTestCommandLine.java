@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.qftest;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -20,7 +21,9 @@ public class QFTestCommandLine extends ExtendedArgumentListBuilder {
 	public static enum RunMode {
         RUN("-run"),
         GENREPORT("-genreport"),
-        GENDOC("-gendoc");
+        GENDOC("-gendoc"),
+        DAEMON("-daemon"),
+        CALLDAEMON("-calldaemon");
 
         private final String str;
 
@@ -60,6 +63,24 @@ public class QFTestCommandLine extends ExtendedArgumentListBuilder {
         return suites.size();
     }
 
+    /**
+     * Adds several already expanded suites sharing the same custom parameters,
+     * which are then run by a single QF-Test call.
+     */
+    public int addSuiteBatch(List<Suites> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        if (batch.size() > 1 && batch.stream().anyMatch(Suites::isSuitesfile)) {
+            throw new IllegalArgumentException("A suitesfile cannot be run along with further suites");
+        }
+        this.addTokenized(batch.get(0).getCustomParam());
+        for (Suites aSuite : batch) {
+            this.add(aSuite.getSuitename());
+        }
+        return batch.size();
+    }
+
     public Proc start(Launcher launcher, TaskListener listener, FilePath workspace, EnvVars env) throws IOException {
         return launcher.new ProcStarter()
                 .cmds(this)
@@ -69,6 +90,15 @@ public class QFTestCommandLine extends ExtendedArgumentListBuilder {
                 .start();
     }
 
+    public Proc start(Launcher launcher, OutputStream out, FilePath workspace, EnvVars env) throws IOException {
+        return launcher.new ProcStarter()
+                .cmds(this)
+                .stdout(out)
+                .pwd(workspace)
+                .envs(env)
+                .start();
+    }
+
     static public QFTestCommandLine newCommandLine(@Nullable String qftestExe, boolean isUnix, final RunMode aMode) throws java.lang.InterruptedException {
 
         if (qftestExe != null) {
@@ -87,6 +117,17 @@ public class QFTestCommandLine extends ExtendedArgumentListBuilder {
     }
 
 
+    /**
+     * Creates a call passing suites to a running QF-Test daemon.
+     */
+    static public QFTestCommandLine newDaemonCall(@Nullable String qftestExe, boolean isUnix, String host, int port) throws java.lang.InterruptedException {
+        QFTestCommandLine command = newCommandLine(qftestExe, isUnix, RunMode.CALLDAEMON);
+        command
+            .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-daemonhost", host)
+            .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-daemonport", Integer.toString(port));
+        return command;
+    }
+
     private static String pathHeuristic(String stem, boolean isUnix) throws java.io.IOException, java.lang.InterruptedException {
         FilePath path = new FilePath(new File(stem));
 
@@ -26,6 +26,7 @@ package org.jenkinsci.plugins.qftest;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import javax.annotation.CheckForNull;
@@ -180,6 +181,349 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 		}
 	}
 
+	@CheckForNull
+	private Integer parallelism;
+
+	@Override
+	public int getParallelism() {
+		return (parallelism != null ? parallelism : DefaultValues.parallelism);
+	}
+
+	@DataBoundSetter
+	public void setParallelism(int parallelism) {
+		if (parallelism > DefaultValues.parallelism) {
+			this.parallelism = parallelism;
+		} else {
+			this.parallelism = null;
+		}
+	}
+
+	@CheckForNull
+	private Integer batchSize;
+
+	@Override
+	public int getBatchSize() {
+		return (batchSize != null ? batchSize : DefaultValues.batchSize);
+	}
+
+	@DataBoundSetter
+	public void setBatchSize(int batchSize) {
+		if (batchSize > DefaultValues.batchSize) {
+			this.batchSize = batchSize;
+		} else {
+			this.batchSize = null;
+		}
+	}
+
+	private boolean agentSideExecution = false;
+
+	@Override
+	public boolean isAgentSideExecution() {
+		return agentSideExecution;
+	}
+
+	@DataBoundSetter
+	public void setAgentSideExecution(boolean agentSideExecution) {
+		this.agentSideExecution = agentSideExecution;
+	}
+
+	private boolean nativeReport = false;
+
+	@Override
+	public boolean isNativeReport() {
+		return nativeReport;
+	}
+
+	@DataBoundSetter
+	public void setNativeReport(boolean nativeReport) {
+		this.nativeReport = nativeReport;
+	}
+
+	@CheckForNull
+	private Boolean htmlReport;
+
+	@Override
+	public boolean isHtmlReport() {
+		return (htmlReport != null ? htmlReport : true);
+	}
+
+	@DataBoundSetter
+	public void setHtmlReport(boolean htmlReport) {
+		this.htmlReport = (htmlReport ? null : false);
+	}
+
+	private boolean longestFirst = false;
+
+	@Override
+	public boolean isLongestFirst() {
+		return longestFirst;
+	}
+
+	@DataBoundSetter
+	public void setLongestFirst(boolean longestFirst) {
+		this.longestFirst = longestFirst;
+	}
+
+	@CheckForNull
+	private Integer shardCount;
+
+	@Override
+	public int getShardCount() {
+		return (shardCount != null ? shardCount : DefaultValues.shardCount);
+	}
+
+	@DataBoundSetter
+	public void setShardCount(int shardCount) {
+		if (shardCount > DefaultValues.shardCount) {
+			this.shardCount = shardCount;
+		} else {
+			this.shardCount = null;
+		}
+	}
+
+	private int shardIndex = 0;
+
+	@Override
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	@DataBoundSetter
+	public void setShardIndex(int shardIndex) {
+		this.shardIndex = shardIndex;
+	}
+
+	@CheckForNull
+	private String agentLabel;
+
+	@Override
+	@CheckForNull
+	public String getAgentLabel() {
+		return agentLabel;
+	}
+
+	@DataBoundSetter
+	public void setAgentLabel(String agentLabel) {
+		if (agentLabel != null) {
+			agentLabel = agentLabel.trim();
+			this.agentLabel = agentLabel.isEmpty() ? null : agentLabel;
+		}
+	}
+
+	@CheckForNull
+	private FailFast failFast;
+
+	@Override
+	public String getFailFast() {
+		return (failFast != null ? failFast : DefaultValues.failFast).name();
+	}
+
+	@DataBoundSetter
+	public void setFailFast(String failFast) {
+		FailFast f = FailFast.fromString(failFast);
+		this.failFast = (f != DefaultValues.failFast ? f : null);
+	}
+
+	private int suiteTimeout = 0;
+
+	@Override
+	public int getSuiteTimeout() {
+		return suiteTimeout;
+	}
+
+	@DataBoundSetter
+	public void setSuiteTimeout(int suiteTimeout) {
+		this.suiteTimeout = Math.max(0, suiteTimeout);
+	}
+
+	private int outputTimeout = 0;
+
+	@Override
+	public int getOutputTimeout() {
+		return outputTimeout;
+	}
+
+	@DataBoundSetter
+	public void setOutputTimeout(int outputTimeout) {
+		this.outputTimeout = Math.max(0, outputTimeout);
+	}
+
+	private boolean isolateWorkers = false;
+
+	@Override
+	public boolean isIsolateWorkers() {
+		return isolateWorkers;
+	}
+
+	@DataBoundSetter
+	public void setIsolateWorkers(boolean isolateWorkers) {
+		this.isolateWorkers = isolateWorkers;
+	}
+
+	private boolean daemonPool = false;
+
+	@Override
+	public boolean isDaemonPool() {
+		return daemonPool;
+	}
+
+	@DataBoundSetter
+	public void setDaemonPool(boolean daemonPool) {
+		this.daemonPool = daemonPool;
+	}
+
+	@CheckForNull
+	private Integer daemonRecycleAfter;
+
+	@Override
+	public int getDaemonRecycleAfter() {
+		return (daemonRecycleAfter != null ? daemonRecycleAfter : DefaultValues.daemonRecycleAfter);
+	}
+
+	@DataBoundSetter
+	public void setDaemonRecycleAfter(int daemonRecycleAfter) {
+		if (daemonRecycleAfter >= 0 && daemonRecycleAfter != DefaultValues.daemonRecycleAfter) {
+			this.daemonRecycleAfter = daemonRecycleAfter;
+		} else {
+			this.daemonRecycleAfter = null;
+		}
+	}
+
+	@CheckForNull
+	private String daemonEndpoints;
+
+	@Override
+	@CheckForNull
+	public String getDaemonEndpoints() {
+		return daemonEndpoints;
+	}
+
+	@DataBoundSetter
+	public void setDaemonEndpoints(String daemonEndpoints) {
+		if (daemonEndpoints != null) {
+			daemonEndpoints = daemonEndpoints.trim();
+			this.daemonEndpoints = daemonEndpoints.isEmpty() ? null : daemonEndpoints;
+		}
+	}
+
+	private boolean adaptiveParallelism = false;
+
+	@Override
+	public boolean isAdaptiveParallelism() {
+		return adaptiveParallelism;
+	}
+
+	@DataBoundSetter
+	public void setAdaptiveParallelism(boolean adaptiveParallelism) {
+		this.adaptiveParallelism = adaptiveParallelism;
+	}
+
+	@CheckForNull
+	private Integer minParallelism;
+
+	@Override
+	public int getMinParallelism() {
+		return (minParallelism != null ? minParallelism : DefaultValues.minParallelism);
+	}
+
+	@DataBoundSetter
+	public void setMinParallelism(int minParallelism) {
+		if (minParallelism > DefaultValues.minParallelism) {
+			this.minParallelism = minParallelism;
+		} else {
+			this.minParallelism = null;
+		}
+	}
+
+	private int retryCount = 0;
+
+	@Override
+	public int getRetryCount() {
+		return retryCount;
+	}
+
+	@DataBoundSetter
+	public void setRetryCount(int retryCount) {
+		this.retryCount = Math.max(0, retryCount);
+	}
+
+	@CheckForNull
+	private RetryLevel retryLevel;
+
+	@Override
+	public String getRetryLevel() {
+		return (retryLevel != null ? retryLevel : DefaultValues.retryLevel).name();
+	}
+
+	@DataBoundSetter
+	public void setRetryLevel(String retryLevel) {
+		RetryLevel r = RetryLevel.fromString(retryLevel);
+		this.retryLevel = (r != DefaultValues.retryLevel ? r : null);
+	}
+
+	private boolean impactAnalysis = false;
+
+	@Override
+	public boolean isImpactAnalysis() {
+		return impactAnalysis;
+	}
+
+	@DataBoundSetter
+	public void setImpactAnalysis(boolean impactAnalysis) {
+		this.impactAnalysis = impactAnalysis;
+	}
+
+	@CheckForNull
+	private String alwaysRun;
+
+	@Override
+	@CheckForNull
+	public String getAlwaysRun() {
+		return alwaysRun;
+	}
+
+	@DataBoundSetter
+	public void setAlwaysRun(String alwaysRun) {
+		if (alwaysRun != null) {
+			alwaysRun = alwaysRun.trim();
+			this.alwaysRun = alwaysRun.isEmpty() ? null : alwaysRun;
+		}
+	}
+
+	@CheckForNull
+	private String sutFingerprint;
+
+	@Override
+	@CheckForNull
+	public String getSutFingerprint() {
+		return sutFingerprint;
+	}
+
+	@DataBoundSetter
+	public void setSutFingerprint(String sutFingerprint) {
+		if (sutFingerprint != null) {
+			sutFingerprint = sutFingerprint.trim();
+			this.sutFingerprint = sutFingerprint.isEmpty() ? null : sutFingerprint;
+		}
+	}
+
+	@CheckForNull
+	private Integer resultCacheSize;
+
+	@Override
+	public int getResultCacheSize() {
+		return (resultCacheSize != null ? resultCacheSize : DefaultValues.resultCacheSize);
+	}
+
+	@DataBoundSetter
+	public void setResultCacheSize(int resultCacheSize) {
+		if (resultCacheSize > 0 && resultCacheSize != DefaultValues.resultCacheSize) {
+			this.resultCacheSize = resultCacheSize;
+		} else {
+			this.resultCacheSize = null;
+		}
+	}
+
 	/* << SAME LOGIC AS IN QFTESTSTEP << */
 
 
@@ -188,6 +532,11 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 	protected Object readResolve() {
 	    this.setCustomPath(customPath);
 	    this.setReportDirectory(customReports);
+	    if (daemonSelected && daemonhost != null && !daemonhost.trim().isEmpty() && daemonEndpoints == null) {
+	        //configured by the former daemon mode
+	        this.setDaemonEndpoints(daemonhost.trim()
+	                + (daemonport != null && !daemonport.trim().isEmpty() ? ":" + daemonport.trim() : ""));
+	    }
 	    return this;
 	}
 
@@ -214,6 +563,10 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 		@CheckForNull
 		private String qfPathUnix;
 
+		/* 0 means no limit */
+		private int licensePool = 0;
+		private int nodeLimit = 0;
+
 		public DescriptorImpl() {
 
 			load();
@@ -221,6 +574,7 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 			//ensure qfPath is either null or non-empty string
 			qfPath = this.getQfPath();
 			qfPathUnix = this.getQfPathUnix();
+			LicenseThrottle.get().configure(licensePool, nodeLimit);
 		}
 
 		/*
@@ -258,6 +612,9 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 
 			qfPath = formData.getString("qfPath");
 			qfPathUnix = formData.getString("qfPathUnix");
+			licensePool = Math.max(0, formData.optInt("licensePool", 0));
+			nodeLimit = Math.max(0, formData.optInt("nodeLimit", 0));
+			LicenseThrottle.get().configure(licensePool, nodeLimit);
 
 			save();
 			return super.configure(req, formData);
@@ -291,6 +648,36 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 			}
 		}
 
+		/**
+		 * Returns the number of QF-Test processes which may run at the same time
+		 * across all builds, i.e. the size of the license pool.
+		 *
+		 * @return maximum number of processes, or 0 if unlimited
+		 */
+		public int getLicensePool() {
+			return licensePool;
+		}
+
+		/**
+		 * Returns the number of QF-Test processes which may run at the same time on a single node.
+		 *
+		 * @return maximum number of processes per node, or 0 if unlimited
+		 */
+		public int getNodeLimit() {
+			return nodeLimit;
+		}
+
+		/**
+		 * Describes the current usage of the QF-Test slots, as a hint for sizing the license pool.
+		 *
+		 * @return human readable usage
+		 */
+		public String getThrottleStatus() {
+			LicenseThrottle throttle = LicenseThrottle.get();
+			return throttle.getRunning() + " QF-Test process(es) running, " + throttle.getQueued() + " waiting, "
+					+ "average wait for a slot " + TimeUnit.MILLISECONDS.toSeconds(throttle.getAverageWaitMs()) + " s";
+		}
+
 		//TODO: change this
 		public FormValidation doCheckDirectory(@QueryParameter String value) {
 
@@ -332,6 +719,14 @@ public class QFTestConfigBuilder extends Builder implements QFTestParamProvider
 		public ListBoxModel doFillOnTestFailureItems(@QueryParameter("onTestFailure") String preset) {
 			return fillOnTestResult(preset.isEmpty() ? DefaultValues.testFailure : Result.fromString(preset));
 		}
+
+		public ListBoxModel doFillFailFastItems(@QueryParameter("failFast") String preset) {
+			return FailFast.fill(preset.isEmpty() ? DefaultValues.failFast : FailFast.fromString(preset));
+		}
+
+		public ListBoxModel doFillRetryLevelItems(@QueryParameter("retryLevel") String preset) {
+			return RetryLevel.fill(preset.isEmpty() ? DefaultValues.retryLevel : RetryLevel.fromString(preset));
+		}
 	}
 
 	// Descriptor is needed to access global variables
@@ -4,7 +4,11 @@ import htmlpublisher.HtmlPublisher;
 import htmlpublisher.HtmlPublisherTarget;
 import hudson.*;
 import hudson.model.*;
+import hudson.remoting.VirtualChannel;
+import hudson.scm.ChangeLogSet;
+import hudson.slaves.WorkspaceList;
 import jenkins.model.Jenkins;
+import jenkins.scm.RunWithSCM;
 import jenkins.util.BuildListenerAdapter;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.actions.WarningAction;
@@ -13,13 +17,15 @@ import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class QFTestExecutor extends SynchronousNonBlockingStepExecution<QFTestInfo> {
 
@@ -49,7 +55,7 @@ public class QFTestExecutor extends SynchronousNonBlockingStepExecution<QFTestIn
 
     public static class Imp {
 
-        static private Character reduceReturnValues(@CheckForNull  Character previous, @CheckForNull Character ret) {
+        static Character reduceReturnValues(@CheckForNull  Character previous, @CheckForNull Character ret) {
 
             if (ret == null) {
                 return previous;
@@ -61,31 +67,71 @@ public class QFTestExecutor extends SynchronousNonBlockingStepExecution<QFTestIn
             }
         }
 
-        static public QFTestInfo run(
+        static String relativePath(FilePath base, FilePath fp) {
+            String prefix = base.getRemote();
+            String path = fp.getRemote();
+            if (path.startsWith(prefix) && path.length() > prefix.length()) {
+                return path.substring(prefix.length() + 1).replace('\\', '/');
+            }
+            return fp.getName();
+        }
+
+        static private boolean isUnix(FilePath workspace, Launcher launcher) {
+            Computer comp = workspace.toComputer();
+            Boolean isUnix = (comp != null ? comp.isUnix() : null);
+            return (isUnix != null ? isUnix : launcher.isUnix());
+        }
+
+        /**
+         * Directories and settings which are determined once, before any suite is run.
+         */
+        static class Setup implements Serializable {
+
+            private static final long serialVersionUID = -6620939417417036384L;
+
+            final FilePath logdir;
+            final FilePath htmldir;
+            final FilePath junitdir;
+            final FilePath qrzdir;
+            final String qfBinaryPath;
+            final boolean isUnix;
+
+            Setup(FilePath logdir, String qfBinaryPath, boolean isUnix) {
+                this.logdir = logdir;
+                this.htmldir = logdir.child("html");
+                this.junitdir = logdir.child("junit");
+                this.qrzdir = logdir.child("qrz");
+                this.qfBinaryPath = qfBinaryPath;
+                this.isUnix = isUnix;
+            }
+        }
+
+        /**
+         * Creates the output directories and determines the QF-Test binary.
+         * @param resume keep the results of a previous, interrupted attempt instead of clearing the directories
+         * @return null, if the QF-Test binary could not be determined. The run has been marked accordingly then.
+         */
+        @CheckForNull
+        static Setup prepare(
                 @Nonnull Run<?, ?> run,
                 @Nonnull FilePath workspace,
                 @Nonnull Launcher launcher,
                 @Nonnull TaskListener listener,
                 @Nonnull EnvVars env,
-                QFTestParamProvider qftParams)
+                QFTestParamProvider qftParams,
+                boolean resume)
                 throws InterruptedException, IOException
         {
-            Result jenkinsResult;
             FilePath logdir = workspace.child(env.expand(qftParams.getReportDirectory()));
 
-            listener.getLogger().println("(Creating and/or clearing " + logdir.getName() + " directory");
-            logdir.mkdirs();
-            logdir.deleteContents();
-
-            FilePath htmldir = logdir.child("html");
-            htmldir.mkdirs();
-
-			FilePath junitdir = logdir.child("junit");
-			junitdir.mkdirs();
-
-            FilePath qrzdir = logdir.child("qrz");
-            qrzdir.mkdirs();
-
+            if (resume) {
+                listener.getLogger().println("(Reusing " + logdir.getName() + " directory");
+                logdir.mkdirs();
+            } else {
+                listener.getLogger().println("(Creating and/or clearing " + logdir.getName() + " directory");
+                logdir.mkdirs();
+                logdir.deleteContents();
+            }
 
             final String qfBinaryPath;
             if (qftParams.getCustomPath() == null && run instanceof AbstractBuild) {
@@ -99,158 +145,394 @@ public class QFTestExecutor extends SynchronousNonBlockingStepExecution<QFTestIn
                     qfBinaryPath = env.expand(path);
                 } else {
                     listener.error("Computer is offline. Unable to determine QF-Test binary path");
-                    jenkinsResult = Result.fromString(qftParams.getOnTestFailure());
-                    run.setResult(jenkinsResult);
-                    return new QFTestInfo(jenkinsResult);
+                    run.setResult(Result.fromString(qftParams.getOnTestFailure()));
+                    return null;
                 }
             } else {
                 qfBinaryPath = env.expand(qftParams.getCustomPath());
             }
 
-            //RUN SUITES
-            Character reducedQFTReturnValue = qftParams.getSuitefield().stream()
-                    .map(sf -> new Suites(
+            Setup setup = new Setup(logdir, qfBinaryPath, isUnix(workspace, launcher));
+            setup.htmldir.mkdirs();
+            setup.junitdir.mkdirs();
+            setup.qrzdir.mkdirs();
+            return setup;
+        }
+
+        static List<Suites> suitefield(QFTestParamProvider qftParams, EnvVars env) {
+            return qftParams.getSuitefield().stream()
+                    .map(sf -> sf.derive(
                             env.expand(sf.getSuitename()), env.expand(sf.getCustomParam())
                     ))
-                    .flatMap(sf -> { //expand to single suites
-                        try {
-                            return sf.expand(workspace);
-                        } catch (FileNotFoundException ex) {
-                            listener.getLogger().println(ex.getMessage());
-                            return Stream.empty();
-                        } catch (Exception ex) {
-                            Functions.printStackTrace(
-                                    ex, listener.fatalError(
-                                            "During expansion of" + sf + "\n" + ex.getMessage()
-                                    ));
-                            return Stream.empty();
-                        }
-                    })
-                    .peek(sf -> listener.getLogger().println(sf.toString())) //after path expansion
-                    .map(sf -> {
-                        try {
-
-                            QFTestCommandLine args = QFTestCommandLine.newCommandLine(
-                                    qfBinaryPath, workspace.toComputer().isUnix(), QFTestCommandLine.RunMode.RUN
-                            );
-                             args
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-report", "")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-report.html", "")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-report.junit", "")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-report.xml", "")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-gendoc")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-testdoc")
-                                .presetArg(QFTestCommandLine.PresetType.DROP, "-pkgdoc")
-                                .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-nomessagewindow")
-                                .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-runlogdir", qrzdir.getRemote());
-                            int nSuites = args.addSuiteConfig(workspace, sf);
-
-                            assert(nSuites == 1); //expansion already done by explicit call of Suite::expand above
-
-                            int ret = args.start(launcher, listener, workspace, env).join();
-                            List<String> alteredArgs = args.getAlteredArgs();
-
-                            if (! alteredArgs.isEmpty()) {
-                                listener.getLogger().println("The following arguments have been dropped or altered:\n\t" + String.join(" ", args.getAlteredArgs()));
-                            }
-
-                            listener.getLogger().println("  Finished with return value: " + ret);
-                            return (char) ret;
-
-                        } catch (Exception ex) {
-                            listener.error(ex.getMessage());
-                            Functions.printStackTrace(ex, listener.fatalError(ex.getMessage()));
-                            return (char) 4; //Test exception
-                        }
-                    })
-                    .reduce(null, Imp::reduceReturnValues);
-
-            //DETEERMINE BUILD STATUS
+                    .collect(Collectors.toList());
+        }
 
-            if (reducedQFTReturnValue != null ) {
-                switch (reducedQFTReturnValue.charValue()) {
-                    case (0):
-                        jenkinsResult = Result.SUCCESS;
-                        break;
-                    case (1):
-                        jenkinsResult = Result.fromString(qftParams.getOnTestWarning());
-                        break;
-                    case (2):
-                        jenkinsResult = Result.fromString(qftParams.getOnTestError());
-                        break;
-                    case (3):
-                        jenkinsResult = Result.fromString(qftParams.getOnTestException());
-                        break;
-                    default:
-                        jenkinsResult = Result.fromString(qftParams.getOnTestFailure());
-                        break;
-                }
+        static Result jenkinsResult(@CheckForNull Character reducedQFTReturnValue, QFTestParamProvider qftParams) {
+            if (reducedQFTReturnValue == null) { //never run
+                return Result.fromString(qftParams.getOnTestFailure());
+            }
+            switch (reducedQFTReturnValue.charValue()) {
+                case (0):
+                    return Result.SUCCESS;
+                case (1):
+                    return Result.fromString(qftParams.getOnTestWarning());
+                case (2):
+                    return Result.fromString(qftParams.getOnTestError());
+                case (3):
+                    return Result.fromString(qftParams.getOnTestException());
+                default:
+                    return Result.fromString(qftParams.getOnTestFailure());
+            }
+        }
 
-                //PICKUP ARTIFACTS
-                java.util.function.Function<FilePath, String> fp_names = (fp -> fp.getName());
+        /**
+         * Archives the runlogs and starts the QF-Test call creating the reports.
+         * @return the report process, or null if there are no runlogs at all
+         */
+        @CheckForNull
+        static Proc startReports(
+                @Nonnull Run<?, ?> run,
+                @Nonnull FilePath workspace,
+                @Nonnull Launcher launcher,
+                @Nonnull TaskListener listener,
+                @Nonnull EnvVars env,
+                QFTestParamProvider qftParams,
+                Setup setup)
+                throws Exception
+        {
+            //PICKUP ARTIFACTS
+            final FilePath qrzdir = setup.qrzdir;
+            java.util.function.Function<FilePath, String> fp_names = (fp -> relativePath(qrzdir, fp));
+            run.pickArtifactManager().archive(
+                    qrzdir, launcher, new BuildListenerAdapter(listener),
+                    Arrays.stream(qrzdir.list("**/*.q*"))
+                            .collect(Collectors.toMap(fp_names, fp_names))
+            );
+            //failed attempts of suites which have passed on a retry
+            final FilePath flakydir = setup.logdir.child(SuiteRunner.FLAKY_DIR);
+            if (flakydir.isDirectory()) {
+                java.util.function.Function<FilePath, String> flaky_names = (fp -> relativePath(setup.logdir, fp));
                 run.pickArtifactManager().archive(
-                        qrzdir, launcher, new BuildListenerAdapter(listener),
-                        Arrays.stream(qrzdir.list("*.q*"))
-                                .collect(Collectors.toMap(fp_names, fp_names))
+                        setup.logdir, launcher, new BuildListenerAdapter(listener),
+                        Arrays.stream(flakydir.list("**/*.q*"))
+                                .collect(Collectors.toMap(flaky_names, flaky_names))
                 );
+            }
 
-                //CREATE REPORTS
-                listener.getLogger().println("Creating reports");
+            //CREATE REPORTS
+            RunLogs rl = new RunLogs(qftParams.getReportGenArgs());
 
-                try {
-                	Computer comp = workspace.toComputer();
-                	assert(comp != null);
-                    Boolean isUnix = comp.isUnix();
-                    assert(isUnix != null);
+            if (qftParams.isNativeReport() && !qftParams.isHtmlReport()) {
+                //nothing left for QF-Test to do
+                if (qrzdir.list(rl.directorySearchString()).length > 0) {
+                    return null;
+                }
+                listener.getLogger().println("No reports found. Marking run with `test failure'");
+                run.setResult(Result.fromString(qftParams.getOnTestFailure()));
+                return null;
+            }
 
-                    QFTestCommandLine args = QFTestCommandLine.newCommandLine(
-                            qfBinaryPath, isUnix, QFTestCommandLine.RunMode.GENREPORT
-                    );
+            listener.getLogger().println("Creating reports");
+
+            QFTestCommandLine args = QFTestCommandLine.newCommandLine(
+                    setup.qfBinaryPath, setup.isUnix, QFTestCommandLine.RunMode.GENREPORT
+            );
 
-                    args.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-runlogdir", qrzdir.getRemote())
-                            .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-report.html", htmldir.getRemote())
-                            .presetArg(QFTestCommandLine.PresetType.DEFAULT, "-report.junit", junitdir.getRemote());
+            args.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-runlogdir", qrzdir.getRemote());
+            if (qftParams.isHtmlReport()) {
+                args.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-report.html", setup.htmldir.getRemote());
+            }
+            if (qftParams.isNativeReport()) {
+                //the JUnit report is created by RunLogReport
+                args.presetArg(QFTestCommandLine.PresetType.DROP, "-report.junit", "");
+            } else {
+                args.presetArg(QFTestCommandLine.PresetType.DEFAULT, "-report.junit", setup.junitdir.getRemote());
+            }
 
-                    RunLogs rl = new RunLogs(qftParams.getReportGenArgs());
+            int nReports = args.addSuiteConfig(qrzdir, rl);
+            if (nReports > 0) {
+                List<String> alteredArgs = args.getAlteredArgs();
 
-                    int nReports = args.addSuiteConfig(qrzdir, rl);
-                    if (nReports > 0) {
-                        args.start(launcher, listener, workspace, env).join();
-                        List<String> alteredArgs = args.getAlteredArgs();
+                if (! alteredArgs.isEmpty()) {
+                    listener.getLogger().println("The following arguments have been dropped or altered:\n\t" + String.join(" ", args.getAlteredArgs()));
+                }
+                return args.start(launcher, listener, workspace, env);
+            } else {
+                listener.getLogger().println("No reports found. Marking run with `test failure'");
+                run.setResult(Result.fromString(qftParams.getOnTestFailure()));
+                return null;
+            }
+        }
+
+        /**
+         * Converts all runlogs into JUnit XML within the plugin, see {@link RunLogReport}.
+         */
+        static RunLogReport.Generate nativeReports(TaskListener listener, Setup setup) {
+            listener.getLogger().println("Converting runlogs to JUnit XML");
+            return new RunLogReport.Generate(setup.qrzdir.getName(), setup.junitdir.getName());
+        }
 
-                        if (! alteredArgs.isEmpty()) {
-                            listener.getLogger().println("The following arguments have been dropped or altered:\n\t" + String.join(" ", args.getAlteredArgs()));
+        static void nativeReportsDone(TaskListener listener, List<RunLogReport> reports) {
+            int tests = 0, failures = 0, errors = 0;
+            for (RunLogReport r : reports) {
+                tests += r.getTests();
+                failures += r.getFailures();
+                errors += r.getErrors();
+            }
+            listener.getLogger().println("Converted " + reports.size() + " runlogs: " + tests + " test cases, "
+                    + failures + " failed, " + errors + " with exceptions");
+        }
+
+        static void publishReports(
+                @Nonnull Run<?, ?> run,
+                @Nonnull FilePath workspace,
+                @Nonnull TaskListener listener,
+                QFTestParamProvider qftParams,
+                Setup setup)
+                throws InterruptedException
+        {
+            if (!qftParams.isHtmlReport()) {
+                return;
+            }
+
+            //Publish HTML report
+            HtmlPublisher.publishReports(
+                    run, workspace, listener, Collections.singletonList(new HtmlPublisherTarget(
+                            "QF-Test Report", setup.htmldir.getRemote(), "report.html", true, false, false
+                    )), qftParams.getClass() //TODO: this clazz ok?
+            );
+        }
+
+        /**
+         * Hands out suites to further agents matching the agent label of the step, if any.
+         */
+        static void fanOut(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull TaskListener listener,
+                           @Nonnull EnvVars env, QFTestParamProvider qftParams, Setup setup, SuiteRunner runner)
+                throws IOException, InterruptedException
+        {
+            if (qftParams.getAgentLabel() == null) {
+                return;
+            }
+            runner.setHelpers(HelperAgents.allocate(run, workspace, listener, env, qftParams, setup));
+        }
+
+        /**
+         * Collects the files changed since the last successful build, if only the suites affected by them are to be run.
+         * The changes of the failed, unstable or aborted builds in between count as well,
+         * so the suites affected by them are run until they have passed once.
+         * @return null, if all suites are to be run
+         */
+        @CheckForNull
+        static ImpactAnalysis impact(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener, QFTestParamProvider qftParams) {
+            if (!qftParams.isImpactAnalysis()) {
+                return null;
+            }
+            if (!(run instanceof RunWithSCM)) {
+                listener.getLogger().println("Impact analysis: no SCM changes available, running all suites");
+                return null;
+            }
+            Run<?, ?> lastSuccess = run.getPreviousSuccessfulBuild();
+            if (lastSuccess == null) {
+                listener.getLogger().println("Impact analysis: no successful build yet, running all suites");
+                return null;
+            }
+            Set<String> changed = new HashSet<>();
+            int builds = 0;
+            for (Run<?, ?> r = run; r != null && r.getNumber() > lastSuccess.getNumber(); r = r.getPreviousBuild()) {
+                if (r instanceof RunWithSCM) {
+                    for (ChangeLogSet<? extends ChangeLogSet.Entry> changeSet : ((RunWithSCM<?, ?>) r).getChangeSets()) {
+                        for (ChangeLogSet.Entry e : changeSet) {
+                            changed.addAll(e.getAffectedPaths());
                         }
-                    } else {
-                        listener.getLogger().println("No reports found. Marking run with `test failure'");
-                        run.setResult(Result.fromString(qftParams.getOnTestFailure()));
                     }
-                } catch (java.lang.Exception ex) {
-                    jenkinsResult = Result.fromString(qftParams.getOnTestFailure());
-                    Functions.printStackTrace(ex, listener.fatalError(ex.getMessage()));
                 }
+                builds++;
+            }
+            if (changed.isEmpty()) {
+                //e.g. a build started manually
+                listener.getLogger().println("Impact analysis: no files changed since the last successful build "
+                        + lastSuccess.getDisplayName() + ", running all suites");
+                return null;
+            }
+            if (builds > 1) {
+                listener.getLogger().println("Impact analysis: considering the changes of " + builds
+                        + " builds since the last successful build " + lastSuccess.getDisplayName());
+            }
+            return new ImpactAnalysis(changed, qftParams.getAlwaysRun());
+        }
 
-                //Publish HTML report
-                HtmlPublisher.publishReports(
-                        run, workspace, listener, Collections.singletonList(new HtmlPublisherTarget(
-                                "QF-Test Report", htmldir.getRemote(), "report.html", true, false, false
-                        )), qftParams.getClass() //TODO: this clazz ok?
-                );
+        /**
+         * Takes the results of suites from the result cache of the agent, if a fingerprint of the SUT is given.
+         */
+        static void resultCache(@Nonnull FilePath workspace, @Nonnull TaskListener listener, @Nonnull EnvVars env,
+                                QFTestParamProvider qftParams, SuiteRunner runner)
+        {
+            if (qftParams.getSutFingerprint() == null) {
+                return;
+            }
+            String fingerprint = env.expand(qftParams.getSutFingerprint());
+            Computer computer = workspace.toComputer();
+            Node node = (computer != null ? computer.getNode() : null);
+            FilePath root = (node != null ? node.getRootPath() : null);
+            if (root == null) {
+                root = WorkspaceList.tempDir(workspace);
+            }
+            if (root == null) {
+                listener.getLogger().println("No directory for the result cache available, running all suites");
+                return;
+            }
+            ResultCache cache = new ResultCache(root.child(ResultCache.DIR), fingerprint, qftParams.getResultCacheSize());
+            listener.getLogger().println("Using result cache " + cache.getDir().getRemote()
+                    + " for SUT fingerprint " + fingerprint);
+            runner.setResultCache(cache);
+        }
 
-            } else { //never run
-                listener.getLogger().println("No test suites were processed at all!");
-                jenkinsResult = Result.fromString(qftParams.getOnTestFailure());
+        /**
+         * Subjects the QF-Test processes of the step to the global limits, if any are configured.
+         */
+        static void throttle(@Nonnull FilePath workspace, QFTestParamProvider qftParams, SuiteRunner runner) {
+            LicenseThrottle throttle = LicenseThrottle.get();
+            if (!throttle.isEnabled()) {
+                return;
+            }
+            Computer computer = workspace.toComputer();
+            String node = (computer != null ? computer.getName() : "");
+            VirtualChannel channel = workspace.getChannel();
+            if (qftParams.isAgentSideExecution() && workspace.isRemote() && channel != null) {
+                //the loop on the agent asks the controller for every slot
+                runner.setThrottle(channel.export(LicenseSlots.class, throttle), node);
+            } else {
+                runner.setThrottle(throttle, node);
             }
+        }
+
+        /**
+         * Provides the historical durations of the suites, if needed for ordering or sharding them.
+         */
+        static void schedule(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener,
+                             QFTestParamProvider qftParams, SuiteRunner runner)
+                throws AbortException
+        {
+            int shardCount = qftParams.getShardCount();
+            if (qftParams.getShardIndex() < 0 || qftParams.getShardIndex() >= shardCount) {
+                throw new AbortException("Invalid shard index " + qftParams.getShardIndex()
+                        + " for " + shardCount + " shards");
+            }
+            if (!qftParams.isLongestFirst() && shardCount <= 1) {
+                return;
+            }
+            try {
+                //all shards of a build have to see the same durations
+                SuiteDurations durations = (shardCount > 1
+                        ? SuiteDurations.snapshot(run)
+                        : SuiteDurations.load(SuiteDurations.fileOf(run.getParent())));
+                Map<String, Long> estimates = durations.getEstimates();
+                if (qftParams.isLongestFirst()) {
+                    listener.getLogger().println("Running suites longest first (" + estimates.size() + " durations known)");
+                }
+                runner.setEstimates(estimates);
+            } catch (IOException ex) {
+                Functions.printStackTrace(ex, listener.error("Unable to read suite durations"));
+                if (shardCount > 1) {
+                    throw new AbortException("Unable to partition the suites among the shards");
+                }
+            }
+        }
 
+        static QFTestInfo finish(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull TaskListener listener,
+                                 Result jenkinsResult, List<SuiteResult> suiteResults)
+                throws AbortException
+        {
             run.setResult(jenkinsResult);
+            if (!suiteResults.isEmpty()) {
+                QFTestResultsAction.add(run, suiteResults);
+                try {
+                    SuiteDurations.record(run.getParent(), suiteResults, workspace.getRemote(), run.getNumber());
+                } catch (IOException ex) {
+                    Functions.printStackTrace(ex, listener.error("Unable to record suite durations"));
+                }
+            }
 
             if (jenkinsResult == Result.ABORTED) {
                 throw new AbortException("Aborted due to failure during QF-Test build step");
             }
 
-            return new QFTestInfo(jenkinsResult);
+            return new QFTestInfo(jenkinsResult, suiteResults);
         }
-    }
-}
 
+        static public QFTestInfo run(
+                @Nonnull Run<?, ?> run,
+                @Nonnull FilePath workspace,
+                @Nonnull Launcher launcher,
+                @Nonnull TaskListener listener,
+                @Nonnull EnvVars env,
+                QFTestParamProvider qftParams)
+                throws InterruptedException, IOException
+        {
+            Setup setup = prepare(run, workspace, launcher, listener, env, qftParams, false);
+            if (setup == null) {
+                return new QFTestInfo(Result.fromString(qftParams.getOnTestFailure()));
+            }
+
+            //RUN SUITES
+            List<Suites> suitefield = suitefield(qftParams, env);
+
+            ImpactAnalysis impact = impact(run, listener, qftParams);
+            SuiteRunner runner = new SuiteRunner(setup, qftParams, env);
+            schedule(run, listener, qftParams, runner);
+            SuiteRunner.AgentSideLoop.check(launcher, qftParams);
+            fanOut(run, workspace, listener, env, qftParams, setup, runner);
+            throttle(workspace, qftParams, runner);
+            resultCache(workspace, listener, env, qftParams, runner);
+            Character reducedQFTReturnValue;
+            List<SuiteResult> suiteResults;
+            if (qftParams.isAgentSideExecution()) {
+                //ship the whole loop to the agent
+                SuiteRunner.Outcome outcome = workspace.act(new SuiteRunner.AgentSideLoop(runner, suitefield, impact, listener));
+                reducedQFTReturnValue = outcome.returnValue;
+                suiteResults = outcome.results;
+            } else {
+                SuiteExpansion.Source suites = workspace.act(new SuiteExpansion(suitefield, impact, listener));
+                try {
+                    reducedQFTReturnValue = runner.run(
+                            SuiteExpansion.iterator(suites, listener), workspace, launcher, listener
+                    );
+                } finally {
+                    suites.close();
+                }
+                suiteResults = runner.getResults();
+            }
+
+            //DETEERMINE BUILD STATUS
+            Result jenkinsResult = jenkinsResult(reducedQFTReturnValue, qftParams);
 
+            if (reducedQFTReturnValue != null ) {
+                try {
+                    Proc report = startReports(run, workspace, launcher, listener, env, qftParams, setup);
+                    try {
+                        if (qftParams.isNativeReport()) {
+                            //runs concurrently to the HTML report generation
+                            nativeReportsDone(listener, setup.logdir.act(nativeReports(listener, setup)));
+                        }
+                    } finally {
+                        if (report != null) {
+                            report.join();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    throw ex;
+                } catch (java.lang.Exception ex) {
+                    jenkinsResult = Result.fromString(qftParams.getOnTestFailure());
+                    Functions.printStackTrace(ex, listener.fatalError(ex.getMessage()));
+                }
+
+                publishReports(run, workspace, listener, qftParams, setup);
+
+            } else { //never run
+                listener.getLogger().println("No test suites were processed at all!");
+            }
+
+            return finish(run, workspace, listener, jenkinsResult, suiteResults);
+        }
+    }
+}
@@ -4,23 +4,39 @@ import hudson.model.Result;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Class that bundles all information provided by an QF-Test step.
  * It's intended to be used within the groovy pipeline script.
- * ATM, only getJenkinsResult is implemented.
  */
 public class QFTestInfo implements Serializable {
 
 	private static final long serialVersionUID = 1843071790051519624L;
 	private Result jenkinsResult;
+	private List<SuiteResult> suiteResults;
 
     @Whitelisted
     public Result getJenkinsResult() {
         return jenkinsResult;
     }
 
+    /**
+     * @return the outcome of every single suite run by the step
+     */
+    @Whitelisted
+    public List<SuiteResult> getSuiteResults() {
+        return (suiteResults != null ? suiteResults : Collections.emptyList());
+    }
+
     public QFTestInfo(Result jenkinsResult) {
+        this(jenkinsResult, Collections.emptyList());
+    }
+
+    public QFTestInfo(Result jenkinsResult, List<SuiteResult> suiteResults) {
         this.jenkinsResult = jenkinsResult;
+        this.suiteResults = new ArrayList<>(suiteResults);
     }
 }
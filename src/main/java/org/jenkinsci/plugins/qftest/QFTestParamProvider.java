@@ -5,6 +5,7 @@ This interface boundles all relevant functions  which both arms,
 a (pipeline) step and a (classical) builder have to offer
  */
 
+import javax.annotation.CheckForNull;
 import java.io.Serializable;
 import java.util.List;
 
@@ -23,5 +24,57 @@ public interface QFTestParamProvider extends Serializable {
     String getOnTestException();
 
     String getReportGenArgs();
+
+    int getParallelism();
+
+    int getBatchSize();
+
+    boolean isAgentSideExecution();
+
+    boolean isNativeReport();
+
+    boolean isHtmlReport();
+
+    boolean isLongestFirst();
+
+    int getShardCount();
+
+    int getShardIndex();
+
+    @CheckForNull
+    String getAgentLabel();
+
+    String getFailFast();
+
+    int getSuiteTimeout();
+
+    int getOutputTimeout();
+
+    boolean isIsolateWorkers();
+
+    boolean isDaemonPool();
+
+    int getDaemonRecycleAfter();
+
+    @CheckForNull
+    String getDaemonEndpoints();
+
+    boolean isAdaptiveParallelism();
+
+    int getMinParallelism();
+
+    int getRetryCount();
+
+    String getRetryLevel();
+
+    boolean isImpactAnalysis();
+
+    @CheckForNull
+    String getAlwaysRun();
+
+    @CheckForNull
+    String getSutFingerprint();
+
+    int getResultCacheSize();
 }
 
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link SuiteResult}s of all QF-Test steps of a build, so they are still available
+ * once the build has finished, e.g. by <tt>currentBuild.rawBuild.getAction(...)</tt> or the REST API
+ * (<tt>.../api/json?tree=actions[results[*]]</tt>).
+ */
+@ExportedBean
+public class QFTestResultsAction extends InvisibleAction {
+
+    private static final Logger LOGGER = Logger.getLogger(QFTestResultsAction.class.getName());
+
+    private final List<SuiteResult> results = new ArrayList<>();
+
+    @Exported
+    @Whitelisted
+    public synchronized List<SuiteResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+    synchronized void addAll(List<SuiteResult> results) {
+        this.results.addAll(results);
+    }
+
+    /**
+     * Appends the results of a QF-Test step to the action of the given build.
+     */
+    static void add(Run<?, ?> run, List<SuiteResult> results) {
+        QFTestResultsAction action;
+        synchronized (run) {
+            action = run.getAction(QFTestResultsAction.class);
+            if (action == null) {
+                action = new QFTestResultsAction();
+                run.addAction(action);
+            }
+        }
+        action.addAll(results);
+        try {
+            run.save();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to save QF-Test results of " + run, ex);
+        }
+    }
+}
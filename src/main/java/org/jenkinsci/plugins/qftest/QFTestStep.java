@@ -136,10 +136,378 @@ public class QFTestStep extends Step implements QFTestParamProvider {
             this.onTestFailure = Result.fromString(onTestFailure);
         }
     }
+
+    @CheckForNull
+    private Integer parallelism;
+
+    @Override
+    public int getParallelism() {
+        return (parallelism != null ? parallelism : DefaultValues.parallelism);
+    }
+
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        if (parallelism > DefaultValues.parallelism) {
+            this.parallelism = parallelism;
+        } else {
+            this.parallelism = null;
+        }
+    }
+
+    @CheckForNull
+    private Integer batchSize;
+
+    @Override
+    public int getBatchSize() {
+        return (batchSize != null ? batchSize : DefaultValues.batchSize);
+    }
+
+    @DataBoundSetter
+    public void setBatchSize(int batchSize) {
+        if (batchSize > DefaultValues.batchSize) {
+            this.batchSize = batchSize;
+        } else {
+            this.batchSize = null;
+        }
+    }
+
+    private boolean agentSideExecution = false;
+
+    @Override
+    public boolean isAgentSideExecution() {
+        return agentSideExecution;
+    }
+
+    @DataBoundSetter
+    public void setAgentSideExecution(boolean agentSideExecution) {
+        this.agentSideExecution = agentSideExecution;
+    }
+
+    private boolean nativeReport = false;
+
+    @Override
+    public boolean isNativeReport() {
+        return nativeReport;
+    }
+
+    @DataBoundSetter
+    public void setNativeReport(boolean nativeReport) {
+        this.nativeReport = nativeReport;
+    }
+
+    @CheckForNull
+    private Boolean htmlReport;
+
+    @Override
+    public boolean isHtmlReport() {
+        return (htmlReport != null ? htmlReport : true);
+    }
+
+    @DataBoundSetter
+    public void setHtmlReport(boolean htmlReport) {
+        this.htmlReport = (htmlReport ? null : false);
+    }
+
+    private boolean longestFirst = false;
+
+    @Override
+    public boolean isLongestFirst() {
+        return longestFirst;
+    }
+
+    @DataBoundSetter
+    public void setLongestFirst(boolean longestFirst) {
+        this.longestFirst = longestFirst;
+    }
+
+    @CheckForNull
+    private Integer shardCount;
+
+    @Override
+    public int getShardCount() {
+        return (shardCount != null ? shardCount : DefaultValues.shardCount);
+    }
+
+    @DataBoundSetter
+    public void setShardCount(int shardCount) {
+        if (shardCount > DefaultValues.shardCount) {
+            this.shardCount = shardCount;
+        } else {
+            this.shardCount = null;
+        }
+    }
+
+    private int shardIndex = 0;
+
+    @Override
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    @DataBoundSetter
+    public void setShardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+
+    @CheckForNull
+    private String agentLabel;
+
+    @Override
+    @CheckForNull
+    public String getAgentLabel() {
+        return agentLabel;
+    }
+
+    @DataBoundSetter
+    public void setAgentLabel(String agentLabel) {
+        if (agentLabel != null) {
+            agentLabel = agentLabel.trim();
+            this.agentLabel = agentLabel.isEmpty() ? null : agentLabel;
+        }
+    }
+
+    @CheckForNull
+    private FailFast failFast;
+
+    @Override
+    public String getFailFast() {
+        return (failFast != null ? failFast : DefaultValues.failFast).name();
+    }
+
+    @DataBoundSetter
+    public void setFailFast(String failFast) {
+        FailFast f = FailFast.fromString(failFast);
+        this.failFast = (f != DefaultValues.failFast ? f : null);
+    }
+
+    private int suiteTimeout = 0;
+
+    @Override
+    public int getSuiteTimeout() {
+        return suiteTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSuiteTimeout(int suiteTimeout) {
+        this.suiteTimeout = Math.max(0, suiteTimeout);
+    }
+
+    private int outputTimeout = 0;
+
+    @Override
+    public int getOutputTimeout() {
+        return outputTimeout;
+    }
+
+    @DataBoundSetter
+    public void setOutputTimeout(int outputTimeout) {
+        this.outputTimeout = Math.max(0, outputTimeout);
+    }
+
+    private boolean isolateWorkers = false;
+
+    @Override
+    public boolean isIsolateWorkers() {
+        return isolateWorkers;
+    }
+
+    @DataBoundSetter
+    public void setIsolateWorkers(boolean isolateWorkers) {
+        this.isolateWorkers = isolateWorkers;
+    }
+
+    private boolean daemonPool = false;
+
+    @Override
+    public boolean isDaemonPool() {
+        return daemonPool;
+    }
+
+    @DataBoundSetter
+    public void setDaemonPool(boolean daemonPool) {
+        this.daemonPool = daemonPool;
+    }
+
+    @CheckForNull
+    private Integer daemonRecycleAfter;
+
+    @Override
+    public int getDaemonRecycleAfter() {
+        return (daemonRecycleAfter != null ? daemonRecycleAfter : DefaultValues.daemonRecycleAfter);
+    }
+
+    @DataBoundSetter
+    public void setDaemonRecycleAfter(int daemonRecycleAfter) {
+        if (daemonRecycleAfter >= 0 && daemonRecycleAfter != DefaultValues.daemonRecycleAfter) {
+            this.daemonRecycleAfter = daemonRecycleAfter;
+        } else {
+            this.daemonRecycleAfter = null;
+        }
+    }
+
+    @CheckForNull
+    private String daemonEndpoints;
+
+    @Override
+    @CheckForNull
+    public String getDaemonEndpoints() {
+        return daemonEndpoints;
+    }
+
+    @DataBoundSetter
+    public void setDaemonEndpoints(String daemonEndpoints) {
+        if (daemonEndpoints != null) {
+            daemonEndpoints = daemonEndpoints.trim();
+            this.daemonEndpoints = daemonEndpoints.isEmpty() ? null : daemonEndpoints;
+        }
+    }
+
+    private boolean adaptiveParallelism = false;
+
+    @Override
+    public boolean isAdaptiveParallelism() {
+        return adaptiveParallelism;
+    }
+
+    @DataBoundSetter
+    public void setAdaptiveParallelism(boolean adaptiveParallelism) {
+        this.adaptiveParallelism = adaptiveParallelism;
+    }
+
+    @CheckForNull
+    private Integer minParallelism;
+
+    @Override
+    public int getMinParallelism() {
+        return (minParallelism != null ? minParallelism : DefaultValues.minParallelism);
+    }
+
+    @DataBoundSetter
+    public void setMinParallelism(int minParallelism) {
+        if (minParallelism > DefaultValues.minParallelism) {
+            this.minParallelism = minParallelism;
+        } else {
+            this.minParallelism = null;
+        }
+    }
+
+    private int retryCount = 0;
+
+    @Override
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    @DataBoundSetter
+    public void setRetryCount(int retryCount) {
+        this.retryCount = Math.max(0, retryCount);
+    }
+
+    @CheckForNull
+    private RetryLevel retryLevel;
+
+    @Override
+    public String getRetryLevel() {
+        return (retryLevel != null ? retryLevel : DefaultValues.retryLevel).name();
+    }
+
+    @DataBoundSetter
+    public void setRetryLevel(String retryLevel) {
+        RetryLevel r = RetryLevel.fromString(retryLevel);
+        this.retryLevel = (r != DefaultValues.retryLevel ? r : null);
+    }
+
+    private boolean impactAnalysis = false;
+
+    @Override
+    public boolean isImpactAnalysis() {
+        return impactAnalysis;
+    }
+
+    @DataBoundSetter
+    public void setImpactAnalysis(boolean impactAnalysis) {
+        this.impactAnalysis = impactAnalysis;
+    }
+
+    @CheckForNull
+    private String alwaysRun;
+
+    @Override
+    @CheckForNull
+    public String getAlwaysRun() {
+        return alwaysRun;
+    }
+
+    @DataBoundSetter
+    public void setAlwaysRun(String alwaysRun) {
+        if (alwaysRun != null) {
+            alwaysRun = alwaysRun.trim();
+            this.alwaysRun = alwaysRun.isEmpty() ? null : alwaysRun;
+        }
+    }
+
+    @CheckForNull
+    private String sutFingerprint;
+
+    @Override
+    @CheckForNull
+    public String getSutFingerprint() {
+        return sutFingerprint;
+    }
+
+    @DataBoundSetter
+    public void setSutFingerprint(String sutFingerprint) {
+        if (sutFingerprint != null) {
+            sutFingerprint = sutFingerprint.trim();
+            this.sutFingerprint = sutFingerprint.isEmpty() ? null : sutFingerprint;
+        }
+    }
+
+    @CheckForNull
+    private Integer resultCacheSize;
+
+    @Override
+    public int getResultCacheSize() {
+        return (resultCacheSize != null ? resultCacheSize : DefaultValues.resultCacheSize);
+    }
+
+    @DataBoundSetter
+    public void setResultCacheSize(int resultCacheSize) {
+        if (resultCacheSize > 0 && resultCacheSize != DefaultValues.resultCacheSize) {
+            this.resultCacheSize = resultCacheSize;
+        } else {
+            this.resultCacheSize = null;
+        }
+    }
     /* << SAME LOGIC AS IN QFTESTSTEP << */
 
+    private boolean asynchronous = false;
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    @DataBoundSetter
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    private boolean durable = false;
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    @DataBoundSetter
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
     @Override
     public StepExecution start(StepContext stepContext) throws Exception {
+        if (asynchronous || durable) {
+            return new QFTestAsyncExecution(this, stepContext, durable);
+        }
         return new QFTestExecutor(this, stepContext);
     }
 
@@ -182,5 +550,15 @@ public class QFTestStep extends Step implements QFTestParamProvider {
             //no persistent configuration available .. use default
             return QFTestConfigBuilder.DescriptorImpl.fillOnTestResult(DefaultValues.testFailure);
         }
+
+        public ListBoxModel doFillFailFastItems() {
+            //no persistent configuration available .. use default
+            return FailFast.fill(DefaultValues.failFast);
+        }
+
+        public ListBoxModel doFillRetryLevelItems() {
+            //no persistent configuration available .. use default
+            return RetryLevel.fill(DefaultValues.retryLevel);
+        }
     }
 }
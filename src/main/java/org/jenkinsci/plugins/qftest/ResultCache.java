@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Caches the results of suites on the local disk of the agent, so a suite which has passed before is not run again.
+ * <p>
+ * A result is keyed by the SHA-256 hash of the suite, of all suites it refers to, directly or transitively
+ * (see {@link ImpactAnalysis#references}), of the effective command line of the call and of a fingerprint of the
+ * system under test given by the user. An entry is a directory named by its key, holding the runlogs of the suite
+ * and a result file with the return value and the names and sizes of the runlogs.
+ * Once the cache exceeds its size, the entries used least recently are removed.
+ * <p>
+ * Entries are not locked: a lookup copies the runlogs aside first and only counts as a hit, if all runlogs
+ * listed by the result file have been copied completely, so an entry evicted concurrently is a miss.
+ */
+class ResultCache implements Serializable {
+
+    private static final long serialVersionUID = 6124950338561741325L;
+
+    /* below the root directory of the agent */
+    static final String DIR = "qftest-result-cache";
+
+    static final String RESULT_FILE = "result";
+
+    private final FilePath dir;
+    private final String fingerprint;
+    private final long maxBytes;
+
+    /**
+     * @param dir          the cache directory, on the agent running the step
+     * @param fingerprint  identifies the system under test
+     * @param maxMegabytes size of the cache, before entries are evicted
+     */
+    ResultCache(FilePath dir, String fingerprint, int maxMegabytes) {
+        this.dir = dir;
+        this.fingerprint = fingerprint;
+        this.maxBytes = maxMegabytes * 1024L * 1024L;
+    }
+
+    FilePath getDir() {
+        return dir;
+    }
+
+    /**
+     * @param suite the suite
+     * @param base  the workspace, where references are looked up besides the directory of the suite
+     * @param args  the command line of the call, without the suite
+     * @return the key of the result of the suite
+     */
+    static String key(File suite, File base, List<String> args, String fingerprint) throws IOException {
+        StringBuilder content = new StringBuilder(fingerprint).append('\n');
+        for (String arg : args) {
+            content.append(arg).append('\u0000');
+        }
+        content.append('\n').append(relative(suite, base)).append('\n');
+
+        Set<String> seen = new HashSet<>();
+        Deque<File> pending = new ArrayDeque<>();
+        pending.add(suite);
+        while (!pending.isEmpty()) {
+            File f = pending.poll();
+            if (!seen.add(f.getAbsolutePath())) {
+                continue;
+            }
+            if (!f.isFile()) {
+                content.append("missing ").append(relative(f, base)).append('\n');
+                continue;
+            }
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            content.append(ImpactAnalysis.sha256(bytes)).append('\n');
+            try {
+                for (String ref : ImpactAnalysis.references(new ByteArrayInputStream(bytes))) {
+                    pending.add(ImpactAnalysis.resolve(ref, f, base));
+                }
+            } catch (IOException ex) {
+                //not a plain XML suite, e.g. compressed: only the suite itself counts
+            }
+        }
+        return ImpactAnalysis.sha256(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String relative(File file, File base) {
+        String path = file.getAbsolutePath();
+        String prefix = base.getAbsolutePath() + File.separator;
+        return (path.startsWith(prefix) ? path.substring(prefix.length()) : path).replace('\\', '/');
+    }
+
+    /**
+     * Looks up the result of the given suite.
+     * @param workspace where the suite is found
+     * @param args      the command line of the call, without the suite
+     * @param target    where the runlogs of a cached result are copied to, each into a directory of its own
+     */
+    Hit lookup(FilePath workspace, Suites sf, List<String> args, FilePath target) throws IOException, InterruptedException {
+        return workspace.act(new Lookup(dir.getRemote(), fingerprint, sf.getSuitename(), args, target.getRemote()));
+    }
+
+    /**
+     * Records the result of a suite, which has been looked up before without a hit.
+     * @param runlogs the runlogs of the suite
+     * @return the number of entries evicted
+     */
+    int store(String key, int returnValue, List<FilePath> runlogs) throws IOException, InterruptedException {
+        List<String> paths = new ArrayList<>();
+        for (FilePath runlog : runlogs) {
+            paths.add(runlog.getRemote());
+        }
+        return dir.act(new Store(key, returnValue, paths, maxBytes));
+    }
+
+    /**
+     * The outcome of a lookup.
+     */
+    static class Hit implements Serializable {
+
+        private static final long serialVersionUID = -2917480612538236215L;
+
+        final String key;
+        /* null, if no result has been cached */
+        @CheckForNull
+        final Integer returnValue;
+        /* below the target of the lookup */
+        final String dir;
+        final List<String> runlogs;
+        final long runlogSize;
+
+        Hit(String key, @CheckForNull Integer returnValue, String dir, List<String> runlogs, long runlogSize) {
+            this.key = key;
+            this.returnValue = returnValue;
+            this.dir = dir;
+            this.runlogs = runlogs;
+            this.runlogSize = runlogSize;
+        }
+    }
+
+    static class Lookup extends MasterToSlaveFileCallable<Hit> {
+
+        private static final long serialVersionUID = 3310927651749285307L;
+
+        private final String cacheDir;
+        private final String fingerprint;
+        private final String suite;
+        private final List<String> args;
+        private final String target;
+
+        Lookup(String cacheDir, String fingerprint, String suite, List<String> args, String target) {
+            this.cacheDir = cacheDir;
+            this.fingerprint = fingerprint;
+            this.suite = suite;
+            this.args = new ArrayList<>(args);
+            this.target = target;
+        }
+
+        @Override
+        public Hit invoke(File base, VirtualChannel channel) throws IOException {
+            File f = new File(suite);
+            if (!f.isAbsolute()) {
+                f = new File(base, suite);
+            }
+            String key = key(f, base, args, fingerprint);
+            Hit miss = new Hit(key, null, "", new ArrayList<>(), 0);
+            File entry = new File(cacheDir, key);
+            List<String> result;
+            try {
+                result = Files.readAllLines(new File(entry, RESULT_FILE).toPath(), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                return miss; //not cached, or evicted meanwhile
+            }
+            //used most recently now, so a concurrent eviction is less likely to pick it
+            entry.setLastModified(System.currentTimeMillis());
+
+            String sub = key.substring(0, 12);
+            File tmp = new File(target, "." + sub + "-" + UUID.randomUUID());
+            Files.createDirectories(tmp.toPath());
+            try {
+                int returnValue = Integer.parseInt(result.get(0).trim());
+                List<String> runlogs = new ArrayList<>();
+                long size = 0;
+                for (String line : result.subList(1, result.size())) {
+                    String[] fields = line.split("\t");
+                    File copied = new File(tmp, fields[0]);
+                    Files.copy(new File(entry, fields[0]).toPath(), copied.toPath());
+                    if (copied.length() != Long.parseLong(fields[1])) {
+                        return miss; //damaged
+                    }
+                    runlogs.add(fields[0]);
+                    size += copied.length();
+                }
+                File copy = new File(target, sub);
+                deleteRecursive(copy);
+                if (!tmp.renameTo(copy)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + copy);
+                }
+                return new Hit(key, returnValue, sub, runlogs, size);
+            } catch (NoSuchFileException ex) {
+                return miss; //evicted meanwhile
+            } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+                return miss; //damaged result file
+            } finally {
+                deleteRecursive(tmp);
+            }
+        }
+    }
+
+    static class Store extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = -4406829190536210486L;
+
+        private final String key;
+        private final int returnValue;
+        private final List<String> runlogs;
+        private final long maxBytes;
+
+        Store(String key, int returnValue, List<String> runlogs, long maxBytes) {
+            this.key = key;
+            this.returnValue = returnValue;
+            this.runlogs = new ArrayList<>(runlogs);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Integer invoke(File cacheDir, VirtualChannel channel) throws IOException {
+            File entry = new File(cacheDir, key);
+            if (!entry.isDirectory()) {
+                //written aside, so a concurrent lookup never sees an incomplete entry
+                File tmp = new File(cacheDir, "." + key + "-" + UUID.randomUUID());
+                Files.createDirectories(tmp.toPath());
+                try {
+                    List<String> result = new ArrayList<>();
+                    result.add(Integer.toString(returnValue));
+                    for (String runlog : runlogs) {
+                        File f = new File(runlog);
+                        File copied = new File(tmp, f.getName());
+                        Files.copy(f.toPath(), copied.toPath());
+                        result.add(f.getName() + "\t" + copied.length());
+                    }
+                    Files.write(new File(tmp, RESULT_FILE).toPath(), result, StandardCharsets.UTF_8);
+                    if (!tmp.renameTo(entry)) {
+                        //stored concurrently by another build
+                        deleteRecursive(tmp);
+                    }
+                } catch (IOException ex) {
+                    deleteRecursive(tmp);
+                    throw ex;
+                }
+            }
+            return evict(cacheDir, maxBytes);
+        }
+    }
+
+    /**
+     * Removes the entries used least recently, until the cache does not exceed the given size.
+     * @return the number of entries removed
+     */
+    static int evict(File cacheDir, long maxBytes) {
+        File[] entries = cacheDir.listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+        if (entries == null) {
+            return 0;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+        long total = 0;
+        int ret = 0;
+        for (File entry : entries) {
+            total += size(entry);
+            if (total > maxBytes) {
+                deleteRecursive(entry);
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private static long size(File entry) {
+        long ret = 0;
+        File[] files = entry.listFiles();
+        for (File f : (files != null ? files : new File[0])) {
+            ret += f.length();
+        }
+        return ret;
+    }
+
+    private static void deleteRecursive(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursive(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * The least QF-Test return value of a suite which gets it retried.
+ * The names match those of {@link FailFast}, which served as retry level before, so stored configurations still apply.
+ */
+enum RetryLevel {
+    NEVER(Integer.MAX_VALUE, "None"),
+    WARNING(1, "Suites with warnings, errors or exceptions"),
+    ERROR(2, "Suites with errors or exceptions"),
+    EXCEPTION(3, "Suites with exceptions"),
+    FAILURE(4, "Suites which could not be run");
+
+    private final int returnValue;
+    private final String displayName;
+
+    RetryLevel(int returnValue, String displayName) {
+        this.returnValue = returnValue;
+        this.displayName = displayName;
+    }
+
+    boolean isTriggeredBy(int returnValue) {
+        return returnValue >= this.returnValue;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the level of the given name, falling back to {@link #NEVER} for unknown ones
+     */
+    static RetryLevel fromString(String name) {
+        for (RetryLevel r : values()) {
+            if (r.name().equalsIgnoreCase(name)) {
+                return r;
+            }
+        }
+        return NEVER;
+    }
+
+    static ListBoxModel fill(RetryLevel preSelect) {
+        ListBoxModel items = new ListBoxModel();
+        for (RetryLevel r : values()) {
+            items.add(new ListBoxModel.Option(r.getDisplayName(), r.name(), r == preSelect));
+        }
+        return items;
+    }
+}
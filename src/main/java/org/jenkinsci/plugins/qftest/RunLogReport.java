@@ -0,0 +1,459 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts QF-Test runlogs into JUnit XML without a separate QF-Test process.
+ * The runlog is read with StAX, so memory stays constant regardless of its size:
+ * only the names of the enclosing test sets and the test case currently read are kept.
+ * The test cases are written to a temporary file first, as the totals of the JUnit
+ * <tt>testsuite</tt> element are only known at the end of the runlog.
+ */
+class RunLogReport implements Serializable {
+
+    private static final long serialVersionUID = -4010436812409719212L;
+
+    static final String SUMMARY_FILE = "summary.txt";
+
+    /* cap for failure messages taken from the runlog */
+    static final int MAX_MESSAGE_LENGTH = 1000;
+
+    private final RunLogSummary summary;
+    private final int tests;
+    private final int failures;
+    private final int errors;
+    private final long durationMs;
+
+    RunLogReport(RunLogSummary summary, int tests, int failures, int errors, long durationMs) {
+        this.summary = summary;
+        this.tests = tests;
+        this.failures = failures;
+        this.errors = errors;
+        this.durationMs = durationMs;
+    }
+
+    public RunLogSummary getSummary() {
+        return summary;
+    }
+
+    public int getTests() {
+        return tests;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @Override
+    public String toString() {
+        return summary + ": " + tests + " test cases, " + failures + " failed, " + errors + " with exceptions";
+    }
+
+    static boolean isTestSet(String element) {
+        return element.equals("TestSet") || element.equals("TestSetStep");
+    }
+
+    static boolean isTestCase(String element) {
+        return element.equals("TestCase") || element.equals("TestCaseStep");
+    }
+
+    static boolean isMessage(String element) {
+        return element.endsWith("Error") || element.endsWith("Exception");
+    }
+
+    static long durationAttribute(XMLStreamReader reader) {
+        for (String name : new String[]{"duration", "realtime"}) {
+            String value = reader.getAttributeValue(null, name);
+            if (value != null && !value.isEmpty()) {
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (NumberFormatException ex) {
+                    //try next
+                }
+            }
+        }
+        return 0;
+    }
+
+    static String seconds(long ms) {
+        return String.format(Locale.ROOT, "%.3f", ms / 1000.0);
+    }
+
+    /* the test case currently read */
+    private static class TestCase {
+        final String classname;
+        final String name;
+        final int errors;
+        final int exceptions;
+        final long durationMs;
+        String message = null;
+
+        TestCase(String classname, String name, int errors, int exceptions, long durationMs) {
+            this.classname = classname;
+            this.name = name;
+            this.errors = errors;
+            this.exceptions = exceptions;
+            this.durationMs = durationMs;
+        }
+    }
+
+    /**
+     * Converts a single runlog.
+     * @param name  name of the runlog, also used as name of the JUnit test suite
+     * @param raw   the runlog, compressed or not
+     * @param junit the JUnit XML file to write
+     */
+    static RunLogReport convert(String name, InputStream raw, File junit) throws IOException {
+        String suiteName = name.replaceFirst("\\.q(rl|rz|zp)$", "").replace('/', '.');
+        File body = File.createTempFile("junit", ".part", junit.getParentFile());
+        try {
+            RunLogSummary summary = null;
+            int tests = 0;
+            int failures = 0;
+            int errors = 0;
+            long durationMs = 0;
+
+            try (InputStream xml = RunLogSummary.openXml(raw);
+                 Writer out = new OutputStreamWriter(new FileOutputStream(body), StandardCharsets.UTF_8)) {
+                XMLStreamReader reader = RunLogSummary.newReader(xml);
+                XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+                try {
+                    Deque<String> testSets = new ArrayDeque<>();
+                    Deque<Boolean> isSet = new ArrayDeque<>();
+                    TestCase current = null;
+                    int caseDepth = 0;
+
+                    while (reader.hasNext()) {
+                        int event = reader.next();
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            String element = reader.getLocalName();
+                            if (summary == null) {
+                                summary = new RunLogSummary(name,
+                                        RunLogSummary.intAttribute(reader, "warnings"),
+                                        RunLogSummary.intAttribute(reader, "errors"),
+                                        RunLogSummary.intAttribute(reader, "exceptions")
+                                );
+                                durationMs = durationAttribute(reader);
+                            }
+                            if (current != null) {
+                                //nested test cases are part of the outer one
+                                caseDepth++;
+                                if (current.message == null && isMessage(element)) {
+                                    current.message = reader.getAttributeValue(null, "message");
+                                }
+                            } else if (isTestCase(element)) {
+                                String setName = String.join(".", (Iterable<String>) testSets::descendingIterator);
+                                current = new TestCase(
+                                        setName.isEmpty() ? suiteName : suiteName + "." + setName,
+                                        nameAttribute(reader),
+                                        RunLogSummary.intAttribute(reader, "errors"),
+                                        RunLogSummary.intAttribute(reader, "exceptions"),
+                                        durationAttribute(reader)
+                                );
+                                caseDepth = 0;
+                            } else {
+                                boolean set = isTestSet(element);
+                                if (set) {
+                                    testSets.push(nameAttribute(reader));
+                                }
+                                isSet.push(set);
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            if (current != null) {
+                                if (caseDepth > 0) {
+                                    caseDepth--;
+                                    continue;
+                                }
+                                tests++;
+                                if (current.exceptions > 0) {
+                                    errors++;
+                                } else if (current.errors > 0) {
+                                    failures++;
+                                }
+                                write(writer, current);
+                                current = null;
+                            } else if (!isSet.isEmpty() && isSet.pop()) {
+                                testSets.pop();
+                            }
+                        }
+                    }
+                    writer.flush();
+                } finally {
+                    reader.close();
+                    writer.close();
+                }
+            } catch (XMLStreamException ex) {
+                throw new IOException("Unable to convert runlog " + name, ex);
+            }
+
+            if (summary == null) {
+                throw new IOException("No root element found in runlog " + name);
+            }
+
+            //the file only appears once complete, so a concurrent conversion of the same runlog is harmless
+            File complete = File.createTempFile("junit", ".xml.tmp", junit.getParentFile());
+            try {
+                try (OutputStream out = new FileOutputStream(complete)) {
+                    Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                    w.write("<testsuite name=\"" + escapeAttribute(suiteName) + "\" tests=\"" + tests
+                            + "\" failures=\"" + failures + "\" errors=\"" + errors + "\" skipped=\"0\" time=\""
+                            + seconds(durationMs) + "\">\n");
+                    w.flush();
+                    Files.copy(body.toPath(), out);
+                    w.write("</testsuite>\n");
+                    w.flush();
+                }
+                Files.move(complete.toPath(), junit.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(complete.toPath());
+            }
+
+            return new RunLogReport(summary, tests, failures, errors, durationMs);
+        } finally {
+            Files.deleteIfExists(body.toPath());
+        }
+    }
+
+    /**
+     * Reads the outcome of a runlog, which has already been converted, without converting it again.
+     * Only the root elements of the runlog and the JUnit file are parsed.
+     */
+    static RunLogReport readConverted(String name, File runlog, File junit) throws IOException {
+        RunLogSummary summary;
+        try (InputStream in = new FileInputStream(runlog)) {
+            summary = RunLogSummary.read(name, in);
+        }
+        try (InputStream in = new FileInputStream(junit)) {
+            XMLStreamReader reader = RunLogSummary.newReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        String time = reader.getAttributeValue(null, "time");
+                        long durationMs = 0;
+                        try {
+                            durationMs = (time != null ? Math.round(Double.parseDouble(time) * 1000) : 0);
+                        } catch (NumberFormatException ex) {
+                            //keep 0
+                        }
+                        return new RunLogReport(summary,
+                                RunLogSummary.intAttribute(reader, "tests"),
+                                RunLogSummary.intAttribute(reader, "failures"),
+                                RunLogSummary.intAttribute(reader, "errors"),
+                                durationMs
+                        );
+                    }
+                }
+                throw new IOException("No root element found in " + junit);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Unable to parse " + junit, ex);
+        }
+    }
+
+    static String junitName(String runlogName) {
+        return "TEST-" + runlogName.substring(0, runlogName.length() - 4) + ".xml";
+    }
+
+    /**
+     * Converts the runlogs within a directory below qrz, reusing JUnit files which are up to date.
+     */
+    static void convertDir(File dir, File out, String rel, boolean recursive, List<RunLogReport> ret)
+            throws IOException, InterruptedException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (child.isDirectory()) {
+                if (recursive) {
+                    convertDir(child, new File(out, child.getName()), rel + child.getName() + "/", true, ret);
+                }
+            } else if (RunLogSummary.isRunLog(child.getName())) {
+                if (!out.isDirectory() && !out.mkdirs()) {
+                    throw new IOException("Unable to create " + out);
+                }
+                File junit = new File(out, junitName(child.getName()));
+                try {
+                    if (junit.lastModified() >= child.lastModified()) {
+                        ret.add(readConverted(rel + child.getName(), child, junit));
+                    } else {
+                        try (InputStream in = new FileInputStream(child)) {
+                            ret.add(convert(rel + child.getName(), in, junit));
+                        }
+                    }
+                } catch (IOException ex) {
+                    //e.g. a runlog of a killed QF-Test process: leave it to the report generation
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes JUnit files, whose runlog does not exist (anymore).
+     */
+    static void pruneOrphans(File qrz, File out) throws IOException {
+        File[] children = out.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                pruneOrphans(new File(qrz, child.getName()), child);
+                continue;
+            }
+            String name = child.getName();
+            if (!name.startsWith("TEST-") || !name.endsWith(".xml")) {
+                continue;
+            }
+            String base = name.substring(5, name.length() - 4);
+            boolean found = false;
+            for (String ext : new String[]{".qrl", ".qrz", ".qzp"}) {
+                found |= new File(qrz, base + ext).isFile();
+            }
+            if (!found) {
+                Files.delete(child.toPath());
+            }
+        }
+    }
+
+    private static String nameAttribute(XMLStreamReader reader) {
+        String ret = reader.getAttributeValue(null, "name");
+        return (ret != null ? ret : reader.getLocalName());
+    }
+
+    private static void write(XMLStreamWriter writer, TestCase tc) throws XMLStreamException {
+        writer.writeStartElement("testcase");
+        writer.writeAttribute("classname", tc.classname);
+        writer.writeAttribute("name", tc.name);
+        writer.writeAttribute("time", seconds(tc.durationMs));
+        if (tc.exceptions > 0 || tc.errors > 0) {
+            String message = tc.message;
+            if (message == null) {
+                message = tc.errors + " error(s), " + tc.exceptions + " exception(s)";
+            } else if (message.length() > MAX_MESSAGE_LENGTH) {
+                message = message.substring(0, MAX_MESSAGE_LENGTH) + "...";
+            }
+            writer.writeEmptyElement(tc.exceptions > 0 ? "error" : "failure");
+            writer.writeAttribute("message", message);
+        }
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    static String escapeAttribute(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Converts all runlogs below the <tt>qrz</tt> directory of a report directory on the agent.
+     * Every runlog is written to a JUnit XML file of the same relative path, and a summary of all runlogs
+     * is written to {@link #SUMMARY_FILE}.
+     * Runlogs which have already been converted by a {@link Fragment} are merged without parsing them again.
+     */
+    static class Generate extends MasterToSlaveFileCallable<List<RunLogReport>> {
+
+        private static final long serialVersionUID = 8104541553632389123L;
+
+        private final String qrzdir;
+        private final String junitdir;
+
+        Generate(String qrzdir, String junitdir) {
+            this.qrzdir = qrzdir;
+            this.junitdir = junitdir;
+        }
+
+        @Override
+        public List<RunLogReport> invoke(File logdir, VirtualChannel channel) throws IOException, InterruptedException {
+            List<RunLogReport> ret = new ArrayList<>();
+            File qrz = new File(logdir, qrzdir);
+            File junit = new File(logdir, junitdir);
+            pruneOrphans(qrz, junit);
+            convertDir(qrz, junit, "", true, ret);
+
+            try (PrintWriter w = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(logdir, SUMMARY_FILE)), StandardCharsets.UTF_8))) {
+                int tests = 0, failures = 0, errors = 0;
+                for (RunLogReport r : ret) {
+                    w.println(r);
+                    tests += r.tests;
+                    failures += r.failures;
+                    errors += r.errors;
+                }
+                w.println("Total: " + ret.size() + " runlogs, " + tests + " test cases, "
+                        + failures + " failed, " + errors + " with exceptions");
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Converts the runlogs of a single directory below <tt>qrz</tt>, e.g. right after a QF-Test call has finished,
+     * while other suites are still running.
+     */
+    static class Fragment extends MasterToSlaveFileCallable<List<RunLogReport>> {
+
+        private static final long serialVersionUID = -6150420455390931842L;
+
+        private final String qrzdir;
+        private final String junitdir;
+        private final String rel;
+
+        /**
+         * @param rel the directory relative to qrz, either empty or ending with a slash
+         */
+        Fragment(String qrzdir, String junitdir, String rel) {
+            this.qrzdir = qrzdir;
+            this.junitdir = junitdir;
+            this.rel = rel;
+        }
+
+        @Override
+        public List<RunLogReport> invoke(File logdir, VirtualChannel channel) throws IOException, InterruptedException {
+            List<RunLogReport> ret = new ArrayList<>();
+            convertDir(new File(new File(logdir, qrzdir), rel), new File(new File(logdir, junitdir), rel), rel, false, ret);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The outcome of a single QF-Test runlog, i.e. the number of warnings, errors and exceptions
+ * which are aggregated at its root node.
+ * Runlogs are read in a streaming fashion, so only the very first element of the (compressed) XML is parsed.
+ */
+class RunLogSummary implements Serializable {
+
+    private static final long serialVersionUID = 6472085533301853924L;
+
+    private final String name;
+    private final int warnings;
+    private final int errors;
+    private final int exceptions;
+
+    RunLogSummary(String name, int warnings, int errors, int exceptions) {
+        this.name = name;
+        this.warnings = warnings;
+        this.errors = errors;
+        this.exceptions = exceptions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWarnings() {
+        return warnings;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    public int getExceptions() {
+        return exceptions;
+    }
+
+    /**
+     * @return the return value QF-Test would have given for this runlog alone
+     */
+    public char getReturnValue() {
+        if (exceptions > 0) {
+            return 3;
+        } else if (errors > 0) {
+            return 2;
+        } else if (warnings > 0) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (warnings: " + warnings + ", errors: " + errors + ", exceptions: " + exceptions + ")";
+    }
+
+    static boolean isRunLog(String fileName) {
+        return fileName.endsWith(".qrl") || fileName.endsWith(".qrz") || fileName.endsWith(".qzp");
+    }
+
+    /**
+     * Opens a runlog for reading, regardless whether it is stored as plain XML (.qrl),
+     * gzip compressed (.qrz) or as zip archive with external screenshots (.qzp).
+     */
+    static InputStream openXml(InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+
+        if (b1 == 0x1f && b2 == 0x8b) {
+            return new GZIPInputStream(in);
+        } else if (b1 == 'P' && b2 == 'K') {
+            ZipInputStream zip = new ZipInputStream(in);
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (entry.getName().endsWith(".qrl") || entry.getName().endsWith(".xml")) {
+                    return zip;
+                }
+            }
+            throw new IOException("No runlog found in archive");
+        } else {
+            return in;
+        }
+    }
+
+    static XMLStreamReader newReader(InputStream xml) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory.createXMLStreamReader(xml);
+    }
+
+    static int intAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    static RunLogSummary read(String name, InputStream raw) throws IOException {
+        try (InputStream xml = openXml(raw)) {
+            XMLStreamReader reader = newReader(xml);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        return new RunLogSummary(name,
+                                intAttribute(reader, "warnings"),
+                                intAttribute(reader, "errors"),
+                                intAttribute(reader, "exceptions")
+                        );
+                    }
+                }
+                throw new IOException("No root element found in runlog " + name);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Unable to parse runlog " + name, ex);
+        }
+    }
+
+    static RunLogSummary read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(file.getName(), in);
+        }
+    }
+
+    /**
+     * Reads the summaries of all runlogs within a directory (non-recursive) on the agent.
+     * Runlogs which cannot be parsed are skipped.
+     */
+    static class Scan extends MasterToSlaveFileCallable<Map<String, RunLogSummary>> {
+
+        private static final long serialVersionUID = -2214386604569880232L;
+
+        @Override
+        public Map<String, RunLogSummary> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String, RunLogSummary> ret = new LinkedHashMap<>();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.isFile() && isRunLog(f.getName())) {
+                        try {
+                            ret.put(f.getName(), read(f));
+                        } catch (IOException ex) {
+                            //not a valid runlog (yet), e.g. if QF-Test was killed
+                        }
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Finds the runlog belonging to the given suite.
+     * QF-Test names its runlogs after the base name of the suite file, optionally followed by a separator
+     * and a timestamp or counter, e.g. <tt>suite-20200110-123456.qrz</tt>.
+     * A runlog of another suite merely starting with the same name, like <tt>suite2.qrz</tt>, does not count.
+     */
+    @CheckForNull
+    static RunLogSummary forSuite(Map<String, RunLogSummary> runlogs, String suitePath) {
+        String base = new File(suitePath.replace('\\', '/')).getName();
+        if (base.endsWith(".qft")) {
+            base = base.substring(0, base.length() - 4);
+        }
+        RunLogSummary ret = null;
+        for (Map.Entry<String, RunLogSummary> e : runlogs.entrySet()) {
+            if (isRunLogOf(e.getKey(), base)) {
+                if (ret != null) {
+                    return null; //ambiguous
+                }
+                ret = e.getValue();
+            }
+        }
+        return ret;
+    }
+
+    static boolean isRunLogOf(String runlog, String base) {
+        String stem = runlog.substring(0, runlog.lastIndexOf('.') >= 0 ? runlog.lastIndexOf('.') : runlog.length());
+        if (!stem.startsWith(base)) {
+            return false;
+        }
+        String rest = stem.substring(base.length());
+        return rest.isEmpty() || rest.matches("[-_.+ ][0-9][-_.+0-9]*");
+    }
+}
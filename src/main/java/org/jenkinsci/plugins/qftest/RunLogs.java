@@ -11,6 +11,6 @@ public class RunLogs extends Suites {
 
     @Override
     protected String directorySearchString() {
-        return "*.q??";
+        return "**/*.q??";
     }
 }
@@ -0,0 +1,264 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the attempts of the suites of a {@link SuiteRunner}: the suites completed before the step
+ * has been resumed, the suites due for a retry, and which results supersede the ones of earlier attempts.
+ * Suites are keyed like in the {@link Checkpoint}.
+ */
+class SuiteAttempts implements Serializable {
+
+    private static final long serialVersionUID = -1739016424903378265L;
+
+    private final int retryCount;
+    private final RetryLevel retryLevel;
+    private final FilePath logdir;
+    private final FilePath qrzdir;
+    /* the results of the runner, shared with it */
+    private final List<SuiteResult> results;
+
+    private final Set<String> completed = new HashSet<>();
+    /* the current round of retries, 0 while the suites are run for the first time */
+    private int attempt = 0;
+    /* suites whose last attempt has reached the retry level */
+    private final Map<String, Retry> retryable = new LinkedHashMap<>();
+    /* reduced return value of the calls which have failed without any suite result */
+    @CheckForNull
+    private Character callFailures;
+
+    /**
+     * @param results the synchronized list of results of the runner, where superseded attempts are removed
+     */
+    SuiteAttempts(int retryCount, RetryLevel retryLevel, FilePath logdir, FilePath qrzdir, List<SuiteResult> results) {
+        this.retryCount = retryCount;
+        this.retryLevel = retryLevel;
+        this.logdir = logdir;
+        this.qrzdir = qrzdir;
+        this.results = results;
+    }
+
+    /**
+     * @return whether suites reaching the retry level are run again at all
+     */
+    boolean isRetrying() {
+        return retryCount > 0 && retryLevel != RetryLevel.NEVER;
+    }
+
+    /**
+     * @return the current round of retries, 0 while the suites are run for the first time
+     */
+    synchronized int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Takes over the suites completed by a previous attempt of the step.
+     * Suites whose last attempt has reached the retry level are still retried, as far as they have retries left.
+     * @param done every attempt of the completed suites, in the order of their completion
+     */
+    synchronized void resume(List<Checkpoint.Entry> done) {
+        Map<String, Checkpoint.Entry> latest = Checkpoint.latest(done);
+        for (Checkpoint.Entry e : latest.values()) {
+            completed.add(e.key());
+            results.add(e.result);
+        }
+        if (!isRetrying()) {
+            return;
+        }
+
+        //runlogs shared by several suites of a batch stay where they are
+        Map<String, Set<String>> owners = new HashMap<>();
+        for (Checkpoint.Entry e : done) {
+            for (String runlog : e.runlogs) {
+                owners.computeIfAbsent(runlog, r -> new HashSet<>()).add(e.key());
+            }
+        }
+        for (Checkpoint.Entry last : latest.values()) {
+            attempt = Math.max(attempt, last.result.getAttempts() - 1);
+            if (!retryLevel.isTriggeredBy(last.result.getReturnValue())) {
+                continue;
+            }
+            List<String> failed = new ArrayList<>();
+            for (Checkpoint.Entry e : done) {
+                if (e.key().equals(last.key())) {
+                    for (String runlog : e.runlogs) {
+                        if (owners.get(runlog).size() == 1) {
+                            failed.add(runlog);
+                        }
+                    }
+                }
+            }
+            //the suite itself is taken over once it has been expanded again
+            retryable.put(last.key(), new Retry(null, failed, last.result.getAttempts()));
+        }
+    }
+
+    synchronized boolean isResumed() {
+        return !completed.isEmpty();
+    }
+
+    /**
+     * @return whether the given suite has been completed before resuming
+     */
+    synchronized boolean isCompleted(Suites sf) {
+        String key = Checkpoint.key(sf);
+        Retry retry = retryable.get(key);
+        if (retry != null && retry.suite == null) {
+            retry.suite = sf;
+        }
+        return completed.contains(key);
+    }
+
+    /**
+     * Starts the next round of retries.
+     * @return every suite whose last attempt has reached the retry level and which has retries left,
+     * or null if no further round is due
+     */
+    @CheckForNull
+    List<Suites> nextRound(TaskListener listener) {
+        List<Suites> rerun = new ArrayList<>();
+        int round;
+        synchronized (this) {
+            for (Retry r : retryable.values()) {
+                if (r.suite != null && r.attempts <= retryCount) {
+                    rerun.add(r.suite);
+                }
+            }
+            if (rerun.isEmpty()) {
+                return null;
+            }
+            round = ++attempt;
+        }
+        listener.getLogger().println("Retrying " + rerun.size() + " suite(s), attempt " + (round + 1)
+                + " of " + (retryCount + 1));
+        return rerun;
+    }
+
+    /**
+     * Notes the suites of a finished call to be retried and supersedes the results of their previous attempts.
+     * The runlogs of the failed attempts of a suite, which has passed now, are moved out of qrz,
+     * so the reports only show the passed attempt.
+     */
+    void track(List<Suites> batch, List<Checkpoint.Entry> entries, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        Map<String, Suites> suites = new HashMap<>();
+        for (Suites sf : batch) {
+            suites.put(Checkpoint.key(sf), sf);
+        }
+        //runlogs shared by several suites of a batch stay where they are
+        Map<String, Integer> shared = new HashMap<>();
+        for (Checkpoint.Entry e : entries) {
+            for (String runlog : e.runlogs) {
+                shared.merge(runlog, 1, Integer::sum);
+            }
+        }
+
+        for (Checkpoint.Entry e : entries) {
+            Retry previous;
+            synchronized (this) {
+                previous = retryable.remove(e.key());
+            }
+            int attempts = (previous != null ? previous.attempts : 0) + 1;
+            e.result.setAttempts(attempts);
+            if (previous != null) {
+                synchronized (results) {
+                    results.removeIf(r -> r.key().equals(e.key()));
+                }
+            }
+            if (retryLevel.isTriggeredBy(e.result.getReturnValue())) {
+                Suites sf = suites.get(e.key());
+                if (sf != null) {
+                    List<String> failed = new ArrayList<>(previous != null ? previous.runlogs : Collections.emptyList());
+                    for (String runlog : e.runlogs) {
+                        if (shared.get(runlog) == 1) {
+                            failed.add(runlog);
+                        }
+                    }
+                    synchronized (this) {
+                        retryable.put(e.key(), new Retry(sf, failed, attempts));
+                    }
+                }
+            } else if (previous != null) {
+                e.result.setFlaky(true);
+                listener.getLogger().println("  " + e.result.getSuitename() + ": passed on attempt " + attempts
+                        + ", marked as flaky");
+                for (String runlog : previous.runlogs) {
+                    FilePath target = logdir.child(SuiteRunner.FLAKY_DIR).child(runlog);
+                    try {
+                        target.getParent().mkdirs();
+                        qrzdir.child(runlog).renameTo(target);
+                    } catch (IOException ex) {
+                        listener.getLogger().println("  Unable to move runlog " + runlog + " of failed attempt: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Notes a call, which has failed without any suite result.
+     */
+    synchronized void callFailed(Character ret) {
+        callFailures = QFTestExecutor.Imp.reduceReturnValues(callFailures, ret);
+    }
+
+    /**
+     * @param ret          reduced return value of all calls
+     * @param cachedReturn reduced return value of the suites taken from the result cache
+     * @return the reduced return value of all calls, where only the last attempt of a retried suite counts
+     */
+    @CheckForNull
+    Character settle(@CheckForNull Character ret, @CheckForNull Character cachedReturn) {
+        Character settled;
+        synchronized (this) {
+            if (attempt == 0) {
+                return QFTestExecutor.Imp.reduceReturnValues(ret, cachedReturn);
+            }
+            settled = callFailures;
+        }
+        List<SuiteResult> all;
+        synchronized (results) {
+            all = new ArrayList<>(results);
+        }
+        for (SuiteResult r : all) {
+            settled = QFTestExecutor.Imp.reduceReturnValues(settled, (char) r.getReturnValue());
+        }
+        return settled;
+    }
+
+    /**
+     * A suite due for a retry, along with the runlogs of its failed attempts.
+     */
+    static class Retry implements Serializable {
+
+        private static final long serialVersionUID = 4518204936120653917L;
+
+        /* null, if restored from the checkpoint and not yet expanded again */
+        @CheckForNull
+        Suites suite;
+        final List<String> runlogs;
+        /* how often the suite has been run so far */
+        final int attempts;
+
+        Retry(@CheckForNull Suites suite, List<String> runlogs, int attempts) {
+            this.suite = suite;
+            this.runlogs = runlogs;
+            this.attempts = attempts;
+        }
+    }
+}
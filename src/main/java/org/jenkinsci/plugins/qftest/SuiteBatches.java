@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.qftest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Groups expanded suites into batches, which are run by a single QF-Test call.
+ * Only suites sharing the very same custom parameters are grouped together, and a suitesfile is always run alone.
+ * The order of the suites is kept within each batch, and a batch is handed out
+ * as soon as it is complete, so the underlying iterator is consumed lazily.
+ */
+class SuiteBatches implements Iterator<List<Suites>> {
+
+    private final Iterator<Suites> suites;
+    private final int batchSize;
+
+    /* suites seen so far, which did not yet fill up a batch (keyed by their custom params) */
+    private final Map<String, List<Suites>> open = new LinkedHashMap<>();
+    private List<Suites> ready = null;
+
+    SuiteBatches(Iterator<Suites> suites, int batchSize) {
+        this.suites = suites;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (ready == null) {
+            if (suites.hasNext()) {
+                Suites sf = suites.next();
+                if (sf.isSuitesfile()) {
+                    //QF-Test accepts a single -suitesfile per call only
+                    ready = Collections.singletonList(sf);
+                    continue;
+                }
+                String key = Objects.toString(sf.getCustomParam(), "");
+                List<Suites> batch = open.computeIfAbsent(key, k -> new ArrayList<>(batchSize));
+                batch.add(sf);
+                if (batch.size() >= batchSize) {
+                    ready = open.remove(key);
+                }
+            } else if (!open.isEmpty()) {
+                //flush remaining (incomplete) batches
+                Iterator<List<Suites>> it = open.values().iterator();
+                ready = it.next();
+                it.remove();
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<Suites> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<Suites> ret = Collections.unmodifiableList(ready);
+        ready = null;
+        return ret;
+    }
+}
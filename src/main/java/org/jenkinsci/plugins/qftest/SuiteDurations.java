@@ -0,0 +1,207 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Historical durations of the suites of a job, stored as a small tab separated file within the job directory.
+ * For every suite (path relative to the workspace and custom parameters) only a moving average of its duration is kept,
+ * together with the number of the last build which has run it, so the durations apply to any workspace of the job,
+ * e.g. on another agent or in <tt>ws@2</tt>.
+ * Suites which have not been run by the last {@link #MAX_AGE} builds are dropped,
+ * so the store does not grow with the number of builds, nor keep suites which have been removed.
+ */
+class SuiteDurations {
+
+    static final String FILE_NAME = "qftest-durations.tsv";
+
+    /* number of builds after which a suite not run anymore is forgotten */
+    static final int MAX_AGE = 30;
+
+    /* weight of the latest duration within the moving average */
+    static final double WEIGHT = 0.5;
+
+    private static class Estimate {
+        long durationMs;
+        int lastBuild;
+
+        Estimate(long durationMs, int lastBuild) {
+            this.durationMs = durationMs;
+            this.lastBuild = lastBuild;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Estimate> estimates = new HashMap<>();
+
+    private SuiteDurations(File file) {
+        this.file = file;
+    }
+
+    static File fileOf(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the durations of the job as they were when first requested by the given build
+     */
+    static SuiteDurations snapshot(Run<?, ?> run) throws IOException {
+        File file = new File(run.getRootDir(), FILE_NAME);
+        synchronized (SuiteDurations.class) {
+            if (!file.isFile()) {
+                SuiteDurations ret = load(fileOf(run.getParent()));
+                SuiteDurations copy = new SuiteDurations(file);
+                copy.estimates.putAll(ret.estimates);
+                copy.save();
+            }
+            return load(file);
+        }
+    }
+
+    static SuiteDurations load(File file) throws IOException {
+        SuiteDurations ret = new SuiteDurations(file);
+        if (!file.isFile()) {
+            return ret;
+        }
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    continue; //ignore malformed lines
+                }
+                try {
+                    ret.estimates.put(
+                            Checkpoint.unescape(fields[0]) + "\t" + Checkpoint.unescape(fields[1]),
+                            new Estimate(Long.parseLong(fields[2]), Integer.parseInt(fields[3]))
+                    );
+                } catch (NumberFormatException ex) {
+                    //ignore malformed lines
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param workspace where the suite has been expanded
+     * @return the path of the suite relative to the workspace with forward slashes,
+     * or the absolute one for suites outside of the workspace
+     */
+    static String relative(String suitename, String workspace) {
+        String path = suitename.replace('\\', '/');
+        String prefix = workspace.replace('\\', '/');
+        if (!prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        if (path.startsWith(prefix)) {
+            path = path.substring(prefix.length());
+        }
+        return path;
+    }
+
+    /**
+     * @param workspace where the suite has been expanded
+     * @return the key of the suite of the given path, which is the same for every workspace of the job
+     */
+    static String key(String suitename, String customParam, String workspace) {
+        return relative(suitename, workspace) + "\t" + customParam;
+    }
+
+    static String key(Suites sf, String workspace) {
+        return key(sf.getSuitename(), sf.getCustomParam(), workspace);
+    }
+
+    /**
+     * @return the estimated durations in milliseconds, keyed by {@link #key(Suites, String)}
+     */
+    Map<String, Long> getEstimates() {
+        Map<String, Long> ret = new HashMap<>();
+        for (Map.Entry<String, Estimate> e : estimates.entrySet()) {
+            ret.put(e.getKey(), e.getValue().durationMs);
+        }
+        return ret;
+    }
+
+    /**
+     * Merges the durations of the given build and drops the suites not run for too long.
+     * The wall time of a QF-Test call running several suites is split evenly among them.
+     * @param workspace where the suites have been expanded
+     */
+    void update(Collection<SuiteResult> results, String workspace, int buildNumber) {
+        Map<String, Integer> perCall = new HashMap<>();
+        for (SuiteResult r : results) {
+            perCall.merge(r.getStartTime() + "-" + r.getEndTime(), 1, Integer::sum);
+        }
+        for (SuiteResult r : results) {
+            long durationMs = r.getWallTime() / perCall.get(r.getStartTime() + "-" + r.getEndTime());
+            String key = key(r.getSuitename(), r.getCustomParam(), workspace);
+            Estimate e = estimates.get(key);
+            if (e == null) {
+                estimates.put(key, new Estimate(durationMs, buildNumber));
+            } else {
+                e.durationMs = Math.round(WEIGHT * durationMs + (1 - WEIGHT) * e.durationMs);
+                e.lastBuild = Math.max(e.lastBuild, buildNumber);
+            }
+        }
+        estimates.values().removeIf(e -> e.lastBuild <= buildNumber - MAX_AGE);
+    }
+
+    void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Estimate> e : estimates.entrySet()) {
+                String[] key = e.getKey().split("\t", 2);
+                w.print(Checkpoint.escape(key[0]) + "\t" + Checkpoint.escape(key.length > 1 ? key[1] : ""));
+                w.print("\t" + e.getValue().durationMs + "\t" + e.getValue().lastBuild + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records the durations of the given build within the store of its job.
+     */
+    static void record(Job<?, ?> job, Collection<SuiteResult> results, String workspace, int buildNumber)
+            throws IOException
+    {
+        File file = fileOf(job);
+        synchronized (SuiteDurations.class) {
+            SuiteDurations store = load(file);
+            store.update(results, workspace, buildNumber);
+            store.save();
+        }
+    }
+
+    /**
+     * Orders the suites longest processing time first.
+     * Suites without history come first, as they may take arbitrarily long.
+     * Suites of equal estimate keep their original order.
+     */
+    static List<Suites> longestFirst(Iterator<Suites> suites, Map<String, Long> estimates, String workspace) {
+        List<Suites> ret = new ArrayList<>();
+        suites.forEachRemaining(ret::add);
+        ret.sort(Comparator.comparingLong(
+                (Suites sf) -> estimates.getOrDefault(key(sf, workspace), Long.MAX_VALUE)
+        ).reversed());
+        return ret;
+    }
+}
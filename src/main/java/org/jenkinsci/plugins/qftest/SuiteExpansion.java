@@ -0,0 +1,515 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expands all configured suite entries into single suites on the agent.
+ * In contrast to {@link Suites#expand(hudson.FilePath)}, which needs several remote calls per entry,
+ * the expansion is done by a walker thread on the agent, which pushes every match into a bounded queue.
+ * The controller pulls the suites from this queue (see {@link #iterator(Source, TaskListener)}), so the first suite
+ * can be run while the walk is still going on, and memory stays bounded regardless of the size of the tree.
+ * The suites are delivered entry by entry, in the order of the configuration, and in the order of their paths
+ * within an entry.
+ * <p>
+ * All entries below the workspace are matched during a single walk of the workspace. The matches of an entry are
+ * delivered right away, if all preceding entries are complete, and held back otherwise. An entry is complete,
+ * once the walk has passed its directory, or at the end of the walk for globbing expressions.
+ */
+class SuiteExpansion extends MasterToSlaveFileCallable<SuiteExpansion.Source> {
+
+    private static final long serialVersionUID = -5190582367018932307L;
+
+    static final int QUEUE_CAPACITY = 256;
+    static final int POLL_SIZE = 32;
+
+    /**
+     * Agent-side end of the expansion, exported to the controller.
+     */
+    interface Source {
+        /**
+         * Blocks until at least one suite is available or the walk has finished.
+         * @return up to max suites, or an empty list if all suites have been delivered or the source has been closed
+         */
+        List<Suites> poll(int max) throws IOException, InterruptedException;
+
+        /**
+         * Stops the walk, if it is still running.
+         */
+        void close();
+    }
+
+    private final List<Suites> suites;
+    @CheckForNull
+    private final ImpactAnalysis impact;
+    private final TaskListener listener;
+
+    /**
+     * @param suites   the configured suite entries, with environment variables already expanded
+     * @param impact   selects the suites affected by the changes of the build, null to run all suites
+     * @param listener receives messages about entries which do not match any file
+     */
+    SuiteExpansion(List<Suites> suites, @CheckForNull ImpactAnalysis impact, TaskListener listener) {
+        this.suites = new ArrayList<>(suites);
+        this.impact = impact;
+        this.listener = listener;
+    }
+
+    @Override
+    public Source invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+        return channel.export(Source.class, start(base, suites, impact, listener));
+    }
+
+    /**
+     * Starts the walker thread within the current JVM.
+     */
+    static Source start(File base, List<Suites> suites, @CheckForNull ImpactAnalysis impact, TaskListener listener) {
+        Producer producer = new Producer(base, suites, impact, listener);
+        Thread walker = new Thread(producer, "QF-Test suite expansion in " + base);
+        walker.setDaemon(true);
+        walker.start();
+        return producer;
+    }
+
+    /**
+     * Lazily iterates over all suites delivered by the source.
+     * Remote calls are done in chunks of {@link #POLL_SIZE} suites.
+     * A failing expansion is reported to the listener and ends the iteration.
+     */
+    static Iterator<Suites> iterator(Source source, TaskListener listener) {
+        return new Iterator<Suites>() {
+            private final List<Suites> chunk = new ArrayList<>();
+            private int pos = 0;
+            private boolean finished = false;
+
+            @Override
+            public boolean hasNext() {
+                if (pos < chunk.size()) {
+                    return true;
+                }
+                if (finished) {
+                    return false;
+                }
+                chunk.clear();
+                pos = 0;
+                try {
+                    chunk.addAll(source.poll(POLL_SIZE));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    source.close();
+                } catch (IOException ex) {
+                    Functions.printStackTrace(
+                            ex, listener.fatalError("During expansion of suites\n" + ex.getMessage())
+                    );
+                }
+                finished = chunk.isEmpty();
+                return !finished;
+            }
+
+            @Override
+            public Suites next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk.get(pos++);
+            }
+        };
+    }
+
+    static String normalizePattern(String pattern) {
+        String ret = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (ret.endsWith(File.separator)) {
+            ret += "**";
+        }
+        return ret;
+    }
+
+    static class Producer implements Source, Runnable {
+
+        private final File base;
+        private final List<Suites> entries = new ArrayList<>();
+        @CheckForNull
+        private final ImpactAnalysis impact;
+        @CheckForNull
+        private ImpactAnalysis.Selection selection;
+        private final TaskListener listener;
+        private final String[] excludes;
+
+        private final BlockingQueue<Suites> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean done = false;
+        private volatile boolean closed = false;
+        private volatile IOException error = null;
+
+        Producer(File base, List<Suites> suites, @CheckForNull ImpactAnalysis impact, TaskListener listener) {
+            this.base = base;
+            this.impact = impact;
+            this.listener = listener;
+            for (Suites sf : suites) {
+                entries.add(sf.considerSuitesfile());
+            }
+            this.excludes = Arrays.stream(DirectoryScanner.getDefaultExcludes())
+                    .map(SuiteExpansion::normalizePattern)
+                    .toArray(String[]::new);
+        }
+
+        @Override
+        public List<Suites> poll(int max) throws IOException, InterruptedException {
+            List<Suites> ret = new ArrayList<>(max);
+            while (ret.isEmpty() && !closed) {
+                Suites sf = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (sf != null) {
+                    ret.add(sf);
+                    queue.drainTo(ret, max - 1);
+                } else if (done && queue.isEmpty()) {
+                    if (error != null) {
+                        throw error;
+                    }
+                    break;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        /* suites waiting to be polled */
+        int queued() {
+            return queue.size();
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        private void emit(Suites sf) throws InterruptedException {
+            while (!closed) {
+                if (queue.offer(sf, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+            throw new InterruptedException("Suite expansion has been closed");
+        }
+
+        /**
+         * Emits the given suite of an entry, or its work units, if the entry asks for splitting.
+         * Every unit gets a runlog name of its own, unless the arguments already determine it.
+         */
+        private void emitUnits(Suites entry, File suite) throws InterruptedException {
+            if (selection != null && !selection.isSelected(suite)) {
+                return;
+            }
+            SuiteSplit split = entry.splitLevel();
+            String param = Objects.toString(entry.getCustomParam(), "").trim();
+            List<String> args = Arrays.asList(Util.tokenize(param));
+            if (split != SuiteSplit.NONE && SuiteSplit.isSplittable(suite.getName()) && !args.contains("-test")) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(suite))) {
+                    List<String> units = split.units(in);
+                    if (!units.isEmpty()) {
+                        listener.getLogger().println("Splitting " + suite.getName() + " into " + units.size() + " units");
+                        for (int n = 0; n < units.size(); n++) {
+                            String unitParam = param + " -test \"" + units.get(n) + "\""
+                                    + (args.contains("-runlog") ? "" : " -runlog \"%b-" + (n + 1) + "\"");
+                            emit(entry.derive(suite.getPath(), unitParam.trim()));
+                        }
+                        return;
+                    }
+                } catch (IOException ex) {
+                    listener.getLogger().println("Unable to split " + suite.getPath() + ", running it as a whole: "
+                            + ex.getMessage());
+                }
+            }
+            emit(entry.derive(suite.getPath(), entry.getCustomParam()));
+        }
+
+        private void emitFile(Suites entry, File file) throws InterruptedException {
+            if (entry.isSuitesfile()) {
+                emitSuitesfile(entry, file);
+            } else {
+                emitUnits(entry, file);
+            }
+        }
+
+        /**
+         * Emits the suites listed by a suitesfile one by one. Falls back to passing the suitesfile to QF-Test as is,
+         * if it cannot be read.
+         */
+        private void emitSuitesfile(Suites entry, File suitesfile) throws InterruptedException {
+            List<Suites> listed;
+            try {
+                listed = entry.expandSuitesfile(
+                        Files.readAllLines(suitesfile.toPath(), StandardCharsets.UTF_8),
+                        suitesfile.getAbsoluteFile().getParentFile(), base
+                );
+            } catch (IOException ex) {
+                listener.getLogger().println("Unable to read suitesfile " + suitesfile.getPath()
+                        + ", passing it to QF-Test as a whole: " + ex.getMessage());
+                emit(entry.derive(suitesfile.getPath(), entry.getCustomParam()));
+                return;
+            }
+            if (listed.isEmpty()) {
+                listener.getLogger().println("No suites listed in suitesfile `" + suitesfile.getPath() + "'");
+            }
+            for (Suites sf : listed) {
+                File suite = new File(sf.getSuitename());
+                if (!suite.exists()) {
+                    //left to QF-Test to report
+                    listener.getLogger().println("Suite `" + sf.getSuitename() + "' of suitesfile "
+                            + suitesfile.getName() + " does not exist");
+                }
+                emitUnits(sf, suite);
+            }
+        }
+
+        private File resolve(Suites entry) {
+            File candid = new File(entry.getSuitename());
+            if (!candid.isAbsolute()) {
+                candid = new File(base, entry.getSuitename());
+            }
+            return candid;
+        }
+
+        /* a configured entry during the walk */
+        private static class Pending {
+            final Suites entry;
+            /* a single file given by the entry, or null if the entry is matched during a walk */
+            @CheckForNull
+            final File file;
+            /* the root of the walk covering the entry */
+            final File root;
+            /* the directory of the entry relative to the root, its matches are complete once the walk has passed it */
+            final String dir;
+            /* relative to the root */
+            final List<String> patterns = new ArrayList<>();
+            /* matches held back until all preceding entries are complete */
+            final List<File> matches = new ArrayList<>();
+            boolean complete;
+            int found = 0;
+
+            Pending(Suites entry, @CheckForNull File file, File root, String dir) {
+                this.entry = entry;
+                this.file = file;
+                this.root = root;
+                this.dir = dir;
+                this.complete = (file != null);
+            }
+        }
+
+        private final List<Pending> pending = new ArrayList<>();
+        /* the first entry not yet delivered completely */
+        private int next = 0;
+
+        private Pending prepare(Suites entry) {
+            File candid = resolve(entry);
+            if (!candid.isDirectory() && candid.exists()) {
+                return new Pending(entry, candid, base, "");
+            }
+            if (!candid.isDirectory()) {
+                //ant-style globbing relative to the workspace, possibly a comma separated list of patterns
+                Pending ret = new Pending(entry, null, base, "");
+                for (String pattern : entry.getSuitename().split(",")) {
+                    if (!pattern.trim().isEmpty()) {
+                        ret.patterns.add(normalizePattern(pattern));
+                    }
+                }
+                return ret;
+            }
+            Path workspace = base.toPath().toAbsolutePath().normalize();
+            Path dir = candid.toPath().toAbsolutePath().normalize();
+            String pattern = normalizePattern(entry.directorySearchString());
+            if (!dir.startsWith(workspace)) {
+                //walked on its own
+                Pending ret = new Pending(entry, null, candid, "");
+                ret.patterns.add(pattern);
+                return ret;
+            }
+            String rel = workspace.relativize(dir).toString();
+            Pending ret = new Pending(entry, null, base, rel);
+            ret.patterns.add(rel.isEmpty() ? pattern : rel + File.separator + pattern);
+            return ret;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (impact != null) {
+                    selection = impact.open(base);
+                }
+                List<File> roots = new ArrayList<>();
+                for (Suites entry : entries) {
+                    Pending p = prepare(entry);
+                    pending.add(p);
+                    if (p.file == null && !roots.contains(p.root)) {
+                        roots.add(p.root);
+                    }
+                }
+                deliver();
+                for (File root : roots) {
+                    List<Pending> walked = new ArrayList<>();
+                    for (Pending p : pending) {
+                        if (p.file == null && p.root.equals(root)) {
+                            walked.add(p);
+                        }
+                    }
+                    walk(root, "", walked, new HashSet<>());
+                    for (Pending p : walked) {
+                        p.complete = true;
+                    }
+                    deliver();
+                }
+            } catch (InterruptedException ex) {
+                //closed by the consumer
+            } catch (IOException ex) {
+                error = ex;
+            } catch (RuntimeException ex) {
+                error = new IOException(ex);
+            } finally {
+                if (selection != null && !closed) {
+                    selection.close(listener);
+                }
+                done = true;
+            }
+        }
+
+        /**
+         * Emits the matches of the entries in the order of the configuration, as far as the preceding entries are complete.
+         */
+        private void deliver() throws InterruptedException {
+            while (next < pending.size()) {
+                Pending p = pending.get(next);
+                if (p.file != null) {
+                    emitFile(p.entry, p.file);
+                    next++;
+                    continue;
+                }
+                for (File match : p.matches) {
+                    emitFile(p.entry, match);
+                }
+                p.matches.clear();
+                if (!p.complete) {
+                    return;
+                }
+                if (p.found == 0) {
+                    listener.getLogger().println("No suites could be found by (globbing) expression `" + p.entry.getSuitename() + "'");
+                }
+                next++;
+            }
+        }
+
+        /* the names within the given directory, null if it cannot be listed */
+        @CheckForNull
+        String[] list(File dir) throws IOException {
+            return dir.list();
+        }
+
+        /**
+         * Matches the files below the given directory against the patterns of the given entries, in the order of their paths.
+         */
+        private void walk(File dir, String rel, List<Pending> walked, Set<String> ancestors)
+                throws IOException, InterruptedException {
+
+            String canonical = dir.getCanonicalPath();
+            if (!ancestors.add(canonical)) {
+                return; //symlink loop
+            }
+
+            String[] children = list(dir);
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+
+            for (String name : children) {
+                if (closed) {
+                    throw new InterruptedException("Suite expansion has been closed");
+                }
+
+                File child = new File(dir, name);
+                String childRel = rel.isEmpty() ? name : rel + File.separator + name;
+
+                if (child.isDirectory()) {
+                    if (isExcluded(childRel)) {
+                        continue;
+                    }
+                    List<Pending> below = new ArrayList<>();
+                    for (Pending p : walked) {
+                        for (String pattern : p.patterns) {
+                            if (SelectorUtils.matchPatternStart(pattern, childRel)) {
+                                below.add(p);
+                                break;
+                            }
+                        }
+                    }
+                    if (!below.isEmpty()) {
+                        walk(child, childRel, below, ancestors);
+                    }
+                    boolean passed = false;
+                    for (Pending p : walked) {
+                        if (p.dir.equals(childRel)) {
+                            p.complete = true;
+                            passed = true;
+                        }
+                    }
+                    if (passed) {
+                        deliver();
+                    }
+                } else {
+                    for (Pending p : walked) {
+                        for (String pattern : p.patterns) {
+                            //emit each file only once per entry
+                            if (SelectorUtils.matchPath(pattern, childRel)) {
+                                p.found++;
+                                if (next < pending.size() && pending.get(next) == p) {
+                                    emitFile(p.entry, child);
+                                } else {
+                                    p.matches.add(child);
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            ancestors.remove(canonical);
+        }
+
+        private boolean isExcluded(String rel) {
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude, rel)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
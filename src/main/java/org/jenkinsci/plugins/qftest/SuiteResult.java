@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of a single (expanded) suite.
+ * If several suites have been run by the same QF-Test call, they share the start and end time of that call.
+ */
+@ExportedBean
+public class SuiteResult implements Serializable {
+
+    private static final long serialVersionUID = 5281709375128862069L;
+
+    private final String suitename;
+    private final String customParam;
+    private final int returnValue;
+    private final long startTime;
+    private final long endTime;
+    private final long runlogSize;
+    private long queueTime = 0;
+    private int attempts = 1;
+    private boolean flaky = false;
+
+    SuiteResult(String suitename, String customParam, int returnValue, long startTime, long endTime, long runlogSize) {
+        this.suitename = suitename;
+        this.customParam = customParam;
+        this.returnValue = returnValue;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.runlogSize = runlogSize;
+    }
+
+    SuiteResult(Suites sf, int returnValue, long startTime, long endTime, long runlogSize) {
+        this(sf.getSuitename(), sf.getCustomParam(), returnValue, startTime, endTime, runlogSize);
+    }
+
+    @Exported
+    @Whitelisted
+    public String getSuitename() {
+        return suitename;
+    }
+
+    @Exported
+    @Whitelisted
+    public String getCustomParam() {
+        return customParam;
+    }
+
+    @Exported
+    @Whitelisted
+    public int getReturnValue() {
+        return returnValue;
+    }
+
+    /**
+     * @return start of the QF-Test call, in milliseconds since the epoch
+     */
+    @Exported
+    @Whitelisted
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return end of the QF-Test call, in milliseconds since the epoch
+     */
+    @Exported
+    @Whitelisted
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return wall time of the QF-Test call in milliseconds
+     */
+    @Exported
+    @Whitelisted
+    public long getWallTime() {
+        return endTime - startTime;
+    }
+
+    /**
+     * @return size of the runlogs in bytes
+     */
+    @Exported
+    @Whitelisted
+    public long getRunlogSize() {
+        return runlogSize;
+    }
+
+    /**
+     * @return time spent waiting for a free QF-Test slot before the call was started, in milliseconds
+     */
+    @Exported
+    @Whitelisted
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    void setQueueTime(long queueTime) {
+        this.queueTime = queueTime;
+    }
+
+    /**
+     * @return number of times the suite has been run, more than 1 if it has been retried
+     */
+    @Exported
+    @Whitelisted
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return whether the suite has failed first, but passed on a retry
+     */
+    @Exported
+    @Whitelisted
+    public boolean isFlaky() {
+        return flaky;
+    }
+
+    void setFlaky(boolean flaky) {
+        this.flaky = flaky;
+    }
+
+    String key() {
+        return suitename + "\t" + customParam;
+    }
+
+    @Override
+    public String toString() {
+        return suitename + " " + customParam + ": return value " + returnValue + ", " + getWallTime() + " ms"
+                + (attempts > 1 ? ", " + attempts + " attempts" + (flaky ? ", flaky" : "") : "");
+    }
+}
@@ -0,0 +1,1164 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Runs the expanded suites and reduces their QF-Test return values.
+ * All information needed is captured upfront, so the runner can either be driven by the controller
+ * or be shipped to the agent as a whole (see {@link AgentSideLoop}).
+ */
+class SuiteRunner implements Serializable {
+
+    private static final long serialVersionUID = 2690451726390126571L;
+
+    /* how often running calls are checked against their time limits */
+    static final long WATCHDOG_INTERVAL_MS = 1000;
+
+    /* below the report directory, receives the runlogs of failed attempts of flaky suites */
+    static final String FLAKY_DIR = "flaky";
+
+    /* how often a worker held back by the adaptive parallelism asks again */
+    static final long ADMIT_POLL_MS = 1000;
+
+    /* below qrz, receives the runlogs of the suites taken from the result cache */
+    static final String CACHED_DIR = "cached";
+
+    /* set for every QF-Test call, so the calls of a runner can be found and killed after a restart */
+    static final String COOKIE_VAR = "QFTEST_LAUNCH_COOKIE";
+
+    private final String qfBinaryPath;
+    private final boolean isUnix;
+    private final FilePath logdir;
+    private final FilePath qrzdir;
+    private final String junitdir;
+    private final int parallelism;
+    private final int batchSize;
+    private final boolean nativeReport;
+    private final boolean longestFirst;
+    private final int shardIndex;
+    private final int shardCount;
+    private final FailFast failFast;
+    private final int suiteTimeout;
+    private final int outputTimeout;
+    private final boolean isolateWorkers;
+    private final boolean adaptiveParallelism;
+    private final int minParallelism;
+    private final boolean daemonPool;
+    @CheckForNull
+    private final DaemonEndpoints daemonEndpoints;
+    private final int daemonRecycleAfter;
+    private final EnvVars env;
+
+    private final AtomicInteger nBatches = new AtomicInteger();
+
+    @CheckForNull
+    private Checkpoint checkpoint;
+    private final List<SuiteResult> results = Collections.synchronizedList(new ArrayList<>());
+    /* the suites completed before resuming and the ones due for a retry, see SuiteAttempts */
+    private final SuiteAttempts attempts;
+
+    /* set once a call has triggered the fail fast policy */
+    private volatile boolean cancelled = false;
+    private transient Set<Launched> running;
+
+    @CheckForNull
+    private ResultCache cache;
+    /* keys of the suites missing in the result cache, keyed like in the checkpoint */
+    private final Map<String, String> cacheKeys = new HashMap<>();
+    /* reduced return value of the suites taken from the result cache */
+    @CheckForNull
+    private Character cachedReturn;
+
+    @CheckForNull
+    private HashMap<String, Long> estimates;
+
+    /* limits the QF-Test processes across builds, see LicenseThrottle */
+    @CheckForNull
+    private LicenseSlots throttle;
+    private String nodeName = "";
+    private final String id = UUID.randomUUID().toString();
+
+    /* further agents, each contributing as many workers as the own one */
+    @CheckForNull
+    private transient List<HelperAgents.Target> helpers;
+
+    @CheckForNull
+    private transient WorkerIsolation isolation;
+
+    /* adapts the number of running QF-Test processes of each agent to its load, see AdaptiveLimiter */
+    @CheckForNull
+    private transient Map<String, AdaptiveLimiter> limiters;
+
+    /* converts the runlogs of finished calls while later suites are still running */
+    private transient ExecutorService reports;
+    private transient Future<?> lastReport;
+
+    SuiteRunner(QFTestExecutor.Imp.Setup setup, QFTestParamProvider qftParams, EnvVars env) throws AbortException {
+        this.qfBinaryPath = setup.qfBinaryPath;
+        this.isUnix = setup.isUnix;
+        this.logdir = setup.logdir;
+        this.qrzdir = setup.qrzdir;
+        this.junitdir = setup.junitdir.getName();
+        this.parallelism = qftParams.getParallelism();
+        this.batchSize = qftParams.getBatchSize();
+        this.nativeReport = qftParams.isNativeReport();
+        this.longestFirst = qftParams.isLongestFirst();
+        this.shardIndex = qftParams.getShardIndex();
+        this.shardCount = qftParams.getShardCount();
+        this.failFast = FailFast.fromString(qftParams.getFailFast());
+        this.suiteTimeout = qftParams.getSuiteTimeout();
+        this.outputTimeout = qftParams.getOutputTimeout();
+        this.isolateWorkers = qftParams.isIsolateWorkers();
+        this.adaptiveParallelism = qftParams.isAdaptiveParallelism();
+        this.minParallelism = qftParams.getMinParallelism();
+        this.daemonPool = qftParams.isDaemonPool();
+        this.daemonRecycleAfter = qftParams.getDaemonRecycleAfter();
+        this.daemonEndpoints = (qftParams.getDaemonEndpoints() != null
+                ? DaemonEndpoints.parse(qftParams.getDaemonEndpoints()) : null);
+        this.env = env;
+        this.attempts = new SuiteAttempts(
+                qftParams.getRetryCount(), RetryLevel.fromString(qftParams.getRetryLevel()), logdir, qrzdir, results
+        );
+    }
+
+    /**
+     * @return the total number of workers, including those on helper agents
+     */
+    int getParallelism() {
+        return perAgent() * (1 + (helpers != null ? helpers.size() : 0));
+    }
+
+    /* workers per agent, by default one per given daemon */
+    private int perAgent() {
+        return (daemonEndpoints != null ? Math.max(parallelism, daemonEndpoints.size()) : parallelism);
+    }
+
+    /**
+     * Hands out suites to the given agents as well. Only supported when driven by the controller.
+     */
+    void setHelpers(List<HelperAgents.Target> helpers) {
+        this.helpers = new ArrayList<>(helpers);
+    }
+
+    /**
+     * Acquires a slot of the given throttle before starting any QF-Test process.
+     * @param nodeName name of the node the step is running on
+     */
+    void setThrottle(@CheckForNull LicenseSlots throttle, String nodeName) {
+        this.throttle = throttle;
+        this.nodeName = nodeName;
+    }
+
+    private String owner(int worker) {
+        return id + "/" + worker;
+    }
+
+    @CheckForNull
+    private HelperAgents.Target helper(int worker) {
+        return (helpers != null && worker >= perAgent() ? helpers.get(worker / perAgent() - 1) : null);
+    }
+
+    private String nodeOf(int worker) {
+        HelperAgents.Target helper = helper(worker);
+        return (helper != null ? helper.name : nodeName);
+    }
+
+    /**
+     * Acquires a slot for the given worker, if possible without waiting.
+     * @return whether the worker may start a QF-Test process
+     */
+    boolean tryAcquire(int worker, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        return admit(worker, launcher, listener)
+                && (throttle == null || throttle.tryAcquire(owner(worker), nodeOf(worker)) != null);
+    }
+
+    /* whether the load of the agent of the given worker allows for another QF-Test process */
+    private boolean admit(int worker, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        if (!adaptiveParallelism) {
+            return true;
+        }
+        HelperAgents.Target helper = helper(worker);
+        AdaptiveLimiter limiter;
+        synchronized (this) {
+            if (limiters == null) {
+                limiters = new HashMap<>();
+            }
+            limiter = limiters.computeIfAbsent(nodeOf(worker), node -> new AdaptiveLimiter(
+                    node, minParallelism, perAgent(), (helper != null ? helper.launcher : launcher).getChannel()
+            ));
+        }
+        return limiter.admit(worker, listener);
+    }
+
+    private void release(int worker) {
+        if (throttle != null) {
+            throttle.release(owner(worker));
+        }
+        AdaptiveLimiter limiter;
+        synchronized (this) {
+            limiter = (limiters != null ? limiters.get(nodeOf(worker)) : null);
+        }
+        if (limiter != null) {
+            limiter.leave(worker);
+        }
+    }
+
+    /**
+     * Frees the slots, isolated environments and helper agents of all workers,
+     * once all suites are done or the step gets aborted.
+     */
+    void releaseWorkers(TaskListener listener) {
+        for (int i = 0; i < getParallelism(); i++) {
+            release(i);
+        }
+        if (helpers != null) {
+            for (HelperAgents.Target helper : helpers) {
+                helper.release();
+            }
+        }
+        WorkerIsolation i;
+        synchronized (this) {
+            i = isolation;
+            isolation = null;
+        }
+        if (i != null) {
+            i.close(listener);
+        }
+    }
+
+    private synchronized WorkerIsolation isolation() {
+        if (isolation == null) {
+            isolation = new WorkerIsolation();
+        }
+        return isolation;
+    }
+
+    /**
+     * Takes the results of suites, which have passed before, from the given cache.
+     */
+    void setResultCache(@CheckForNull ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Records every completed suite in the given checkpoint.
+     */
+    void setCheckpoint(@CheckForNull Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the value of {@link #COOKIE_VAR} for the QF-Test calls of this runner
+     */
+    String getLaunchCookie() {
+        return id;
+    }
+
+    /**
+     * @return the given environment, along with the launch cookie of this runner
+     */
+    EnvVars withCookie(EnvVars env) {
+        EnvVars ret = new EnvVars(env);
+        ret.put(COOKIE_VAR, id);
+        return ret;
+    }
+
+    /**
+     * Sets the estimated durations of the suites, used for sharding and for running the suites longest first.
+     */
+    void setEstimates(Map<String, Long> estimates) {
+        this.estimates = new HashMap<>(estimates);
+    }
+
+    /**
+     * @return the results of all suites completed so far
+     */
+    List<SuiteResult> getResults() {
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * Skips the given suites, which have been completed by a previous attempt of the step.
+     * Suites whose last attempt has reached the retry level are still retried, as far as they have retries left.
+     * @param done every attempt of the completed suites, in the order of their completion
+     */
+    void resume(List<Checkpoint.Entry> done) {
+        attempts.resume(done);
+        nBatches.set(Checkpoint.nextBatchIndex(done));
+    }
+
+    Iterator<List<Suites>> batches(Iterator<Suites> suites, FilePath workspace, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        if (shardCount > 1) {
+            //partition all suites, before skipping any completed ones, so resuming yields the same partition
+            List<Suites> all = new ArrayList<>();
+            suites.forEachRemaining(all::add);
+            SuiteShards shards = new SuiteShards(
+                    all, (estimates != null ? estimates : Collections.emptyMap()), workspace.getRemote(), shardCount
+            );
+            shards.writeManifest(logdir.child(SuiteShards.MANIFEST_FILE));
+            List<Suites> own = shards.get(shardIndex);
+            listener.getLogger().println("Running shard " + shardIndex + " of " + shardCount + ": "
+                    + own.size() + " of " + all.size() + " suites, estimated " + shards.getLoad(shardIndex) + " ms");
+            suites = own.iterator();
+        }
+        if (attempts.isResumed()) {
+            suites = skip(suites, attempts::isCompleted);
+        }
+        if (cache != null) {
+            suites = skip(suites, sf -> fromCache(sf, workspace, listener));
+        }
+        if (longestFirst && estimates != null) {
+            suites = SuiteDurations.longestFirst(suites, estimates, workspace.getRemote()).iterator();
+        }
+        return cancellable(new SuiteBatches(suites, batchSize));
+    }
+
+    private static Iterator<Suites> skip(Iterator<Suites> all, Predicate<Suites> skipped) {
+        return new Iterator<Suites>() {
+            private Suites next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && all.hasNext()) {
+                    Suites sf = all.next();
+                    if (!skipped.test(sf)) {
+                        next = sf;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Suites next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Suites ret = next;
+                next = null;
+                return ret;
+            }
+        };
+    }
+
+    /* the command line of a call running the given suite alone, as far as it is the same for all workers */
+    private List<String> cacheArgs(Suites sf) throws IOException, InterruptedException {
+        QFTestCommandLine args = QFTestCommandLine.newCommandLine(qfBinaryPath, isUnix, QFTestCommandLine.RunMode.RUN);
+        presetArgs(args, "");
+        args.addSuiteBatch(Collections.singletonList(sf));
+        List<String> ret = new ArrayList<>(args.toList());
+        ret.remove(ret.size() - 1); //the suite, whose path may differ between workspaces
+        return ret;
+    }
+
+    /**
+     * Takes the result of the given suite from the result cache, if it has passed before.
+     * Otherwise notes its key, so its result can be stored once it has been run.
+     * @return whether the suite has been found in the cache
+     */
+    private boolean fromCache(Suites sf, FilePath workspace, TaskListener listener) {
+        if (sf.isSuitesfile()) {
+            return false;
+        }
+        ResultCache.Hit hit;
+        try {
+            hit = cache.lookup(workspace, sf, cacheArgs(sf), qrzdir.child(CACHED_DIR));
+        } catch (IOException ex) {
+            listener.getLogger().println("Unable to look up " + sf.getSuitename() + " in the result cache: " + ex.getMessage());
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (hit.returnValue == null) {
+            synchronized (this) {
+                cacheKeys.put(Checkpoint.key(sf), hit.key);
+            }
+            return false;
+        }
+        listener.getLogger().println("  " + sf.getSuitename() + ": cached result, return value " + hit.returnValue);
+        long now = System.currentTimeMillis();
+        List<String> runlogs = new ArrayList<>();
+        for (String runlog : hit.runlogs) {
+            runlogs.add(CACHED_DIR + "/" + hit.dir + "/" + runlog);
+        }
+        Checkpoint.Entry entry = new Checkpoint.Entry(
+                new SuiteResult(sf, hit.returnValue, now, now, hit.runlogSize), runlogs
+        );
+        results.add(entry.result);
+        synchronized (this) {
+            cachedReturn = QFTestExecutor.Imp.reduceReturnValues(cachedReturn, (char) (int) hit.returnValue);
+        }
+        try {
+            if (checkpoint != null) {
+                checkpoint.record(Collections.singletonList(entry));
+            }
+        } catch (IOException ex) {
+            listener.getLogger().println("Unable to record " + sf.getSuitename() + " in the checkpoint: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (nativeReport) {
+            convertInBackground(qrzdir.child(CACHED_DIR).child(hit.dir), listener);
+        }
+        return true;
+    }
+
+    /* stops handing out batches, once the fail fast policy has been triggered */
+    private Iterator<List<Suites>> cancellable(Iterator<List<Suites>> batches) {
+        if (failFast == FailFast.NEVER) {
+            return batches;
+        }
+        return new Iterator<List<Suites>>() {
+            @Override
+            public boolean hasNext() {
+                return !cancelled && batches.hasNext();
+            }
+
+            @Override
+            public List<Suites> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batches.next();
+            }
+        };
+    }
+
+    /**
+     * Starts the next round of retries, rerunning every suite whose last attempt has reached the retry level.
+     * The suites of a retry are not batched, so they are spread over all workers.
+     * @return the suites to be run again, or null if no further round is due
+     */
+    @CheckForNull
+    Iterator<List<Suites>> retries(TaskListener listener) {
+        if (cancelled) {
+            return null;
+        }
+        List<Suites> rerun = attempts.nextRound(listener);
+        return (rerun != null ? cancellable(new SuiteBatches(rerun.iterator(), 1)) : null);
+    }
+
+    /**
+     * @return the reduced return value of all calls, where only the last attempt of a retried suite counts
+     */
+    @CheckForNull
+    Character settle(@CheckForNull Character ret) {
+        Character cached;
+        synchronized (this) {
+            cached = cachedReturn;
+        }
+        return attempts.settle(ret, cached);
+    }
+
+    /**
+     * A QF-Test call which has been started, but not yet been completed.
+     */
+    static class Launched {
+        final List<Suites> batch;
+        final int worker;
+        final FilePath runlogdir;
+        /* where a helper agent writes the runlogs, before they are copied to runlogdir */
+        @CheckForNull
+        final FilePath remoteRunlogdir;
+        final Set<String> runlogsBefore;
+        final long startTime;
+        /* time spent waiting for a slot of the throttle */
+        final long queueTimeMs;
+        /* time limit of the whole call in milliseconds, or 0 */
+        final long timeoutMs;
+        final ActivityStream output;
+        final Proc proc;
+        /* killed due to the fail fast policy */
+        volatile boolean cancelled = false;
+        /* the daemon running the suites, if any */
+        @CheckForNull
+        DaemonPool.Daemon daemon;
+        @CheckForNull
+        DaemonEndpoints.Endpoint endpoint;
+        /* stops the run on the daemon of the endpoint, as killing the call only kills the -calldaemon client */
+        @CheckForNull
+        QFTestCommandLine stopRun;
+        @CheckForNull
+        Launcher launcher;
+        /* why the call has been killed by the watchdog, if it has been */
+        @CheckForNull
+        volatile String timedOut;
+
+        Launched(List<Suites> batch, int worker, FilePath runlogdir, @CheckForNull FilePath remoteRunlogdir,
+                 Set<String> runlogsBefore, long startTime, long queueTimeMs, long timeoutMs,
+                 ActivityStream output, Proc proc) {
+            this.batch = batch;
+            this.worker = worker;
+            this.runlogdir = runlogdir;
+            this.remoteRunlogdir = remoteRunlogdir;
+            this.runlogsBefore = runlogsBefore;
+            this.startTime = startTime;
+            this.queueTimeMs = queueTimeMs;
+            this.timeoutMs = timeoutMs;
+            this.output = output;
+            this.proc = proc;
+        }
+    }
+
+    /**
+     * Passes the output of a QF-Test call to the build log and remembers when it has last been written to.
+     */
+    static class ActivityStream extends FilterOutputStream {
+        private volatile long lastWrite = System.currentTimeMillis();
+
+        ActivityStream(OutputStream out) {
+            super(out);
+        }
+
+        long getLastWrite() {
+            return lastWrite;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            lastWrite = System.currentTimeMillis();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lastWrite = System.currentTimeMillis();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush(); //the build log stays open
+        }
+    }
+
+    @CheckForNull
+    Character run(Iterator<Suites> suites, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        Character ret = null;
+        boolean finished = false;
+        try {
+            Iterator<List<Suites>> batches = batches(suites, workspace, listener);
+            do {
+                WorkerPool<List<Suites>> pool = new WorkerPool<>(batches, getParallelism());
+                ret = QFTestExecutor.Imp.reduceReturnValues(ret, pool.run((batch, worker) -> {
+                    try {
+                        Launched launched = launch(batch, worker, workspace, launcher, listener);
+                        return complete(launched, join(launched, listener), listener);
+                    } catch (InterruptedException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        return callFailed(ex, listener);
+                    }
+                }, QFTestExecutor.Imp::reduceReturnValues));
+                batches = retries(listener);
+            } while (batches != null);
+            finished = true;
+        } finally {
+            releaseWorkers(listener);
+            if (!finished) {
+                cancelReports();
+            }
+        }
+        awaitReports();
+        return settle(ret);
+    }
+
+    /**
+     * Starts the QF-Test call running the given batch of suites, without waiting for it.
+     */
+    Launched launch(List<Suites> batch, int worker, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException
+    {
+        HelperAgents.Target helper = helper(worker);
+
+        //separate names for the runlogs of retries
+        int attempt = attempts.getAttempt();
+        FilePath runlogdir = (attempt > 0 ? qrzdir.child("retry" + attempt) : qrzdir);
+        String prefix = "";
+        if (getParallelism() > 1) {
+            runlogdir = runlogdir.child("worker" + worker);
+            prefix = "[worker " + worker + (helper != null ? " on " + helper.name : "") + "] ";
+        }
+        if (batchSize > 1) {
+            //separate the runlogs of each batch, so they can be assigned to their suites
+            runlogdir = runlogdir.child("batch" + nBatches.getAndIncrement());
+        }
+        for (Suites sf : batch) {
+            listener.getLogger().println(prefix + sf.toString()); //after path expansion
+        }
+
+        runlogdir.mkdirs();
+
+        FilePath remoteRunlogdir = null;
+        List<Suites> called = batch;
+        if (helper != null) {
+            remoteRunlogdir = runlogdir.equals(qrzdir)
+                    ? helper.qrzdir : helper.qrzdir.child(QFTestExecutor.Imp.relativePath(qrzdir, runlogdir));
+            remoteRunlogdir.mkdirs();
+            called = new ArrayList<>();
+            for (Suites sf : batch) {
+                called.add(HelperAgents.rebase(sf, workspace, helper.workspace));
+            }
+        }
+
+        //runlogs of previous calls sharing the directory must not be attributed to this batch
+        Set<String> runlogsBefore = new HashSet<>(Checkpoint.runlogs(runlogdir).keySet());
+
+        //the time limits of the single suites add up within a batch
+        long timeoutMs = 0;
+        for (Suites sf : batch) {
+            int minutes = (sf.getTimeout() != null ? sf.getTimeout() : suiteTimeout);
+            if (minutes <= 0) {
+                timeoutMs = 0;
+                break;
+            }
+            timeoutMs += minutesToMillis(minutes);
+        }
+
+        long queueTimeMs = 0;
+        if (adaptiveParallelism) {
+            long since = System.currentTimeMillis();
+            while (!admit(worker, launcher, listener)) {
+                Thread.sleep(ADMIT_POLL_MS);
+            }
+            queueTimeMs = System.currentTimeMillis() - since;
+        }
+        if (throttle != null) {
+            queueTimeMs += throttle.acquire(owner(worker), nodeOf(worker));
+            if (queueTimeMs >= 1000) {
+                listener.getLogger().println(prefix + "Waited " + TimeUnit.MILLISECONDS.toSeconds(queueTimeMs)
+                        + " s for a free QF-Test slot");
+            }
+        }
+
+        Launcher callLauncher = (helper != null ? helper.launcher : launcher);
+        FilePath callWorkspace = (helper != null ? helper.workspace : workspace);
+        String callBinaryPath = (helper != null ? helper.qfBinaryPath : qfBinaryPath);
+        boolean callIsUnix = (helper != null ? helper.isUnix : isUnix);
+        EnvVars callEnv = withCookie(helper != null ? helper.env : env);
+        DaemonPool.Daemon daemon = null;
+        DaemonEndpoints.Endpoint endpoint = null;
+        ActivityStream output = new ActivityStream(listener.getLogger());
+        long startTime;
+        Proc proc;
+        try {
+            QFTestCommandLine args;
+            if (daemonEndpoints != null) {
+                endpoint = daemonEndpoints.acquire(callLauncher.getChannel(), listener);
+                listener.getLogger().println(prefix + "Running on QF-Test daemon " + endpoint);
+                args = QFTestCommandLine.newDaemonCall(callBinaryPath, callIsUnix, endpoint.host, endpoint.port);
+            } else if (daemonPool) {
+                daemon = DaemonPool.get().lease(
+                        nodeOf(worker), callBinaryPath, callIsUnix, callLauncher, callWorkspace,
+                        (helper != null ? helper.env : env), listener
+                );
+                args = daemon.newCall();
+            } else {
+                args = QFTestCommandLine.newCommandLine(callBinaryPath, callIsUnix, QFTestCommandLine.RunMode.RUN);
+                if (isolateWorkers) {
+                    WorkerIsolation.Worker isolated = isolation().get(
+                            worker, callIsUnix, callLauncher, callWorkspace, listener, prefix
+                    );
+                    isolated.apply(args);
+                    callEnv = isolated.apply(callEnv);
+                }
+            }
+            presetArgs(args, (remoteRunlogdir != null ? remoteRunlogdir : runlogdir).getRemote());
+            args.addSuiteBatch(called); //expansion already done by SuiteExpansion
+
+            List<String> alteredArgs = args.getAlteredArgs();
+            if (! alteredArgs.isEmpty()) {
+                listener.getLogger().println("The following arguments have been dropped or altered:\n\t" + String.join(" ", args.getAlteredArgs()));
+            }
+
+            startTime = System.currentTimeMillis();
+            proc = args.start(callLauncher, output, callWorkspace, callEnv);
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            if (daemon != null) {
+                DaemonPool.get().giveBack(daemon, daemonRecycleAfter, false);
+            }
+            if (endpoint != null) {
+                daemonEndpoints.release(endpoint);
+            }
+            release(worker);
+            throw ex;
+        }
+        Launched ret = new Launched(batch, worker, runlogdir, remoteRunlogdir, runlogsBefore,
+                startTime, queueTimeMs, timeoutMs, output, proc);
+        ret.daemon = daemon;
+        ret.endpoint = endpoint;
+        if (endpoint != null) {
+            ret.stopRun = QFTestCommandLine.newDaemonCall(callBinaryPath, callIsUnix, endpoint.host, endpoint.port);
+            ret.stopRun.presetArg(QFTestCommandLine.PresetType.ENFORCE, "-stoprun");
+            ret.launcher = callLauncher;
+        }
+        synchronized (this) {
+            if (running == null) {
+                running = new HashSet<>();
+            }
+            running.add(ret);
+            if (cancelled) {
+                //started concurrently to the call which failed fast
+                ret.cancelled = true;
+                proc.kill();
+            }
+        }
+        return ret;
+    }
+
+    /* the arguments of every call, which the plugin drops or enforces */
+    private static void presetArgs(QFTestCommandLine args, String runlogdir) {
+        args
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-report", "")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-report.html", "")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-report.junit", "")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-report.xml", "")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-gendoc")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-testdoc")
+            .presetArg(QFTestCommandLine.PresetType.DROP, "-pkgdoc")
+            .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-nomessagewindow")
+            .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-runlogdir", runlogdir);
+    }
+
+    /**
+     * Converts the time limits, which are given in minutes. Overridden by tests.
+     */
+    long minutesToMillis(int minutes) {
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /**
+     * @return how often running calls are checked against their time limits. Overridden by tests.
+     */
+    long watchdogInterval() {
+        return WATCHDOG_INTERVAL_MS;
+    }
+
+    /**
+     * Kills the given call, if it has exceeded its time limit or has not written any output for too long.
+     */
+    void checkTimeout(Launched launched, TaskListener listener) throws IOException, InterruptedException {
+        if (launched.timedOut != null || launched.cancelled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String reason = null;
+        if (launched.timeoutMs > 0 && now - launched.startTime > launched.timeoutMs) {
+            reason = "exceeded its time limit of " + launched.timeoutMs / minutesToMillis(1) + " minute(s)";
+        } else if (outputTimeout > 0 && now - launched.output.getLastWrite() > minutesToMillis(outputTimeout)) {
+            reason = "has not written any output for " + outputTimeout + " minute(s)";
+        }
+        if (reason != null && launched.proc.isAlive()) {
+            launched.timedOut = reason;
+            listener.getLogger().println("Killing QF-Test call running " + launched.batch.get(0).getSuitename()
+                    + (launched.batch.size() > 1 ? " and " + (launched.batch.size() - 1) + " more" : "")
+                    + ", as it " + reason);
+            launched.proc.kill();
+        }
+    }
+
+    /**
+     * Waits for the given call, killing it once it exceeds its time limits.
+     */
+    int join(Launched launched, TaskListener listener) throws IOException, InterruptedException {
+        if (launched.timeoutMs > 0 || outputTimeout > 0) {
+            while (launched.proc.isAlive()) {
+                checkTimeout(launched, listener);
+                Thread.sleep(watchdogInterval());
+            }
+        }
+        return launched.proc.join();
+    }
+
+    /**
+     * Kills all running QF-Test calls (including their child processes) and skips the pending suites.
+     */
+    private void cancel(TaskListener listener) throws IOException, InterruptedException {
+        List<Launched> kill;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            kill = (running != null ? new ArrayList<>(running) : Collections.emptyList());
+        }
+        listener.getLogger().println("Failing fast (" + failFast.getDisplayName().toLowerCase()
+                + "), cancelling " + kill.size() + " running QF-Test call(s) and all pending suites");
+        for (Launched l : kill) {
+            l.cancelled = true;
+            l.proc.kill();
+        }
+    }
+
+    /**
+     * Stops the run of a killed call on its daemon, which would otherwise go on with the suites.
+     * @return whether the daemon is idle again
+     */
+    private static boolean stopRun(Launched launched, TaskListener listener) throws InterruptedException {
+        try {
+            Proc stop = launched.stopRun.start(launched.launcher, listener.getLogger(), null, new EnvVars());
+            if (stop.joinWithTimeout(DaemonPool.PING_TIMEOUT_MS, TimeUnit.MILLISECONDS, listener) == 0) {
+                return true;
+            }
+        } catch (IOException ex) {
+            listener.getLogger().println(ex.getMessage());
+        }
+        listener.getLogger().println("Unable to stop the run on QF-Test daemon " + launched.endpoint
+                + ", skipping it for a while");
+        return false;
+    }
+
+    /**
+     * Evaluates a QF-Test call, which has finished with the given return value.
+     */
+    @CheckForNull
+    Character complete(Launched launched, int ret, TaskListener listener) throws IOException, InterruptedException {
+        long endTime = System.currentTimeMillis();
+        if (launched.daemon != null) {
+            //a killed call may have left the daemon in the middle of a test
+            DaemonPool.get().giveBack(
+                    launched.daemon, daemonRecycleAfter, !launched.cancelled && launched.timedOut == null
+            );
+        }
+        if (launched.endpoint != null) {
+            boolean idle = (!launched.cancelled && launched.timedOut == null) || stopRun(launched, listener);
+            daemonEndpoints.release(launched.endpoint, idle);
+        }
+        release(launched.worker);
+        synchronized (this) {
+            if (running != null) {
+                running.remove(launched);
+            }
+        }
+        if (launched.cancelled) {
+            //the runlogs are incomplete, if any, so the suites are neither recorded nor reported
+            for (Suites sf : launched.batch) {
+                listener.getLogger().println("  " + sf.getSuitename() + ": cancelled");
+            }
+            if (launched.remoteRunlogdir != null) {
+                launched.remoteRunlogdir.deleteRecursive();
+            }
+            for (String name : Checkpoint.runlogs(launched.runlogdir).keySet()) {
+                if (!launched.runlogsBefore.contains(name)) {
+                    launched.runlogdir.child(name).delete();
+                }
+            }
+            return null;
+        }
+        if (launched.remoteRunlogdir != null) {
+            launched.remoteRunlogdir.copyRecursiveTo("**/*", launched.runlogdir);
+            launched.remoteRunlogdir.deleteRecursive();
+        }
+        Map<String, RunLogSummary> runlogs = Collections.emptyMap();
+        if (launched.timedOut != null) {
+            //recorded as test exception, whatever the killed process has returned
+            listener.getLogger().println("  Killed, as the call " + launched.timedOut);
+            ret = 3;
+        } else if (launched.batch.size() > 1) {
+            //recover return values of the single suites
+            runlogs = launched.runlogdir.act(new RunLogSummary.Scan());
+            for (Suites sf : launched.batch) {
+                RunLogSummary summary = RunLogSummary.forSuite(runlogs, sf.getSuitename());
+                listener.getLogger().println("  " + sf.getSuitename() + ": " + (summary != null
+                        ? "return value " + (int) summary.getReturnValue()
+                        : "no unique runlog found"));
+            }
+        }
+
+        listener.getLogger().println("  Finished with return value: " + ret);
+
+        List<Checkpoint.Entry> entries = attribute(launched, ret, endTime, runlogs);
+        if (attempts.isRetrying()) {
+            attempts.track(launched.batch, entries, listener);
+        }
+        if (cache != null && launched.timedOut == null) {
+            cache(entries, listener);
+        }
+        for (Checkpoint.Entry e : entries) {
+            e.result.setQueueTime(launched.queueTimeMs);
+            results.add(e.result);
+        }
+        if (checkpoint != null) {
+            checkpoint.record(entries);
+        }
+        if (nativeReport) {
+            convertInBackground(launched.runlogdir, listener);
+        }
+        if (failFast.isTriggeredBy(ret)) {
+            cancel(listener);
+        }
+        return (char) ret;
+    }
+
+    /**
+     * Stores the results of the suites of a finished call in the result cache.
+     * Only suites with runlogs of their own are cached, and only if they have passed or ended with warnings,
+     * so failing suites are always run again.
+     */
+    private void cache(List<Checkpoint.Entry> entries, TaskListener listener) throws InterruptedException {
+        Map<String, Integer> shared = new HashMap<>();
+        for (Checkpoint.Entry e : entries) {
+            for (String runlog : e.runlogs) {
+                shared.merge(runlog, 1, Integer::sum);
+            }
+        }
+        for (Checkpoint.Entry e : entries) {
+            String key;
+            synchronized (this) {
+                key = cacheKeys.remove(e.key());
+            }
+            if (key == null || e.result.getReturnValue() > 1 || e.runlogs.isEmpty()) {
+                continue;
+            }
+            List<FilePath> runlogs = new ArrayList<>();
+            for (String runlog : e.runlogs) {
+                if (shared.get(runlog) > 1) {
+                    runlogs = null;
+                    break;
+                }
+                runlogs.add(qrzdir.child(runlog));
+            }
+            if (runlogs == null) {
+                continue;
+            }
+            try {
+                int evicted = cache.store(key, e.result.getReturnValue(), runlogs);
+                if (evicted > 0) {
+                    listener.getLogger().println("  Evicted " + evicted + " result(s) used least recently from the result cache");
+                }
+            } catch (IOException ex) {
+                listener.getLogger().println("  Unable to store " + e.result.getSuitename() + " in the result cache: " + ex.getMessage());
+            }
+        }
+    }
+
+    /* the runlog directory relative to qrz, either empty or ending with a slash */
+    private String relativeDir(FilePath runlogdir) {
+        return runlogdir.getRemote().equals(qrzdir.getRemote())
+                ? "" : QFTestExecutor.Imp.relativePath(qrzdir, runlogdir) + "/";
+    }
+
+    private synchronized void convertInBackground(FilePath runlogdir, TaskListener listener) {
+        if (reports == null) {
+            //a single thread, so the runlogs of a directory are never converted concurrently
+            reports = Executors.newSingleThreadExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "QFTestExecutor report fragments")
+            );
+        }
+        RunLogReport.Fragment fragment = new RunLogReport.Fragment(qrzdir.getName(), junitdir, relativeDir(runlogdir));
+        lastReport = reports.submit(() -> {
+            try {
+                logdir.act(fragment);
+            } catch (IOException ex) {
+                //the runlogs are converted again during the final merge
+                listener.getLogger().println("Unable to convert runlogs in " + runlogdir.getRemote() + ": " + ex.getMessage());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return whether runlogs of finished calls are still being converted
+     */
+    synchronized boolean reportsPending() {
+        return lastReport != null && !lastReport.isDone();
+    }
+
+    /**
+     * Waits until the runlogs of all finished calls have been converted.
+     */
+    void awaitReports() throws InterruptedException {
+        ExecutorService r;
+        synchronized (this) {
+            r = reports;
+        }
+        if (r != null) {
+            r.shutdown();
+            r.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void cancelReports() {
+        if (reports != null) {
+            reports.shutdownNow();
+        }
+    }
+
+    /**
+     * Assigns the runlogs produced by a finished QF-Test call to the suites of its batch.
+     */
+    private List<Checkpoint.Entry> attribute(Launched launched, int ret, long endTime, Map<String, RunLogSummary> runlogs)
+            throws IOException, InterruptedException
+    {
+        Map<String, Long> produced = new TreeMap<>(Checkpoint.runlogs(launched.runlogdir));
+        produced.keySet().removeAll(launched.runlogsBefore);
+
+        String prefix = relativeDir(launched.runlogdir);
+
+        List<Suites> unassigned = new ArrayList<>();
+        Set<String> assigned = new HashSet<>();
+        List<Checkpoint.Entry> entries = new ArrayList<>();
+        for (Suites sf : launched.batch) {
+            RunLogSummary summary = (launched.batch.size() > 1 ? RunLogSummary.forSuite(runlogs, sf.getSuitename()) : null);
+            if (summary != null && produced.containsKey(summary.getName())) {
+                assigned.add(summary.getName());
+                entries.add(new Checkpoint.Entry(
+                        new SuiteResult(sf, summary.getReturnValue(), launched.startTime, endTime,
+                                produced.get(summary.getName())),
+                        Collections.singletonList(prefix + summary.getName())
+                ));
+            } else {
+                unassigned.add(sf);
+            }
+        }
+
+        //suites without a unique runlog share the remaining ones
+        List<String> rest = new ArrayList<>();
+        long restSize = 0;
+        for (Map.Entry<String, Long> e : produced.entrySet()) {
+            if (!assigned.contains(e.getKey())) {
+                rest.add(prefix + e.getKey());
+                restSize += e.getValue();
+            }
+        }
+        for (Suites sf : unassigned) {
+            entries.add(new Checkpoint.Entry(
+                    new SuiteResult(sf, ret, launched.startTime, endTime, restSize), rest
+            ));
+        }
+        return entries;
+    }
+
+    /**
+     * Reports a QF-Test call, which has failed without any suite result.
+     */
+    Character callFailed(Exception ex, TaskListener listener) {
+        Character ret = failed(ex, listener);
+        attempts.callFailed(ret);
+        return ret;
+    }
+
+    static Character failed(Exception ex, TaskListener listener) {
+        listener.error(ex.getMessage());
+        Functions.printStackTrace(ex, listener.fatalError(ex.getMessage()));
+        return (char) 4; //Test exception
+    }
+
+    /**
+     * What an {@link AgentSideLoop} sends back to the controller.
+     */
+    static class Outcome implements Serializable {
+
+        private static final long serialVersionUID = -1560862779466151532L;
+
+        @CheckForNull
+        final Character returnValue;
+        final List<SuiteResult> results;
+
+        Outcome(@CheckForNull Character returnValue, List<SuiteResult> results) {
+            this.returnValue = returnValue;
+            this.results = results;
+        }
+    }
+
+    /**
+     * Expands and runs all suites on the agent within a single remote call.
+     * Only the reduced return value and the suite results travel back to the controller, besides the console output.
+     * The QF-Test calls are started by a plain local launcher on the agent, see {@link #check}.
+     */
+    static class AgentSideLoop extends MasterToSlaveFileCallable<Outcome> {
+
+        private static final long serialVersionUID = -3407981467370155924L;
+
+        private final SuiteRunner runner;
+        private final List<Suites> suites;
+        @CheckForNull
+        private final ImpactAnalysis impact;
+        private final TaskListener listener;
+
+        AgentSideLoop(SuiteRunner runner, List<Suites> suites, @CheckForNull ImpactAnalysis impact, TaskListener listener) {
+            this.runner = runner;
+            this.suites = new ArrayList<>(suites);
+            this.impact = impact;
+            this.listener = listener;
+        }
+
+        /**
+         * Refuses the settings the loop on the agent cannot honor: a launcher of the step decorated e.g. by
+         * <tt>docker.inside</tt> or <tt>container</tt>, which cannot be shipped to the agent,
+         * and helper agents, which are reserved by the controller.
+         */
+        static void check(Launcher launcher, QFTestParamProvider qftParams) throws AbortException {
+            if (!qftParams.isAgentSideExecution()) {
+                return;
+            }
+            if (launcher instanceof Launcher.DecoratedLauncher) {
+                throw new AbortException("The suites cannot be run by a loop on the agent within "
+                        + "docker.inside, container or a similar block, disable agentSideExecution");
+            }
+            if (qftParams.getAgentLabel() != null) {
+                throw new AbortException("The suites cannot be run by a loop on the agent along with helper agents, "
+                        + "remove either agentSideExecution or agentLabel");
+            }
+        }
+
+        /* starts the QF-Test calls on the agent */
+        Launcher launcher(TaskListener listener) {
+            return new Launcher.LocalLauncher(listener);
+        }
+
+        @Override
+        public Outcome invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            SuiteExpansion.Source source = SuiteExpansion.start(ws, suites, impact, listener);
+            try {
+                Character ret = runner.run(
+                        SuiteExpansion.iterator(source, listener), new FilePath(ws), launcher(listener), listener
+                );
+                return new Outcome(ret, runner.getResults());
+            } finally {
+                source.close();
+            }
+        }
+    }
+}
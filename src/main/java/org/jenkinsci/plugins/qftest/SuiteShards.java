@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions the expanded suites among several shards, e.g. QF-Test steps running on different agents.
+ * The partition only depends on the suites and their estimated durations, so every shard computes the very same one:
+ * the suites are assigned longest first to the shard with the least total duration so far (LPT scheduling).
+ * Suites are identified by their path relative to the workspace, so shards in different workspaces agree as well.
+ */
+class SuiteShards {
+
+    static final String MANIFEST_FILE = "shard-manifest.tsv";
+
+    private final List<Suites> suites;
+    private final String workspace;
+    private final long[] estimates;
+    private final int[] shards;
+    private final long[] loads;
+
+    /**
+     * @param estimates estimated durations keyed by {@link SuiteDurations#key(Suites, String)};
+     *                  suites without estimate are assumed to take the average duration
+     * @param workspace where the suites have been expanded
+     */
+    SuiteShards(List<Suites> suites, Map<String, Long> estimates, String workspace, int shardCount) {
+        this.suites = new ArrayList<>(suites);
+        this.workspace = workspace;
+        String[] keys = new String[suites.size()];
+        for (int i = 0; i < suites.size(); i++) {
+            keys[i] = SuiteDurations.key(suites.get(i), workspace);
+        }
+        this.estimates = new long[suites.size()];
+        this.shards = new int[suites.size()];
+        this.loads = new long[shardCount];
+
+        long known = 0;
+        int nKnown = 0;
+        for (String key : keys) {
+            Long e = estimates.get(key);
+            if (e != null) {
+                known += e;
+                nKnown++;
+            }
+        }
+        long fallback = (nKnown > 0 ? Math.max(1, known / nKnown) : 1);
+        for (int i = 0; i < suites.size(); i++) {
+            this.estimates[i] = estimates.getOrDefault(keys[i], fallback);
+        }
+
+        //longest first, ties broken by path and parameters, so the expansion order does not matter
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < suites.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator
+                .comparingLong((Integer i) -> -this.estimates[i])
+                .thenComparing(i -> keys[i])
+        );
+
+        for (int i : order) {
+            int least = 0;
+            for (int s = 1; s < shardCount; s++) {
+                if (loads[s] < loads[least]) {
+                    least = s;
+                }
+            }
+            shards[i] = least;
+            loads[least] += this.estimates[i];
+        }
+    }
+
+    /**
+     * @return the suites of the given shard, in their original order
+     */
+    List<Suites> get(int shardIndex) {
+        List<Suites> ret = new ArrayList<>();
+        for (int i = 0; i < suites.size(); i++) {
+            if (shards[i] == shardIndex) {
+                ret.add(suites.get(i));
+            }
+        }
+        return ret;
+    }
+
+    long getLoad(int shardIndex) {
+        return loads[shardIndex];
+    }
+
+    /**
+     * Writes the complete partition, so later stages can check that every suite has been covered.
+     * Every line holds the shard index, the estimated duration in milliseconds,
+     * the suite relative to the workspace and its custom parameters.
+     */
+    void writeManifest(FilePath file) throws IOException, InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < suites.size(); i++) {
+                Suites sf = suites.get(i);
+                w.print(shards[i] + "\t" + estimates[i]
+                        + "\t" + Checkpoint.escape(SuiteDurations.relative(sf.getSuitename(), workspace))
+                        + "\t" + Checkpoint.escape(sf.getCustomParam()) + "\n");
+            }
+        }
+        file.write(bytes.toString("UTF-8"), "UTF-8");
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.util.ListBoxModel;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How a suite is split into work units, which are run by separate QF-Test calls using <tt>-test</tt>.
+ * The tests are read from the XML of the suite with StAX, so large suites are never held in memory.
+ */
+enum SuiteSplit {
+    NONE("Whole suite"),
+    TESTSET("Per top-level test set"),
+    TESTCASE("Per test case");
+
+    private final String displayName;
+
+    SuiteSplit(String displayName) {
+        this.displayName = displayName;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the split of the given name, falling back to {@link #NONE} for unknown ones
+     */
+    static SuiteSplit fromString(String name) {
+        for (SuiteSplit s : values()) {
+            if (s.name().equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        return NONE;
+    }
+
+    static ListBoxModel fill(SuiteSplit preSelect) {
+        ListBoxModel items = new ListBoxModel();
+        for (SuiteSplit s : values()) {
+            items.add(new ListBoxModel.Option(s.getDisplayName(), s.name(), s == preSelect));
+        }
+        return items;
+    }
+
+    static boolean isSplittable(String suitename) {
+        return suitename.endsWith(".qft");
+    }
+
+    /* a test node directly below the root of the suite */
+    private static class TopLevel {
+        final String selection;
+        final boolean isTestSet;
+        final List<String> testCases = new ArrayList<>();
+        boolean allIdentified = true;
+
+        TopLevel(String selection, boolean isTestSet) {
+            this.selection = selection;
+            this.isTestSet = isTestSet;
+        }
+    }
+
+    /**
+     * Lists the work units of a suite, each given as argument of <tt>-test</tt>.
+     * A test is selected by its QF-Test ID or, at the top level, by its index.
+     * Test cases nested in a test set can only be selected by their ID, so a test set with
+     * test cases lacking an ID is kept as a single unit.
+     * @return the units, or an empty list if the suite holds no tests at all
+     */
+    List<String> units(InputStream suite) throws IOException {
+        List<TopLevel> tops = new ArrayList<>();
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(suite);
+            try {
+                int depth = 0;
+                //depth of the top-level test currently read, if any
+                int topDepth = -1;
+                int index = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String element = reader.getLocalName();
+                        boolean isTestSet = RunLogReport.isTestSet(element);
+                        if (!isTestSet && !RunLogReport.isTestCase(element)) {
+                            continue;
+                        }
+                        String id = reader.getAttributeValue(null, "id");
+                        if (id != null && id.trim().isEmpty()) {
+                            id = null;
+                        }
+                        if (depth == 2) {
+                            tops.add(new TopLevel(id != null ? id : Integer.toString(index), isTestSet));
+                            index++;
+                            topDepth = depth;
+                        } else if (topDepth > 0 && !isTestSet) {
+                            TopLevel top = tops.get(tops.size() - 1);
+                            if (id != null) {
+                                top.testCases.add(id);
+                            } else {
+                                top.allIdentified = false;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == topDepth) {
+                            topDepth = -1;
+                        }
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Unable to parse suite: " + ex.getMessage(), ex);
+        }
+
+        List<String> ret = new ArrayList<>();
+        for (TopLevel top : tops) {
+            if (this == TESTCASE && top.isTestSet && top.allIdentified && !top.testCases.isEmpty()) {
+                ret.addAll(top.testCases);
+            } else {
+                ret.add(top.selection);
+            }
+        }
+        return ret;
+    }
+}
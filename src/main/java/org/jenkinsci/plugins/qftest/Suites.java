@@ -26,14 +26,22 @@ package org.jenkinsci.plugins.qftest;
 
 import static com.pivovarit.function.ThrowingFunction.unchecked;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.CheckForNull;
+
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import hudson.Extension;
@@ -42,6 +50,7 @@ import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 
 public class Suites extends AbstractDescribableImpl<Suites> implements Serializable {
 
@@ -49,6 +58,10 @@ public class Suites extends AbstractDescribableImpl<Suites> implements Serializa
 	private final String suitename;
 	private final String customParam;
 	private String fileending;
+	@CheckForNull
+	private Integer timeout;
+	@CheckForNull
+	private SuiteSplit split;
 
 
 	//TODO ATTN: new method..tell xml serializer about it ..DONT
@@ -88,6 +101,50 @@ public class Suites extends AbstractDescribableImpl<Suites> implements Serializa
 	}
 
 
+	/**
+	 * Returns the time limit of a single suite in minutes.
+	 *
+	 * @return time limit in minutes, or null if the default of the step applies
+	 */
+	@CheckForNull
+	public Integer getTimeout() {
+		return timeout;
+	}
+
+	@DataBoundSetter
+	public void setTimeout(@CheckForNull Integer timeout) {
+		this.timeout = (timeout != null && timeout >= 0 ? timeout : null);
+	}
+
+	/**
+	 * Returns how the suites of this entry are split into work units.
+	 *
+	 * @return name of the split, see {@link SuiteSplit}
+	 */
+	public String getSplit() {
+		return splitLevel().name();
+	}
+
+	@DataBoundSetter
+	public void setSplit(String split) {
+		SuiteSplit s = SuiteSplit.fromString(split);
+		this.split = (s != SuiteSplit.NONE ? s : null);
+	}
+
+	SuiteSplit splitLevel() {
+		return (split != null ? split : SuiteSplit.NONE);
+	}
+
+	/**
+	 * Creates a suite entry which keeps all settings of this one, but the path and the arguments.
+	 */
+	Suites derive(String suitename, String customParam) {
+		Suites ret = new Suites(suitename, customParam);
+		ret.timeout = this.timeout;
+		ret.split = this.split;
+		return ret;
+	}
+
 	@Override
 	public String toString() {
 		return new StringBuilder("SUITE CONFIG ")
@@ -128,6 +185,10 @@ public class Suites extends AbstractDescribableImpl<Suites> implements Serializa
 			}
 			return FormValidation.ok();
 		}
+
+		public ListBoxModel doFillSplitItems(@QueryParameter("split") String preset) {
+			return SuiteSplit.fill(preset.isEmpty() ? SuiteSplit.NONE : SuiteSplit.fromString(preset));
+		}
 	}
 
 	//TODO: this should return a Stream of suites
@@ -184,13 +245,62 @@ public class Suites extends AbstractDescribableImpl<Suites> implements Serializa
        		args.add(suite_arg);
 		}
 
-        return new Suites(file, String.join(" ", args));
+        return derive(file, String.join(" ", args));
+	}
+
+	/**
+	 * Whether this entry stands for a suitesfile, i.e. has passed {@link #considerSuitesfile()} with a -suitesfile argument.
+	 */
+	boolean isSuitesfile() {
+		String[] args = Util.tokenize(Objects.toString(customParam, ""));
+		return args.length > 0 && args[args.length - 1].equals("-suitesfile");
+	}
+
+	/**
+	 * Turns every line of a suitesfile into a suite entry of its own, so the suites can be scheduled individually.
+	 * A line holds the suite followed by its own arguments, typically -test selections, which are appended to
+	 * the arguments of this entry. Empty lines and lines starting with # are skipped.
+	 *
+	 * @param lines
+	 *            content of the suitesfile of this entry
+	 * @param dir
+	 *            directory of the suitesfile, where relative suites are looked up first
+	 * @param base
+	 *            workspace, where relative suites are looked up otherwise
+	 * @return the suites listed
+	 */
+	List<Suites> expandSuitesfile(List<String> lines, File dir, File base) {
+		List<String> common = new ArrayList<>(Arrays.asList(Util.tokenize(customParam)));
+		common.remove(common.size() - 1); //-suitesfile
+
+		List<Suites> ret = new ArrayList<>();
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			List<String> args = new ArrayList<>(Arrays.asList(Util.tokenize(line)));
+			String name = args.remove(0);
+			File suite = new File(name);
+			if (!suite.isAbsolute()) {
+				suite = new File(dir, name);
+				if (!suite.exists() && new File(base, name).exists()) {
+					suite = new File(base, name);
+				}
+			}
+			List<String> all = new ArrayList<>(common);
+			all.addAll(args);
+			ret.add(derive(suite.getPath(), all.stream()
+					.map(a -> a.matches(".*\\s.*") ? "\"" + a + "\"" : a)
+					.collect(Collectors.joining(" "))));
+		}
+		return ret;
 	}
 
 	public Stream<Suites> expand(FilePath base) throws IOException, InterruptedException {
 			Suites ret = this.considerSuitesfile();
 			return ret.getExpandedPaths(base)
-					.map(unchecked( p -> new Suites(p.getRemote(), ret.getCustomParam())));
+					.map(unchecked( p -> ret.derive(p.getRemote(), ret.getCustomParam())));
 	}
 }
 
@@ -0,0 +1,314 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separates the QF-Test processes of parallel workers running on the same agent.
+ * Every worker gets its own virtual X display on Unix (Xvfb picks a free display number itself),
+ * its own user and system configuration and its own range of TCP ports.
+ * The port ranges are reserved in a registry of the agent, shared by all builds running there (see {@link Ports}).
+ * The environment of a worker is set up on its first QF-Test call and kept until the step has finished.
+ */
+class WorkerIsolation {
+
+    static final int PORT_RANGE_START = 20000;
+    static final int PORT_RANGE_SIZE = 20;
+    static final int MAX_PORT_RANGES = 1000;
+    static final long XVFB_START_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The environment of a single worker.
+     */
+    static class Worker {
+        @CheckForNull
+        final String display;
+        final FilePath cfgdir;
+        final int portBase;
+        @CheckForNull
+        final Proc xvfb;
+        /* the agent holding the port range */
+        @CheckForNull
+        final VirtualChannel channel;
+
+        Worker(@CheckForNull String display, FilePath cfgdir, int portBase, @CheckForNull Proc xvfb,
+               @CheckForNull VirtualChannel channel) {
+            this.display = display;
+            this.cfgdir = cfgdir;
+            this.portBase = portBase;
+            this.xvfb = xvfb;
+            this.channel = channel;
+        }
+
+        /**
+         * Points the given QF-Test call to the environment of this worker. Has to precede any user arguments.
+         */
+        void apply(QFTestCommandLine args) {
+            args
+                .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-usercfg", cfgdir.child("user.cfg").getRemote())
+                .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-systemcfg", cfgdir.child("system.cfg").getRemote())
+                .presetArg(QFTestCommandLine.PresetType.ENFORCE, "-port", Integer.toString(portBase));
+        }
+
+        EnvVars apply(EnvVars env) {
+            EnvVars ret = new EnvVars(env);
+            if (display != null) {
+                ret.put("DISPLAY", display);
+            }
+            ret.put("QFTEST_PORT_BASE", Integer.toString(portBase));
+            ret.put("QFTEST_PORT_RANGE", Integer.toString(PORT_RANGE_SIZE));
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return (display != null ? "display " + display + ", " : "")
+                    + "ports " + portBase + "-" + (portBase + PORT_RANGE_SIZE - 1);
+        }
+    }
+
+    /* completed once the environment of a worker has been set up, so it is never set up twice */
+    private final Map<Integer, CompletableFuture<Worker>> workers = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * @return the environment of the given worker, which is set up on first use
+     */
+    Worker get(int worker, boolean isUnix, Launcher launcher, FilePath workspace, TaskListener listener, String prefix)
+            throws IOException, InterruptedException
+    {
+        CompletableFuture<Worker> future;
+        boolean create = false;
+        synchronized (workers) {
+            if (closed) {
+                throw new IOException("The isolated QF-Test environments have been cleaned up already");
+            }
+            future = workers.get(worker);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                workers.put(worker, future);
+                create = true;
+            }
+        }
+
+        if (!create) {
+            try {
+                return future.get();
+            } catch (ExecutionException ex) {
+                throw new IOException("Unable to set up isolated QF-Test environment", ex.getCause());
+            }
+        }
+
+        Worker ret;
+        try {
+            ret = create(worker, isUnix, launcher, workspace);
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            synchronized (workers) {
+                workers.remove(worker, future);
+            }
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+        listener.getLogger().println(prefix + "Isolated QF-Test environment: " + ret);
+        future.complete(ret);
+        boolean stale;
+        synchronized (workers) {
+            stale = closed;
+        }
+        if (stale) {
+            //closed while being set up
+            cleanUp(ret, listener);
+            throw new IOException("The isolated QF-Test environments have been cleaned up already");
+        }
+        return ret;
+    }
+
+    private static Worker create(int worker, boolean isUnix, Launcher launcher, FilePath workspace)
+            throws IOException, InterruptedException
+    {
+        FilePath tmp = WorkspaceList.tempDir(workspace);
+        FilePath cfgdir = (tmp != null ? tmp : workspace).child("qftest-worker" + worker);
+        cfgdir.mkdirs();
+
+        VirtualChannel channel = launcher.getChannel();
+        int portBase = Ports.reserve(channel);
+
+        String display = null;
+        Proc xvfb = null;
+        if (isUnix) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                xvfb = launcher.launch()
+                        .cmds("Xvfb", "-displayfd", "1", "-screen", "0", "1920x1080x24", "-nolisten", "tcp")
+                        .stdout(out)
+                        .quiet(true)
+                        .start();
+                display = ":" + readDisplay(xvfb, out);
+            } catch (IOException | InterruptedException | RuntimeException ex) {
+                Ports.release(channel, portBase);
+                throw ex;
+            }
+        }
+        return new Worker(display, cfgdir, portBase, xvfb, channel);
+    }
+
+    /* Xvfb writes the number of the display chosen to the given stream, once it accepts connections */
+    private static int readDisplay(Proc xvfb, ByteArrayOutputStream out) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + XVFB_START_TIMEOUT_MS;
+        while (true) {
+            String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            int nl = s.indexOf('\n');
+            if (nl > 0) {
+                try {
+                    return Integer.parseInt(s.substring(0, nl).trim());
+                } catch (NumberFormatException ex) {
+                    xvfb.kill();
+                    throw new IOException("Unexpected output of Xvfb: " + s);
+                }
+            }
+            if (!xvfb.isAlive()) {
+                throw new IOException("Xvfb has terminated, is it installed on the agent?");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                xvfb.kill();
+                throw new IOException("Xvfb has not started within " + TimeUnit.MILLISECONDS.toSeconds(XVFB_START_TIMEOUT_MS) + " s");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Stops the virtual displays and removes the configuration of all workers.
+     */
+    void close(TaskListener listener) {
+        List<CompletableFuture<Worker>> all;
+        synchronized (workers) {
+            closed = true;
+            all = new ArrayList<>(workers.values());
+            workers.clear();
+        }
+        for (CompletableFuture<Worker> f : all) {
+            //the ones still being set up are cleaned up by get()
+            Worker w = f.getNow(null);
+            if (w != null) {
+                cleanUp(w, listener);
+            }
+        }
+    }
+
+    private static void cleanUp(Worker w, TaskListener listener) {
+        try {
+            if (w.xvfb != null) {
+                w.xvfb.kill();
+            }
+            Ports.release(w.channel, w.portBase);
+            w.cfgdir.deleteRecursive();
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            listener.getLogger().println("Unable to clean up isolated QF-Test environment (" + w + "): " + ex.getMessage());
+        }
+    }
+
+    /**
+     * The port ranges reserved by all builds running on an agent, kept within the JVM of the agent.
+     * A range is only handed out, if none of its ports is in use by any other process either.
+     */
+    static class Ports {
+
+        private static final BitSet RESERVED = new BitSet(MAX_PORT_RANGES);
+
+        /**
+         * @param channel the channel to the agent, or null for the local node
+         * @return the first port of the range reserved
+         */
+        static int reserve(@CheckForNull VirtualChannel channel) throws IOException, InterruptedException {
+            Reserve reserve = new Reserve();
+            return (channel != null ? channel.call(reserve) : reserve.call());
+        }
+
+        static void release(@CheckForNull VirtualChannel channel, int portBase) throws IOException, InterruptedException {
+            Release release = new Release(portBase);
+            if (channel != null) {
+                channel.call(release);
+            } else {
+                release.call();
+            }
+        }
+
+        /**
+         * @return the number of ranges reserved on this node
+         */
+        static int reserved() {
+            synchronized (RESERVED) {
+                return RESERVED.cardinality();
+            }
+        }
+
+        private static boolean isFree(int portBase) {
+            for (int port = portBase; port < portBase + PORT_RANGE_SIZE; port++) {
+                try (ServerSocket ignored = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+                    //in use by no other process
+                } catch (IOException ex) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static class Reserve extends MasterToSlaveCallable<Integer, IOException> {
+            private static final long serialVersionUID = 8205537416129460310L;
+
+            @Override
+            public Integer call() throws IOException {
+                synchronized (RESERVED) {
+                    for (int i = RESERVED.nextClearBit(0); i < MAX_PORT_RANGES; i = RESERVED.nextClearBit(i + 1)) {
+                        int portBase = PORT_RANGE_START + i * PORT_RANGE_SIZE;
+                        if (isFree(portBase)) {
+                            RESERVED.set(i);
+                            return portBase;
+                        }
+                    }
+                }
+                throw new IOException("No free range of " + PORT_RANGE_SIZE + " TCP ports found for QF-Test");
+            }
+        }
+
+        private static class Release extends MasterToSlaveCallable<Void, RuntimeException> {
+            private static final long serialVersionUID = -3381902875117092826L;
+
+            private final int portBase;
+
+            Release(int portBase) {
+                this.portBase = portBase;
+            }
+
+            @Override
+            public Void call() {
+                synchronized (RESERVED) {
+                    RESERVED.clear((portBase - PORT_RANGE_START) / PORT_RANGE_SIZE);
+                }
+                return null;
+            }
+        }
+    }
+}
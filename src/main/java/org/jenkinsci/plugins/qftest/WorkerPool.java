@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs a sequence of work units (i.e. expanded suites or batches of them) on a bounded number of workers.
+ * Every worker pulls the next pending unit as soon as its previous one has finished,
+ * so a single long-running unit does not block the others.
+ */
+class WorkerPool<T> {
+
+    @FunctionalInterface
+    interface Task<T> {
+        /**
+         * @param unit   the work unit to be run
+         * @param worker index of the worker running the unit, in the range [0, parallelism)
+         * @return the QF-Test return value, or null if the unit was not run at all
+         */
+        @CheckForNull
+        Character run(T unit, int worker) throws InterruptedException;
+    }
+
+    private final Iterator<T> pending;
+    private final int parallelism;
+
+    WorkerPool(Iterator<T> pending, int parallelism) {
+        this.pending = pending;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    @CheckForNull
+    private T next() {
+        synchronized (pending) {
+            return pending.hasNext() ? pending.next() : null;
+        }
+    }
+
+    /**
+     * Runs all pending units and folds their return values through the given reducer.
+     * Blocks until all workers are done. If a unit fails or the calling thread gets interrupted,
+     * the running units are interrupted and no further ones are started.
+     */
+    @CheckForNull
+    Character run(Task<T> task, BinaryOperator<Character> reducer) throws InterruptedException, IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                parallelism, new NamingThreadFactory(new DaemonThreadFactory(), "QFTestExecutor worker")
+        );
+
+        try {
+            //collected as they finish, so a failing worker stops the others right away
+            CompletionService<Character> workers = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < parallelism; i++) {
+                final int worker = i;
+                workers.submit(() -> {
+                    Character ret = null;
+                    T unit;
+                    while (!Thread.currentThread().isInterrupted() && (unit = next()) != null) {
+                        ret = reducer.apply(ret, task.run(unit, worker));
+                    }
+                    return ret;
+                });
+            }
+
+            Character reduced = null;
+            for (int i = 0; i < parallelism; i++) {
+                reduced = reducer.apply(reduced, workers.take().get());
+            }
+            return reduced;
+
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            //interrupts running workers, e.g. when the build gets aborted
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+class AdaptiveLimiterTest {
+
+    @Test
+    public void procIsParsed() throws IOException {
+        AdaptiveLimiter.Load load = AdaptiveLimiter.parse(
+                "3.52 2.10 1.05 4/812 30211\n",
+                Arrays.asList(
+                        "MemTotal:       16309444 kB",
+                        "MemFree:         1204300 kB",
+                        "MemAvailable:    8154722 kB",
+                        "Cached:          6012344 kB"
+                ),
+                8
+        );
+        Assertions.assertEquals(0.44, load.getLoadPerCpu(), 0.001);
+        Assertions.assertEquals(0.5, load.getMemoryAvailable(), 0.001);
+
+        //older kernels
+        load = AdaptiveLimiter.parse("0.00 0.01 0.05 1/99 1\n",
+                Arrays.asList("MemTotal: 1000 kB", "MemFree: 100 kB", "Cached: 150 kB"), 1);
+        Assertions.assertEquals(0.25, load.getMemoryAvailable(), 0.001);
+
+        Assertions.assertThrows(IOException.class, () -> AdaptiveLimiter.parse("", Arrays.asList("MemFree: 1 kB"), 1));
+    }
+
+    @Test
+    public void limitFollowsTheLoad() {
+        AdaptiveLimiter.Load idle = new AdaptiveLimiter.Load(1.0, 4, 1000, 800);
+        AdaptiveLimiter.Load busy = new AdaptiveLimiter.Load(6.0, 4, 1000, 800);
+        AdaptiveLimiter.Load swapping = new AdaptiveLimiter.Load(1.0, 4, 1000, 50);
+
+        Assertions.assertEquals(3, AdaptiveLimiter.decide(2, true, idle, 1, 4));
+        //nobody is waiting
+        Assertions.assertEquals(2, AdaptiveLimiter.decide(2, false, idle, 1, 4));
+        Assertions.assertEquals(4, AdaptiveLimiter.decide(4, true, idle, 1, 4));
+
+        Assertions.assertEquals(1, AdaptiveLimiter.decide(2, true, busy, 1, 4));
+        Assertions.assertEquals(2, AdaptiveLimiter.decide(2, true, busy, 2, 4));
+        Assertions.assertEquals(1, AdaptiveLimiter.decide(2, true, swapping, 1, 4));
+    }
+}
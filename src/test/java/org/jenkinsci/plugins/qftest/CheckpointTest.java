@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class CheckpointTest {
+
+    @TempDir
+    File logdir;
+
+    @Test
+    public void entryRoundTrip() {
+        Checkpoint.Entry e = new Checkpoint.Entry(
+                new SuiteResult("suites/a b.qft", "-variable x=1\t-variable y=C:\\temp", 2, 1000, 4500, 12345),
+                Arrays.asList("worker0/batch3/a b.qrz", "worker0/batch3/a b-1.qrz")
+        );
+        Checkpoint.Entry read = Checkpoint.Entry.fromLine(e.toLine());
+
+        Assertions.assertEquals(e.result.getSuitename(), read.result.getSuitename());
+        Assertions.assertEquals(e.result.getCustomParam(), read.result.getCustomParam());
+        Assertions.assertEquals(2, read.result.getReturnValue());
+        Assertions.assertEquals(3500, read.result.getWallTime());
+        Assertions.assertEquals(12345, read.result.getRunlogSize());
+        Assertions.assertEquals(e.runlogs, read.runlogs);
+        Assertions.assertEquals(1, read.result.getAttempts());
+        Assertions.assertFalse(read.result.isFlaky());
+        Assertions.assertEquals(Checkpoint.key(new Suites(e.result.getSuitename(), e.result.getCustomParam())), read.key());
+    }
+
+    private static Checkpoint.Entry entry(String suite, String runlog) {
+        return new Checkpoint.Entry(new SuiteResult(suite, "", 0, 0, 0, 0), Collections.singletonList(runlog));
+    }
+
+    @Test
+    public void nextBatchIndex() {
+        Assertions.assertEquals(0, Checkpoint.nextBatchIndex(Collections.singletonList(
+                entry("a.qft", "a.qrz")
+        )));
+        Assertions.assertEquals(8, Checkpoint.nextBatchIndex(Arrays.asList(
+                entry("a.qft", "batch2/a.qrz"),
+                entry("b.qft", "worker1/batch7/b.qrz")
+        )));
+    }
+
+    @Test
+    public void retryAttemptsRoundTrip() {
+        Checkpoint.Entry e = entry("a.qft", "retry2/a.qrz");
+        e.result.setAttempts(3);
+        e.result.setFlaky(true);
+        Checkpoint.Entry read = Checkpoint.Entry.fromLine(e.toLine());
+
+        Assertions.assertEquals(3, read.result.getAttempts());
+        Assertions.assertTrue(read.result.isFlaky());
+    }
+
+    @Test
+    public void laterAttemptsSupersedeEarlierOnes() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(new FilePath(logdir), new FilePath(new File(logdir, "qrz")));
+        Checkpoint.Entry first = entry("a.qft", "a.qrz");
+        Checkpoint.Entry retry = entry("a.qft", "retry1/a.qrz");
+        retry.result.setAttempts(2);
+        checkpoint.record(Arrays.asList(first, entry("b.qft", "b.qrz")));
+        checkpoint.record(Collections.singletonList(retry));
+
+        List<Checkpoint.Entry> all = checkpoint.loadAll();
+        Assertions.assertEquals(3, all.size());
+        Checkpoint.Entry latest = checkpoint.load().get(first.key());
+        Assertions.assertEquals(2, latest.result.getAttempts());
+        Assertions.assertEquals(Collections.singletonList("retry1/a.qrz"), latest.runlogs);
+    }
+
+    @Test
+    public void discardKeepsTheRunlogsOfEveryAttempt() throws Exception {
+        File qrz = new File(logdir, "qrz");
+        for (String runlog : Arrays.asList("a.qrz", "retry1/a.qrz", "retry1/b.qrz")) {
+            File f = new File(qrz, runlog);
+            f.getParentFile().mkdirs();
+            Assertions.assertTrue(f.createNewFile());
+        }
+        Checkpoint checkpoint = new Checkpoint(new FilePath(logdir), new FilePath(qrz));
+        checkpoint.record(Arrays.asList(entry("a.qft", "a.qrz"), entry("a.qft", "retry1/a.qrz")));
+
+        checkpoint.discardIncomplete(checkpoint.loadAll());
+        Assertions.assertTrue(new File(qrz, "a.qrz").exists());
+        Assertions.assertTrue(new File(qrz, "retry1/a.qrz").exists());
+        //interrupted while running b
+        Assertions.assertFalse(new File(qrz, "retry1/b.qrz").exists());
+    }
+
+    @Test
+    public void launchCookies() throws Exception {
+        Checkpoint checkpoint = new Checkpoint(new FilePath(logdir), new FilePath(new File(logdir, "qrz")));
+        Assertions.assertEquals(Collections.emptyList(), checkpoint.loadLaunches());
+        checkpoint.recordLaunches("first");
+        checkpoint.recordLaunches("resumed");
+        Assertions.assertEquals(Arrays.asList("first", "resumed"), checkpoint.loadLaunches());
+    }
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+class DaemonEndpointsTest {
+
+    @Test
+    public void parse() throws AbortException {
+        DaemonEndpoints endpoints = DaemonEndpoints.parse(" host1:4000, host2\n10.0.0.1:4001 ");
+        Assertions.assertEquals(3, endpoints.size());
+        Assertions.assertThrows(AbortException.class, () -> DaemonEndpoints.parse("host:port"));
+        Assertions.assertThrows(AbortException.class, () -> DaemonEndpoints.parse(" , "));
+    }
+
+    @Test
+    public void leastLoadedWithFailover() throws IOException, InterruptedException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int deadPort;
+        try (ServerSocket dead = new ServerSocket(0, 50, loopback)) {
+            deadPort = dead.getLocalPort();
+        }
+        try (ServerSocket daemon1 = new ServerSocket(0, 50, loopback);
+             ServerSocket daemon2 = new ServerSocket(0, 50, loopback)) {
+            String host = loopback.getHostAddress();
+            DaemonEndpoints.Endpoint down = new DaemonEndpoints.Endpoint(host, deadPort);
+            DaemonEndpoints.Endpoint up1 = new DaemonEndpoints.Endpoint(host, daemon1.getLocalPort());
+            DaemonEndpoints.Endpoint up2 = new DaemonEndpoints.Endpoint(host, daemon2.getLocalPort());
+            DaemonEndpoints endpoints = new DaemonEndpoints(Arrays.asList(down, up1, up2));
+
+            Assertions.assertSame(up1, endpoints.acquire(null, TaskListener.NULL));
+            Assertions.assertSame(up2, endpoints.acquire(null, TaskListener.NULL));
+            endpoints.release(up1);
+            Assertions.assertSame(up1, endpoints.acquire(null, TaskListener.NULL));
+        }
+    }
+
+    @Test
+    public void busyDaemonIsSkipped() throws IOException, InterruptedException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket daemon1 = new ServerSocket(0, 50, loopback);
+             ServerSocket daemon2 = new ServerSocket(0, 50, loopback)) {
+            String host = loopback.getHostAddress();
+            DaemonEndpoints.Endpoint busy = new DaemonEndpoints.Endpoint(host, daemon1.getLocalPort());
+            DaemonEndpoints.Endpoint idle = new DaemonEndpoints.Endpoint(host, daemon2.getLocalPort());
+            DaemonEndpoints endpoints = new DaemonEndpoints(Arrays.asList(busy, idle));
+
+            Assertions.assertSame(busy, endpoints.acquire(null, TaskListener.NULL));
+            //a killed call, whose run could not be stopped
+            endpoints.release(busy, false);
+            Assertions.assertSame(idle, endpoints.acquire(null, TaskListener.NULL));
+            Assertions.assertSame(idle, endpoints.acquire(null, TaskListener.NULL));
+        }
+    }
+}
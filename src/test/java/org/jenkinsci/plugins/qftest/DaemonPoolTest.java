@@ -0,0 +1,206 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+class DaemonPoolTest {
+
+    private static final String NODE = "agent";
+
+    @TempDir
+    File workspace;
+
+    private final DaemonPool pool = new DaemonPool();
+    private final FakeQFTest qftest = new FakeQFTest();
+
+    /* stands in for QF-Test: daemons run until they get killed, pings succeed while the daemon is running */
+    private static class FakeQFTest extends Launcher {
+        final List<Integer> started = new CopyOnWriteArrayList<>();
+        final Map<Integer, CountDownLatch> running = new ConcurrentHashMap<>();
+        volatile List<String> daemonEnv;
+
+        FakeQFTest() {
+            super(TaskListener.NULL, null);
+        }
+
+        @Override
+        public Proc launch(ProcStarter starter) {
+            List<String> cmds = starter.cmds();
+            int port = Integer.parseInt(cmds.get(cmds.indexOf("-daemonport") + 1));
+            if (cmds.contains("-ping")) {
+                CountDownLatch daemon = running.get(port);
+                return new FakeProc(new CountDownLatch(0), (daemon != null && daemon.getCount() > 0 ? 0 : 1));
+            }
+            Assertions.assertTrue(cmds.contains("-daemon"), String.join(" ", cmds));
+            CountDownLatch daemon = new CountDownLatch(1);
+            running.put(port, daemon);
+            started.add(port);
+            daemonEnv = Arrays.asList(starter.envs());
+            return new FakeProc(daemon, 0);
+        }
+
+        /* the daemon on the given port terminates on its own */
+        void crash(int port) {
+            running.get(port).countDown();
+        }
+
+        boolean isRunning(int port) {
+            CountDownLatch daemon = running.get(port);
+            return daemon != null && daemon.getCount() > 0;
+        }
+
+        @Override
+        public Channel launchChannel(String[] cmd, OutputStream out, FilePath workDir, Map<String, String> envVars) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void kill(Map<String, String> modelEnvVars) {
+        }
+    }
+
+    private static class FakeProc extends Proc {
+        private final CountDownLatch running;
+        private final int ret;
+
+        FakeProc(CountDownLatch running, int ret) {
+            this.running = running;
+            this.ret = ret;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return running.getCount() > 0;
+        }
+
+        @Override
+        public void kill() {
+            running.countDown();
+        }
+
+        @Override
+        public int join() throws InterruptedException {
+            running.await();
+            return ret;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return new ByteArrayOutputStream();
+        }
+    }
+
+    private DaemonPool.Daemon lease(EnvVars env) throws Exception {
+        return pool.lease(NODE, "qftest", true, qftest, new FilePath(workspace), env, TaskListener.NULL);
+    }
+
+    private DaemonPool.Daemon lease() throws Exception {
+        return lease(new EnvVars());
+    }
+
+    @AfterEach
+    public void stopDaemons() throws Exception {
+        for (DaemonPool.Daemon d : pool.getDaemons(NODE)) {
+            pool.giveBack(d, 0, false);
+        }
+    }
+
+    @Test
+    public void idleDaemonIsReused() throws Exception {
+        EnvVars env = new EnvVars();
+        env.put("PATH", "/opt/qftest/bin");
+        env.put("DEPLOY_TOKEN", "secret");
+        DaemonPool.Daemon first = lease(env);
+        //busy, so a second daemon is started
+        DaemonPool.Daemon second = lease();
+        Assertions.assertNotEquals(first.port, second.port);
+        Assertions.assertEquals(2, qftest.started.size());
+
+        pool.giveBack(first, 0, true);
+        Assertions.assertSame(first, lease());
+        Assertions.assertEquals(2, qftest.started.size());
+        Assertions.assertTrue(DaemonPool.Ports.isReserved(first.port));
+
+        //only the basic variables of the build are passed to the daemon shared by the builds
+        Assertions.assertTrue(qftest.daemonEnv.contains("BUILD_ID=dontKillMe"));
+        Assertions.assertFalse(qftest.daemonEnv.contains("DEPLOY_TOKEN=secret"));
+    }
+
+    @Test
+    public void daemonIsRecycledAfterItsRuns() throws Exception {
+        DaemonPool.Daemon daemon = lease();
+        pool.giveBack(daemon, 2, true);
+        Assertions.assertSame(daemon, lease());
+        pool.giveBack(daemon, 2, true);
+
+        Assertions.assertFalse(qftest.isRunning(daemon.port));
+        Assertions.assertFalse(DaemonPool.Ports.isReserved(daemon.port));
+        Assertions.assertNotSame(daemon, lease());
+        Assertions.assertEquals(2, qftest.started.size());
+    }
+
+    @Test
+    public void daemonIsRetiredAfterAKilledCall() throws Exception {
+        DaemonPool.Daemon daemon = lease();
+        pool.giveBack(daemon, 0, false);
+
+        Assertions.assertFalse(qftest.isRunning(daemon.port));
+        Assertions.assertFalse(DaemonPool.Ports.isReserved(daemon.port));
+        Assertions.assertTrue(pool.getDaemons(NODE).isEmpty());
+    }
+
+    @Test
+    public void unhealthyDaemonIsRestarted() throws Exception {
+        DaemonPool.Daemon daemon = lease();
+        pool.giveBack(daemon, 0, true);
+        qftest.crash(daemon.port);
+
+        Assertions.assertSame(daemon, lease());
+        Assertions.assertEquals(Arrays.asList(daemon.port, daemon.port), qftest.started);
+        Assertions.assertTrue(qftest.isRunning(daemon.port));
+    }
+
+    @Test
+    public void portInUseIsSkipped() throws Exception {
+        DaemonPool.Daemon daemon = lease();
+        int port = daemon.port;
+        pool.giveBack(daemon, 0, false);
+
+        //e.g. a daemon left over from a restart of the controller
+        try (ServerSocket ignored = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            Assertions.assertNotEquals(port, lease().port);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class FailFastTest {
+
+    @Test
+    public void levels() {
+        Assertions.assertFalse(FailFast.NEVER.isTriggeredBy(4));
+        Assertions.assertFalse(FailFast.EXCEPTION.isTriggeredBy(2));
+        Assertions.assertTrue(FailFast.EXCEPTION.isTriggeredBy(3));
+        Assertions.assertTrue(FailFast.EXCEPTION.isTriggeredBy(5));
+        Assertions.assertTrue(FailFast.WARNING.isTriggeredBy(1));
+        Assertions.assertFalse(FailFast.WARNING.isTriggeredBy(0));
+    }
+
+    @Test
+    public void fromString() {
+        Assertions.assertEquals(FailFast.ERROR, FailFast.fromString("ERROR"));
+        Assertions.assertEquals(FailFast.FAILURE, FailFast.fromString("failure"));
+        Assertions.assertEquals(FailFast.NEVER, FailFast.fromString("unknown"));
+        Assertions.assertEquals(FailFast.NEVER, FailFast.fromString(null));
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.slaves.WorkspaceList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class HelperAgentsTest {
+
+    @TempDir
+    File root;
+
+    @Test
+    public void executorIsHeldUntilReleased() throws Exception {
+        File ws = new File(root, HelperAgents.WORKSPACES + "/job");
+        Assertions.assertTrue(new File(ws, "suites").mkdirs());
+        CountDownLatch leaseReleased = new CountDownLatch(1);
+        WorkspaceList.Lease lease = new WorkspaceList.Lease(new FilePath(ws)) {
+            @Override
+            public void release() {
+                leaseReleased.countDown();
+            }
+        };
+        HelperAgents.Reservation reservation = new HelperAgents.Reservation(null, null);
+
+        //as on the executor of the helper
+        CompletableFuture<Void> executor = CompletableFuture.runAsync(() -> {
+            try {
+                reservation.hold(lease);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        Assertions.assertSame(lease, reservation.await(TimeUnit.SECONDS.toMillis(10)));
+        Thread.sleep(100);
+        Assertions.assertFalse(executor.isDone(), "executor given back early");
+        Assertions.assertTrue(ws.exists());
+
+        reservation.release();
+        executor.get(10, TimeUnit.SECONDS);
+        Assertions.assertTrue(leaseReleased.await(0, TimeUnit.SECONDS));
+        Assertions.assertFalse(ws.exists(), "helper workspace not deleted");
+    }
+
+    @Test
+    public void noFreeExecutor() throws Exception {
+        HelperAgents.Reservation reservation = new HelperAgents.Reservation(null, null);
+        Assertions.assertNull(reservation.await(50));
+    }
+
+    @Test
+    public void rebase() {
+        FilePath from = new FilePath(new File("/ws/job"));
+        FilePath to = new FilePath(new File("/agent/qftest-workspaces/job"));
+        Assertions.assertEquals(new File("/agent/qftest-workspaces/job/suites/a.qft").getPath(),
+                HelperAgents.rebase(new Suites(new File("/ws/job/suites/a.qft").getPath(), ""), from, to).getSuitename());
+        Assertions.assertEquals("/share/b.qft",
+                HelperAgents.rebase(new Suites("/share/b.qft", ""), from, to).getSuitename());
+        Assertions.assertEquals(new File("/ws/job-libs/c.qft").getPath(),
+                HelperAgents.rebase(new Suites(new File("/ws/job-libs/c.qft").getPath(), ""), from, to).getSuitename());
+    }
+}
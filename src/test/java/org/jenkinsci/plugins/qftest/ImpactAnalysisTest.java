@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.model.TaskListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+class ImpactAnalysisTest {
+
+    @TempDir
+    File ws;
+
+    private static File suite(File dir, String name, String body) throws IOException {
+        File ret = new File(dir, name);
+        Files.write(ret.toPath(), ("<RootStep>" + body + "</RootStep>").getBytes(StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    @Test
+    public void referencesAreFound() throws IOException {
+        String xml = "<RootStep><include>lib/base.qft</include>"
+                + "<TestCase><DependencyReference reference=\"deps.qft#Login\"/>"
+                + "<ProcedureCall procedure=\"util.qft#pkg.proc\"/><ProcedureCall procedure=\"local\"/></TestCase>"
+                + "</RootStep>";
+        Assertions.assertEquals(
+                Arrays.asList("lib/base.qft", "deps.qft", "util.qft"),
+                Arrays.asList(ImpactAnalysis.references(
+                        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))
+                ).toArray())
+        );
+    }
+
+    @Test
+    public void transitivelyAffectedSuitesAreSelected() throws IOException {
+        File lib = new File(ws, "lib");
+        Assertions.assertTrue(lib.mkdirs());
+        suite(lib, "base.qft", "");
+        suite(lib, "deps.qft", "<include>base.qft</include>");
+        File a = suite(ws, "a.qft", "<DependencyReference reference=\"lib/deps.qft#Login\"/>");
+        File b = suite(ws, "b.qft", "");
+        File c = suite(ws, "c.qft", "");
+
+        ImpactAnalysis impact = new ImpactAnalysis(Collections.singletonList("lib/base.qft"), "c.qft");
+        ImpactAnalysis.Selection selection = impact.open(ws);
+        Assertions.assertTrue(selection.isSelected(a));
+        Assertions.assertFalse(selection.isSelected(b));
+        Assertions.assertTrue(selection.isSelected(c));
+        selection.close(TaskListener.NULL);
+
+        //the index is reused by the next build
+        impact = new ImpactAnalysis(Collections.singletonList("b.qft"), null);
+        selection = impact.open(ws);
+        Assertions.assertFalse(selection.isSelected(a));
+        Assertions.assertTrue(selection.isSelected(b));
+    }
+
+    @Test
+    public void changesAreResolvedAgainstTheCheckoutRoot() throws IOException {
+        //checked out into a subdirectory of the workspace
+        File repo = new File(ws, "repo");
+        File suites = new File(repo, "suites");
+        Assertions.assertTrue(new File(repo, ".git").mkdirs());
+        Assertions.assertTrue(suites.mkdirs());
+        File a = suite(suites, "a.qft", "");
+        File b = suite(suites, "b.qft", "");
+        //not part of the checkout
+        File other = new File(ws, "other/suites");
+        Assertions.assertTrue(other.mkdirs());
+        File c = suite(other, "a.qft", "");
+
+        ImpactAnalysis.Selection selection = new ImpactAnalysis(Arrays.asList("suites/a.qft", "b.qft"), null).open(ws);
+        Assertions.assertTrue(selection.isSelected(a));
+        //a changed b.qft at the root of the repository is a different file
+        Assertions.assertFalse(selection.isSelected(b));
+        Assertions.assertFalse(selection.isSelected(c));
+    }
+}
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LicenseThrottleTest {
+
+    @Test
+    public void poolIsServedInOrder() {
+        LicenseThrottle throttle = new LicenseThrottle();
+        throttle.configure(1, 0);
+
+        Assertions.assertNotNull(throttle.tryAcquire("a", "n1"));
+        Assertions.assertNull(throttle.tryAcquire("b", "n1"));
+        Assertions.assertNull(throttle.tryAcquire("c", "n2"));
+        Assertions.assertEquals(2, throttle.getQueued());
+
+        throttle.release("a");
+        //c must not overtake b, which has asked first
+        Assertions.assertNull(throttle.tryAcquire("c", "n2"));
+        Assertions.assertNotNull(throttle.tryAcquire("b", "n1"));
+        //already holding a slot
+        Assertions.assertNotNull(throttle.tryAcquire("b", "n1"));
+        Assertions.assertEquals(1, throttle.getRunning());
+    }
+
+    @Test
+    public void waitersBlockedByTheirNodeArePassed() {
+        LicenseThrottle throttle = new LicenseThrottle();
+        throttle.configure(3, 1);
+
+        Assertions.assertNotNull(throttle.tryAcquire("a", "n1"));
+        Assertions.assertNull(throttle.tryAcquire("b", "n1"));
+        Assertions.assertNotNull(throttle.tryAcquire("c", "n2"));
+
+        throttle.release("b");
+        Assertions.assertEquals(0, throttle.getQueued());
+        Assertions.assertEquals(2, throttle.getRunning());
+    }
+}
@@ -0,0 +1,224 @@
+package org.jenkinsci.plugins.qftest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.AbortException;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class QFTestAsyncExecutionTest {
+
+    /* receives the outcome of the step */
+    private static class Context extends StepContext {
+        final CompletableFuture<Object> outcome = new CompletableFuture<>();
+
+        @Override
+        public <T> T get(Class<T> key) {
+            return null;
+        }
+
+        @Override
+        public void onSuccess(Object result) {
+            Assertions.assertTrue(outcome.complete(result), "completed twice");
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            Assertions.assertTrue(outcome.completeExceptionally(t), "completed twice");
+        }
+
+        @Override
+        public boolean isReady() {
+            return outcome.isDone();
+        }
+
+        @Override
+        public ListenableFuture<Void> saveState() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BodyInvoker newBodyInvoker() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        Throwable failure() throws Exception {
+            try {
+                outcome.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                return ex.getCause();
+            }
+            throw new AssertionError("no failure");
+        }
+    }
+
+    /* an execution taking the given number of polls */
+    private static class Steps implements QFTestAsyncExecution.Progress {
+        final int polls;
+        final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger killed = new AtomicInteger();
+
+        Steps(int polls) {
+            this.polls = polls;
+        }
+
+        @Override
+        public QFTestInfo step() throws Exception {
+            threads.add(Thread.currentThread().getName());
+            return (threads.size() >= polls ? new QFTestInfo(Result.SUCCESS) : null);
+        }
+
+        @Override
+        public void kill() {
+            killed.incrementAndGet();
+        }
+
+        @Override
+        public String getStatus() {
+            return "RUNNING_SUITES";
+        }
+
+        @Override
+        public TaskListener getListener() {
+            return TaskListener.NULL;
+        }
+    }
+
+    private static class Execution extends QFTestAsyncExecution {
+        final List<Boolean> opened = Collections.synchronizedList(new ArrayList<>());
+        final List<QFTestAsyncExecution.Progress> progress;
+
+        Execution(Context context, boolean durable, QFTestAsyncExecution.Progress... progress) {
+            super(null, context, durable);
+            this.progress = new ArrayList<>(Arrays.asList(progress));
+        }
+
+        @Override
+        Progress open(boolean resume) {
+            opened.add(resume);
+            return progress.remove(0);
+        }
+
+        @Override
+        long pollInterval() {
+            return 10;
+        }
+
+        @Override
+        long reconnectInterval() {
+            return 10;
+        }
+    }
+
+    @Test
+    public void pollsUntilFinishedWithoutBlockingTheTimer() throws Exception {
+        Context context = new Context();
+        Steps steps = new Steps(5);
+        new Execution(context, false, steps).start();
+
+        Assertions.assertTrue(context.outcome.get(10, TimeUnit.SECONDS) instanceof QFTestInfo);
+        Assertions.assertEquals(5, steps.threads.size());
+        for (String thread : steps.threads) {
+            Assertions.assertTrue(thread.startsWith("QFTestAsyncExecution poll"), "polled on " + thread);
+        }
+        Assertions.assertEquals(0, steps.killed.get());
+    }
+
+    @Test
+    public void stopDoesNotWaitForABlockedPoll() throws Exception {
+        CountDownLatch polling = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Steps steps = new Steps(Integer.MAX_VALUE) {
+            @Override
+            public QFTestInfo step() throws Exception {
+                //e.g. launching a process on an agent, which does not respond
+                polling.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                    throw ex;
+                }
+                return null;
+            }
+        };
+        Context context = new Context();
+        Execution execution = new Execution(context, false, steps);
+        execution.start();
+        Assertions.assertTrue(polling.await(10, TimeUnit.SECONDS));
+
+        long before = System.currentTimeMillis();
+        AbortException cause = new AbortException("aborted");
+        execution.stop(cause);
+        Assertions.assertTrue(System.currentTimeMillis() - before < 1000, "stop has been blocked");
+
+        Assertions.assertSame(cause, context.failure());
+        Assertions.assertTrue(interrupted.await(10, TimeUnit.SECONDS), "poll not interrupted");
+        long until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (steps.killed.get() < 2 && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        //by stop() and once more by the interrupted poll, which may have started further processes
+        Assertions.assertEquals(2, steps.killed.get());
+    }
+
+    @Test
+    public void lostConnectionResumesFromCheckpoint() throws Exception {
+        Context context = new Context();
+        Execution[] execution = new Execution[1];
+        Steps lost = new Steps(Integer.MAX_VALUE) {
+            @Override
+            public QFTestInfo step() throws Exception {
+                execution[0].markPrepared();
+                throw new IOException("agent disconnected");
+            }
+        };
+        Steps resumed = new Steps(2);
+        execution[0] = new Execution(context, true, lost, resumed);
+        execution[0].start();
+
+        Assertions.assertTrue(context.outcome.get(10, TimeUnit.SECONDS) instanceof QFTestInfo);
+        Assertions.assertEquals(Arrays.asList(false, true), execution[0].opened);
+        Assertions.assertEquals(1, lost.killed.get());
+    }
+
+    @Test
+    public void onResumeStartsOverInDurableModeOnly() throws Exception {
+        Context context = new Context();
+        Steps steps = new Steps(1);
+        Execution execution = new Execution(context, true, steps);
+        execution.markPrepared();
+        //as after a restart of the controller
+        execution.onResume();
+        Assertions.assertTrue(context.outcome.get(10, TimeUnit.SECONDS) instanceof QFTestInfo);
+        Assertions.assertEquals(Collections.singletonList(true), execution.opened);
+
+        Context notDurable = new Context();
+        new Execution(notDurable, false, new Steps(1)).onResume();
+        Assertions.assertTrue(notDurable.failure() instanceof AbortException);
+    }
+}
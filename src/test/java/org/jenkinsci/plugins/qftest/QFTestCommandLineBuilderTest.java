@@ -84,5 +84,13 @@ class CommandLineTests {
         Assertions.assertEquals(binary + " -run -batch -logdir logTHERE aSuite.qft",
                 builder.toString(), "Default does not work as intended");
     }
-};
 
+    @Test
+    public void callDaemon() throws InterruptedException {
+        QFTestCommandLine call = new DaemonPool.Daemon("", 3544, binary, true, null).newCall();
+        call.addTokenized("-run -daemonport 1 aSuite.qft");
+
+        Assertions.assertEquals(binary + " -calldaemon -batch -daemonhost localhost -daemonport 3544 aSuite.qft",
+                call.toString(), "Daemon call does not work as intended");
+    }
+}
@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.stapler.export.ExportConfig;
+import org.kohsuke.stapler.export.Flavor;
+import org.kohsuke.stapler.export.ModelBuilder;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+class QFTestResultsActionTest {
+
+    @Test
+    public void restApiExportsTheResults() throws Exception {
+        SuiteResult flaky = new SuiteResult("suites/a.qft", "-variable x=1", 0, 1000, 4000, 2048);
+        flaky.setAttempts(2);
+        flaky.setFlaky(true);
+        SuiteResult failed = new SuiteResult("suites/b.qft", "", 3, 1000, 2000, 512);
+        QFTestResultsAction action = new QFTestResultsAction();
+        action.addAll(Arrays.asList(flaky, failed));
+
+        StringWriter json = new StringWriter();
+        new ModelBuilder().get(QFTestResultsAction.class).writeTo(
+                action, Flavor.JSON.createDataWriter(action, json, new ExportConfig())
+        );
+
+        String out = json.toString().replace(" ", "");
+        for (String expected : Arrays.asList(
+                "\"suitename\":\"suites/a.qft\"", "\"customParam\":\"-variablex=1\"", "\"returnValue\":0",
+                "\"attempts\":2", "\"flaky\":true", "\"wallTime\":3000", "\"runlogSize\":2048",
+                "\"suitename\":\"suites/b.qft\"", "\"returnValue\":3", "\"flaky\":false", "\"runlogSize\":512"
+        )) {
+            Assertions.assertTrue(out.contains(expected), expected + " missing in " + out);
+        }
+        Assertions.assertTrue(out.indexOf("suites/a.qft") < out.indexOf("suites/b.qft"), out);
+    }
+}
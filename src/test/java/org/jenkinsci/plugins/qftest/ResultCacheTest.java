@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class ResultCacheTest {
+
+    @TempDir
+    File tmp;
+
+    private static void write(File f, String content) throws IOException {
+        Files.createDirectories(f.getParentFile().toPath());
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keyCoversIncludesArgumentsAndFingerprint() throws IOException {
+        File ws = new File(tmp, "ws");
+        File suite = new File(ws, "tests/a.qft");
+        File lib = new File(ws, "lib/common.qft");
+        write(suite, "<TestSuite><include>../lib/common.qft</include><TestCase name=\"t\"/></TestSuite>");
+        write(lib, "<TestSuite><Procedure name=\"p\"/></TestSuite>");
+        List<String> args = Arrays.asList("qftest", "-batch", "-run");
+
+        String key = ResultCache.key(suite, ws, args, "sut-1");
+        Assertions.assertEquals(key, ResultCache.key(suite, ws, args, "sut-1"));
+        Assertions.assertNotEquals(key, ResultCache.key(suite, ws, args, "sut-2"));
+        Assertions.assertNotEquals(key, ResultCache.key(suite, ws, Arrays.asList("qftest", "-batch"), "sut-1"));
+
+        write(lib, "<TestSuite><Procedure name=\"p2\"/></TestSuite>");
+        Assertions.assertNotEquals(key, ResultCache.key(suite, ws, args, "sut-1"));
+    }
+
+    @Test
+    public void storedResultIsFound() throws IOException {
+        File ws = new File(tmp, "ws");
+        File cache = new File(tmp, "cache");
+        File qrz = new File(tmp, "qrz");
+        write(new File(ws, "a.qft"), "<TestSuite/>");
+        List<String> args = Collections.singletonList("qftest");
+
+        ResultCache.Hit miss = new ResultCache.Lookup(cache.getPath(), "sut", "a.qft", args, qrz.getPath()).invoke(ws, null);
+        Assertions.assertNull(miss.returnValue);
+
+        File runlog = new File(qrz, "a.qrz");
+        write(runlog, "runlog");
+        new ResultCache.Store(miss.key, 1, Collections.singletonList(runlog.getPath()), 1024).invoke(cache, null);
+
+        ResultCache.Hit hit = new ResultCache.Lookup(cache.getPath(), "sut", "a.qft", args, qrz.getPath()).invoke(ws, null);
+        Assertions.assertEquals(miss.key, hit.key);
+        Assertions.assertEquals(Integer.valueOf(1), hit.returnValue);
+        Assertions.assertEquals(Collections.singletonList("a.qrz"), hit.runlogs);
+        Assertions.assertTrue(new File(new File(qrz, hit.dir), "a.qrz").isFile());
+        Assertions.assertEquals(6, hit.runlogSize);
+    }
+
+    @Test
+    public void partiallyEvictedEntryIsAMiss() throws IOException {
+        File ws = new File(tmp, "ws");
+        File cache = new File(tmp, "cache");
+        File qrz = new File(tmp, "qrz");
+        write(new File(ws, "a.qft"), "<TestSuite/>");
+        List<String> args = Collections.singletonList("qftest");
+        String key = new ResultCache.Lookup(cache.getPath(), "sut", "a.qft", args, qrz.getPath()).invoke(ws, null).key;
+
+        File first = new File(qrz, "a.qrz");
+        File second = new File(qrz, "a-1.qrz");
+        write(first, "runlog");
+        write(second, "runlog");
+        new ResultCache.Store(key, 0, Arrays.asList(first.getPath(), second.getPath()), 1024).invoke(cache, null);
+
+        //as while a concurrent eviction deletes the entry
+        Assertions.assertTrue(new File(new File(cache, key), "a-1.qrz").delete());
+        File copy = new File(tmp, "copy");
+        ResultCache.Hit hit = new ResultCache.Lookup(cache.getPath(), "sut", "a.qft", args, copy.getPath()).invoke(ws, null);
+        Assertions.assertNull(hit.returnValue);
+        Assertions.assertArrayEquals(new String[0], copy.list());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File cache = new File(tmp, "cache");
+        long time = System.currentTimeMillis() - 10000;
+        for (String key : Arrays.asList("old", "mid", "new")) {
+            File entry = new File(cache, key);
+            write(new File(entry, "x.qrz"), "0123456789");
+            Assertions.assertTrue(entry.setLastModified(time));
+            time += 1000;
+        }
+
+        Assertions.assertEquals(1, ResultCache.evict(cache, 25));
+        Assertions.assertFalse(new File(cache, "old").exists());
+        Assertions.assertTrue(new File(cache, "mid").exists());
+        Assertions.assertTrue(new File(cache, "new").exists());
+    }
+}
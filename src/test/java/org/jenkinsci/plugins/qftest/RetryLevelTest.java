@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RetryLevelTest {
+
+    @Test
+    public void levels() {
+        Assertions.assertFalse(RetryLevel.NEVER.isTriggeredBy(4));
+        Assertions.assertFalse(RetryLevel.ERROR.isTriggeredBy(1));
+        Assertions.assertTrue(RetryLevel.ERROR.isTriggeredBy(2));
+        Assertions.assertTrue(RetryLevel.ERROR.isTriggeredBy(3));
+        Assertions.assertTrue(RetryLevel.WARNING.isTriggeredBy(1));
+        Assertions.assertFalse(RetryLevel.WARNING.isTriggeredBy(0));
+    }
+
+    @Test
+    public void fromString() {
+        Assertions.assertEquals(RetryLevel.ERROR, RetryLevel.fromString("ERROR"));
+        Assertions.assertEquals(RetryLevel.EXCEPTION, RetryLevel.fromString("exception"));
+        Assertions.assertEquals(RetryLevel.NEVER, RetryLevel.fromString("unknown"));
+        Assertions.assertEquals(RetryLevel.NEVER, RetryLevel.fromString(null));
+    }
+
+    @Test
+    public void configurationsStoredWithFailFastNamesStillApply() {
+        for (FailFast f : FailFast.values()) {
+            Assertions.assertEquals(f.name(), RetryLevel.fromString(f.name()).name());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+class RunLogReportTest {
+
+    @TempDir
+    File dir;
+
+    private static final String RUNLOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<RunLog warnings=\"1\" errors=\"1\" exceptions=\"1\" duration=\"4500\">"
+            + "<TestSetStep name=\"Set\">"
+            + "<TestCaseStep name=\"ok\" duration=\"1000\"/>"
+            + "<TestCaseStep name=\"failed\" errors=\"1\" duration=\"1500\">"
+            + "<CheckError message=\"expected &lt;a&gt;\"/>"
+            + "<TestCaseStep name=\"nested\"/>"
+            + "</TestCaseStep>"
+            + "</TestSetStep>"
+            + "<TestCaseStep name=\"crashed\" exceptions=\"1\" duration=\"2000\"/>"
+            + "</RunLog>";
+
+    private static byte[] gzip(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void convert() throws IOException {
+        File junit = new File(dir, "TEST-suite.xml");
+        RunLogReport report = RunLogReport.convert(
+                "worker0/suite.qrz", new ByteArrayInputStream(gzip(RUNLOG)), junit
+        );
+
+        Assertions.assertEquals(3, report.getTests());
+        Assertions.assertEquals(1, report.getFailures());
+        Assertions.assertEquals(1, report.getErrors());
+        Assertions.assertEquals(4500, report.getDurationMs());
+        Assertions.assertEquals(3, report.getSummary().getReturnValue());
+
+        String xml = new String(Files.readAllBytes(junit.toPath()), StandardCharsets.UTF_8);
+        Assertions.assertTrue(xml.contains("<testsuite name=\"worker0.suite\" tests=\"3\" failures=\"1\" errors=\"1\""), xml);
+        Assertions.assertTrue(xml.contains("classname=\"worker0.suite.Set\" name=\"ok\" time=\"1.000\""), xml);
+        Assertions.assertTrue(xml.contains("<failure message=\"expected &lt;a&gt;\""), xml);
+        Assertions.assertTrue(xml.contains("classname=\"worker0.suite\" name=\"crashed\""), xml);
+        Assertions.assertFalse(xml.contains("nested"), xml);
+
+        Assertions.assertArrayEquals(new String[]{"TEST-suite.xml"}, dir.list());
+    }
+
+    @Test
+    public void mergeReusesFragments() throws IOException, InterruptedException {
+        File qrz = new File(dir, "qrz/worker0");
+        Assertions.assertTrue(qrz.mkdirs());
+        File runlog = new File(qrz, "suite.qrz");
+        Files.write(runlog.toPath(), gzip(RUNLOG));
+        Assertions.assertTrue(runlog.setLastModified(System.currentTimeMillis() - 10000));
+        List<RunLogReport> fragment = new RunLogReport.Fragment("qrz", "junit", "worker0/").invoke(dir, null);
+        Assertions.assertEquals(1, fragment.size());
+        File junit = new File(dir, "junit/worker0/TEST-suite.xml");
+        long converted = junit.lastModified();
+
+        //an orphaned fragment, e.g. of a runlog discarded on resume
+        File orphan = new File(dir, "junit/worker0/TEST-gone.xml");
+        Files.write(orphan.toPath(), new byte[0]);
+
+        List<RunLogReport> merged = new RunLogReport.Generate("qrz", "junit").invoke(dir, null);
+        Assertions.assertEquals(1, merged.size());
+        Assertions.assertEquals(3, merged.get(0).getTests());
+        Assertions.assertEquals(1, merged.get(0).getFailures());
+        Assertions.assertEquals(1, merged.get(0).getErrors());
+        Assertions.assertEquals(4500, merged.get(0).getDurationMs());
+        Assertions.assertEquals(converted, junit.lastModified());
+        Assertions.assertFalse(orphan.exists());
+        Assertions.assertTrue(new File(dir, RunLogReport.SUMMARY_FILE).isFile());
+    }
+}
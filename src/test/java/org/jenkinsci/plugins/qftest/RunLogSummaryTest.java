@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class RunLogSummaryTest {
+
+    private static Map<String, RunLogSummary> runlogs(String... names) {
+        Map<String, RunLogSummary> ret = new LinkedHashMap<>();
+        for (String name : names) {
+            ret.put(name, new RunLogSummary(name, 0, 0, 0));
+        }
+        return ret;
+    }
+
+    private static String forSuite(Map<String, RunLogSummary> runlogs, String suite) {
+        RunLogSummary ret = RunLogSummary.forSuite(runlogs, suite);
+        return (ret != null ? ret.getName() : null);
+    }
+
+    @Test
+    public void runlogsOfSuitesWithACommonPrefixAreKeptApart() {
+        Map<String, RunLogSummary> runlogs = runlogs("a.qrz", "ab.qrz", "a-b.qrz");
+        Assertions.assertEquals("a.qrz", forSuite(runlogs, "dir/a.qft"));
+        Assertions.assertEquals("ab.qrz", forSuite(runlogs, "dir/ab.qft"));
+        Assertions.assertEquals("a-b.qrz", forSuite(runlogs, "a-b.qft"));
+    }
+
+    @Test
+    public void timestampsAndCountersAreAccepted() {
+        Assertions.assertEquals("a-20200110-123456.qrz",
+                forSuite(runlogs("a-20200110-123456.qrz", "ab-20200110-123456.qrz"), "a.qft"));
+        Assertions.assertEquals("a-2.qzp", forSuite(runlogs("a-2.qzp"), "a.qft"));
+        //several runlogs of one suite cannot be told apart
+        Assertions.assertNull(forSuite(runlogs("a-1.qrz", "a-2.qrz"), "a.qft"));
+        Assertions.assertNull(forSuite(runlogs("b.qrz"), "a.qft"));
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+class SuiteBatchesTest {
+
+    private static List<String> batches(int batchSize, Suites... suites) {
+        List<String> ret = new ArrayList<>();
+        new SuiteBatches(Arrays.asList(suites).iterator(), batchSize).forEachRemaining(
+                batch -> ret.add(batch.stream().map(Suites::getSuitename).collect(Collectors.joining(",")))
+        );
+        return ret;
+    }
+
+    @Test
+    public void singleSuites() {
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"),
+                batches(1, new Suites("a", ""), new Suites("b", ""), new Suites("c", "")));
+    }
+
+    @Test
+    public void chunksOfEqualParams() {
+        Assertions.assertEquals(Arrays.asList("a,b", "c"),
+                batches(2, new Suites("a", ""), new Suites("b", ""), new Suites("c", "")));
+    }
+
+    @Test
+    public void differentParamsAreNotMixed() {
+        Assertions.assertEquals(Arrays.asList("a,c", "b,e", "d"),
+                batches(2,
+                        new Suites("a", "-variable x=1"),
+                        new Suites("b", ""),
+                        new Suites("c", "-variable x=1"),
+                        new Suites("d", "-variable x=1"),
+                        new Suites("e", "")
+                ));
+    }
+
+    @Test
+    public void suitesfilesAreNeverBatched() {
+        Assertions.assertEquals(Arrays.asList("f1", "f2", "a,b"),
+                batches(3,
+                        new Suites("a", ""),
+                        new Suites("", "-suitesfile f1").considerSuitesfile(),
+                        new Suites("", "-suitesfile f2").considerSuitesfile(),
+                        new Suites("b", "")
+                ));
+    }
+}
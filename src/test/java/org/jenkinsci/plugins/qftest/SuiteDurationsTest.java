@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+class SuiteDurationsTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void movingAverageAndPruning() throws IOException {
+        File file = new File(dir, "durations.tsv");
+        SuiteDurations store = SuiteDurations.load(file);
+        store.update(Arrays.asList(
+                new SuiteResult("/ws/a.qft", "", 0, 0, 1000, 0),
+                //two suites sharing a single call
+                new SuiteResult("/ws/b.qft", "-variable x=1", 0, 5000, 9000, 0),
+                new SuiteResult("/ws/c.qft", "-variable x=1", 0, 5000, 9000, 0)
+        ), "/ws", 1);
+        store.save();
+
+        store = SuiteDurations.load(file);
+        Assertions.assertEquals(2000, (long) store.getEstimates().get("b.qft\t-variable x=1"));
+        store.update(Arrays.asList(new SuiteResult("/ws/a.qft", "", 0, 0, 3000, 0)), "/ws", SuiteDurations.MAX_AGE + 1);
+        store.save();
+
+        Map<String, Long> estimates = SuiteDurations.load(file).getEstimates();
+        Assertions.assertEquals(1, estimates.size());
+        Assertions.assertEquals(2000, (long) estimates.get("a.qft\t"));
+    }
+
+    @Test
+    public void durationsApplyToEveryWorkspace() throws IOException {
+        File file = new File(dir, "durations.tsv");
+        SuiteDurations store = SuiteDurations.load(file);
+        store.update(Arrays.asList(new SuiteResult("/agent1/ws/job/suites/a.qft", "", 0, 0, 1000, 0)),
+                "/agent1/ws/job", 1);
+        //a parallel branch on another agent
+        store.update(Arrays.asList(new SuiteResult("C:\\agent2\\ws\\job@2\\suites\\a.qft", "", 0, 0, 3000, 0)),
+                "C:\\agent2\\ws\\job@2", 2);
+        store.save();
+
+        Map<String, Long> estimates = SuiteDurations.load(file).getEstimates();
+        Assertions.assertEquals(Collections.singletonMap("suites/a.qft\t", 2000L), estimates);
+        Assertions.assertEquals("suites/a.qft\t",
+                SuiteDurations.key(new Suites("/agent3/ws/job/suites/a.qft", ""), "/agent3/ws/job/"));
+    }
+
+    @Test
+    public void longestFirst() {
+        Map<String, Long> estimates = new HashMap<>();
+        estimates.put("a\t", 10L);
+        estimates.put("b\t", 30L);
+        estimates.put("c\t", 10L);
+
+        List<String> order = SuiteDurations.longestFirst(Arrays.asList(
+                new Suites("/ws/a", ""), new Suites("/ws/b", ""), new Suites("/ws/c", ""), new Suites("/ws/new", "")
+        ).iterator(), estimates, "/ws").stream().map(Suites::getSuitename).collect(Collectors.toList());
+
+        Assertions.assertEquals(Arrays.asList("/ws/new", "/ws/b", "/ws/a", "/ws/c"), order);
+    }
+}
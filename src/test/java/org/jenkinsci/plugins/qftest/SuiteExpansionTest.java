@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+class SuiteExpansionTest {
+
+    @TempDir
+    File ws;
+
+    private void touch(String... paths) throws IOException {
+        for (String path : paths) {
+            File f = new File(ws, path);
+            f.getParentFile().mkdirs();
+            Assertions.assertTrue(f.createNewFile());
+        }
+    }
+
+    private List<String> names(Iterator<Suites> suites) {
+        List<String> ret = new ArrayList<>();
+        suites.forEachRemaining(sf -> ret.add(new File(sf.getSuitename()).getName()));
+        return ret;
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < until, "timed out waiting for " + what);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void suitesKeepTheOrderOfTheirEntries() throws Exception {
+        touch("tests/a.qft", "tests/b.qft", "tests/c.qft", "more/d.qft", "more/e.qft");
+
+        SuiteExpansion.Source source = SuiteExpansion.start(ws, Arrays.asList(
+                new Suites("**/c.qft", ""),
+                new Suites("more", ""),
+                new Suites("**/a.qft,**/b.qft", "")
+        ), null, TaskListener.NULL);
+
+        Assertions.assertEquals(Arrays.asList("c.qft", "d.qft", "e.qft", "a.qft", "b.qft"),
+                names(SuiteExpansion.iterator(source, TaskListener.NULL)));
+    }
+
+    @Test
+    public void allEntriesShareASingleWalk() throws Exception {
+        touch("tests/a.qft", "tests/b.qft", "more/d.qft", "more/sub/e.qft", "other/x.txt");
+        Map<String, Integer> listed = new HashMap<>();
+        SuiteExpansion.Producer source = new SuiteExpansion.Producer(ws, Arrays.asList(
+                new Suites("tests", ""),
+                new Suites("more", ""),
+                new Suites("**/a.qft", "")
+        ), null, TaskListener.NULL) {
+            @Override
+            String[] list(File dir) throws IOException {
+                listed.merge(dir.getPath(), 1, Integer::sum);
+                return super.list(dir);
+            }
+        };
+        source.run();
+
+        //more is walked first, but its suites are held back until those of tests have been delivered
+        Assertions.assertEquals(Arrays.asList("a.qft", "b.qft", "d.qft", "e.qft", "a.qft"),
+                names(SuiteExpansion.iterator(source, TaskListener.NULL)));
+        Assertions.assertEquals(Integer.valueOf(1), listed.get(ws.getPath()));
+        for (Map.Entry<String, Integer> e : listed.entrySet()) {
+            Assertions.assertEquals(Integer.valueOf(1), e.getValue(), e.getKey() + " walked more than once");
+        }
+    }
+
+    @Test
+    public void emptyWalkEndsThePoll() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        SuiteExpansion.Source source = SuiteExpansion.start(ws,
+                Collections.singletonList(new Suites("**/*.qft", "")), null, new StreamTaskListener(log));
+
+        Assertions.assertTrue(source.poll(SuiteExpansion.POLL_SIZE).isEmpty());
+        Assertions.assertTrue(log.toString().contains("No suites could be found by (globbing) expression `**/*.qft'"));
+    }
+
+    @Test
+    public void walkerBlocksOnAFullQueue() throws Exception {
+        for (int i = 0; i < SuiteExpansion.QUEUE_CAPACITY + 50; i++) {
+            touch(String.format("s%04d.qft", i));
+        }
+        SuiteExpansion.Producer source = (SuiteExpansion.Producer) SuiteExpansion.start(ws,
+                Collections.singletonList(new Suites("*.qft", "")), null, TaskListener.NULL);
+
+        await("full queue", () -> source.queued() == SuiteExpansion.QUEUE_CAPACITY);
+        Thread.sleep(200);
+        Assertions.assertFalse(source.isDone());
+        Assertions.assertEquals(SuiteExpansion.QUEUE_CAPACITY, source.queued());
+
+        List<Suites> chunk = source.poll(10);
+        Assertions.assertEquals(10, chunk.size());
+        Assertions.assertEquals("s0000.qft", new File(chunk.get(0).getSuitename()).getName());
+        Assertions.assertEquals(SuiteExpansion.QUEUE_CAPACITY + 40,
+                names(SuiteExpansion.iterator(source, TaskListener.NULL)).size());
+    }
+
+    @Test
+    public void closeStopsTheWalker() throws Exception {
+        for (int i = 0; i < SuiteExpansion.QUEUE_CAPACITY + 50; i++) {
+            touch(String.format("s%04d.qft", i));
+        }
+        SuiteExpansion.Producer source = (SuiteExpansion.Producer) SuiteExpansion.start(ws,
+                Collections.singletonList(new Suites("*.qft", "")), null, TaskListener.NULL);
+        await("full queue", () -> source.queued() == SuiteExpansion.QUEUE_CAPACITY);
+
+        source.close();
+        await("walker to stop", source::isDone);
+        Assertions.assertTrue(source.poll(SuiteExpansion.POLL_SIZE).isEmpty());
+    }
+
+    @Test
+    public void walkerFailureIsPassedToTheConsumer() throws Exception {
+        touch("tests/a.qft", "tests/b.qft");
+        SuiteExpansion.Producer source = new SuiteExpansion.Producer(ws,
+                Collections.singletonList(new Suites("**/*.qft", "")), null, TaskListener.NULL) {
+            @Override
+            String[] list(File dir) throws IOException {
+                if (dir.getName().equals("tests")) {
+                    throw new IOException("Input/output error");
+                }
+                return super.list(dir);
+            }
+        };
+        source.run();
+
+        IOException ex = Assertions.assertThrows(IOException.class, () -> source.poll(SuiteExpansion.POLL_SIZE));
+        Assertions.assertEquals("Input/output error", ex.getMessage());
+        Assertions.assertFalse(SuiteExpansion.iterator(source, TaskListener.NULL).hasNext());
+    }
+
+    @Test
+    public void interruptedConsumerClosesTheSource() throws Exception {
+        //never started, so the poll blocks until interrupted
+        SuiteExpansion.Producer source = new SuiteExpansion.Producer(ws,
+                Collections.singletonList(new Suites("*.qft", "")), null, TaskListener.NULL);
+        AtomicReference<Boolean> hasNext = new AtomicReference<>();
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+
+        Thread consumer = new Thread(() -> {
+            hasNext.set(SuiteExpansion.iterator(source, TaskListener.NULL).hasNext());
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        consumer.start();
+        Thread.sleep(200);
+        Assertions.assertTrue(consumer.isAlive(), "poll has not blocked");
+        consumer.interrupt();
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+
+        Assertions.assertEquals(Boolean.FALSE, hasNext.get());
+        Assertions.assertEquals(Boolean.TRUE, interrupted.get());
+        //the walker would stop right away
+        source.run();
+        Assertions.assertTrue(source.isDone());
+        Assertions.assertEquals(0, source.queued());
+    }
+}
@@ -0,0 +1,407 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+class SuiteRunnerTest {
+
+    @TempDir
+    File logdir;
+
+    private SuiteRunner runner(int retryCount) throws Exception {
+        QFTestStep params = new QFTestStep(Collections.emptyList());
+        params.setRetryCount(retryCount);
+        params.setRetryLevel(RetryLevel.ERROR.name());
+        return runner(params);
+    }
+
+    private SuiteRunner runner(QFTestStep params) throws Exception {
+        return new SuiteRunner(
+                new QFTestExecutor.Imp.Setup(new FilePath(logdir), "qftest", true), params, new EnvVars()
+        );
+    }
+
+    /* stands in for QF-Test: writes a runlog per call and returns the given values of the successive attempts */
+    private static class FakeQFTest extends Launcher {
+        /* returned by a call, which has been killed */
+        static final int KILLED = 143;
+
+        private final Map<String, List<Integer>> returnValues = new HashMap<>();
+        final Map<String, Integer> calls = new ConcurrentHashMap<>();
+        final Set<String> killed = ConcurrentHashMap.newKeySet();
+        /* runs stopped on a daemon by -calldaemon -stoprun */
+        final AtomicInteger stoppedRuns = new AtomicInteger();
+
+        FakeQFTest() {
+            super(TaskListener.NULL, null);
+        }
+
+        FakeQFTest returns(String suite, Integer... values) {
+            returnValues.put(suite, Arrays.asList(values));
+            return this;
+        }
+
+        /* the calls of the given suite keep running until they get killed */
+        FakeQFTest hangs(String suite) {
+            returnValues.put(suite, null);
+            return this;
+        }
+
+        @Override
+        public Proc launch(ProcStarter starter) throws IOException {
+            List<String> cmds = starter.cmds();
+            if (cmds.contains("-stoprun")) {
+                stoppedRuns.incrementAndGet();
+                return proc("-stoprun", new CountDownLatch(0), () -> 0);
+            }
+            File runlogdir = new File(cmds.get(cmds.indexOf("-runlogdir") + 1));
+            String suite = cmds.get(cmds.size() - 1);
+            int call = calls.merge(suite, 1, Integer::sum);
+            List<Integer> values = returnValues.get(suite);
+            if (!new File(runlogdir, new File(suite).getName().replace(".qft", ".qrz")).createNewFile()) {
+                throw new IOException("runlog written twice");
+            }
+            return proc(suite, new CountDownLatch(values == null ? 1 : 0),
+                    () -> (values == null ? KILLED : values.get(Math.min(call, values.size()) - 1)));
+        }
+
+        private Proc proc(String suite, CountDownLatch running, IntSupplier ret) {
+            return new Proc() {
+                @Override
+                public boolean isAlive() {
+                    return running.getCount() > 0;
+                }
+
+                @Override
+                public void kill() {
+                    if (running.getCount() > 0) {
+                        killed.add(suite);
+                    }
+                    running.countDown();
+                }
+
+                @Override
+                public int join() throws InterruptedException {
+                    running.await();
+                    return ret.getAsInt();
+                }
+
+                @Override
+                public InputStream getStdout() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public InputStream getStderr() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                @Override
+                public OutputStream getStdin() {
+                    return new ByteArrayOutputStream();
+                }
+            };
+        }
+
+        @Override
+        public Channel launchChannel(String[] cmd, OutputStream out, FilePath workDir, Map<String, String> envVars) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void kill(Map<String, String> modelEnvVars) {
+        }
+    }
+
+    private Character run(SuiteRunner runner, Launcher launcher, String... suites) throws Exception {
+        List<Suites> all = new ArrayList<>();
+        for (String suite : suites) {
+            all.add(new Suites(suite, ""));
+        }
+        return runner.run(all.iterator(), new FilePath(logdir), launcher, TaskListener.NULL);
+    }
+
+    private static Map<String, SuiteResult> results(SuiteRunner runner) {
+        Map<String, SuiteResult> ret = new HashMap<>();
+        for (SuiteResult r : runner.getResults()) {
+            Assertions.assertNull(ret.put(r.getSuitename(), r), "result of " + r.getSuitename() + " not superseded");
+        }
+        return ret;
+    }
+
+    private static Checkpoint.Entry entry(String suite, int returnValue, int attempts, String runlog) {
+        SuiteResult result = new SuiteResult(suite, "", returnValue, 0, 0, 0);
+        result.setAttempts(attempts);
+        return new Checkpoint.Entry(result, Collections.singletonList(runlog));
+    }
+
+    private static List<String> names(Iterator<List<Suites>> batches) {
+        List<String> ret = new ArrayList<>();
+        if (batches != null) {
+            batches.forEachRemaining(batch -> batch.forEach(sf -> ret.add(sf.getSuitename())));
+        }
+        return ret;
+    }
+
+    @Test
+    public void launchCookieIsPassedToTheCalls() throws Exception {
+        SuiteRunner runner = runner(0);
+        EnvVars env = new EnvVars();
+        env.put("PATH", "/usr/bin");
+
+        EnvVars tagged = runner.withCookie(env);
+        Assertions.assertEquals(runner.getLaunchCookie(), tagged.get(SuiteRunner.COOKIE_VAR));
+        Assertions.assertEquals("/usr/bin", tagged.get("PATH"));
+        Assertions.assertNull(env.get(SuiteRunner.COOKIE_VAR));
+        Assertions.assertNotEquals(runner.getLaunchCookie(), runner(0).getLaunchCookie());
+    }
+
+    @Test
+    public void resumeKeepsRetriesGoing() throws Exception {
+        SuiteRunner runner = runner(2);
+        runner.resume(Arrays.asList(
+                entry("a.qft", 2, 1, "a.qrz"),
+                entry("b.qft", 0, 1, "b.qrz"),
+                entry("a.qft", 2, 2, "retry1/a.qrz")
+        ));
+
+        //the completed suites are skipped, the suite interrupted by the restart is run
+        Assertions.assertEquals(Collections.singletonList("c.qft"), names(runner.batches(
+                Arrays.asList(new Suites("a.qft", ""), new Suites("b.qft", ""), new Suites("c.qft", "")).iterator(),
+                new FilePath(logdir), TaskListener.NULL
+        )));
+        //a has taken two of its three attempts before the restart
+        Assertions.assertEquals(Collections.singletonList("a.qft"), names(runner.retries(TaskListener.NULL)));
+        Assertions.assertEquals(Character.valueOf((char) 2), runner.settle(null));
+    }
+
+    @Test
+    public void resumeDoesNotRetryExhaustedSuites() throws Exception {
+        SuiteRunner runner = runner(1);
+        runner.resume(Arrays.asList(
+                entry("a.qft", 2, 1, "a.qrz"),
+                entry("a.qft", 3, 2, "retry1/a.qrz")
+        ));
+
+        Assertions.assertEquals(Collections.emptyList(), names(runner.batches(
+                Collections.singletonList(new Suites("a.qft", "")).iterator(), new FilePath(logdir), TaskListener.NULL
+        )));
+        Assertions.assertNull(runner.retries(TaskListener.NULL));
+        Assertions.assertEquals(Character.valueOf((char) 3), runner.settle(null));
+    }
+
+    @Test
+    public void suitePassingOnRetryIsFlaky() throws Exception {
+        FakeQFTest qftest = new FakeQFTest().returns("a.qft", 2, 0).returns("b.qft", 0);
+        SuiteRunner runner = runner(2);
+        Assertions.assertEquals(Character.valueOf((char) 0), run(runner, qftest, "a.qft", "b.qft"));
+        Map<String, SuiteResult> results = results(runner);
+
+        Assertions.assertEquals(0, results.get("a.qft").getReturnValue());
+        Assertions.assertEquals(2, results.get("a.qft").getAttempts());
+        Assertions.assertTrue(results.get("a.qft").isFlaky());
+        Assertions.assertEquals(1, results.get("b.qft").getAttempts());
+        Assertions.assertFalse(results.get("b.qft").isFlaky());
+        Assertions.assertEquals(1, (int) qftest.calls.get("b.qft"));
+
+        //the reports only show the passed attempt
+        File qrz = new File(logdir, "qrz");
+        Assertions.assertFalse(new File(qrz, "a.qrz").exists());
+        Assertions.assertTrue(new File(new File(logdir, SuiteRunner.FLAKY_DIR), "a.qrz").exists());
+        Assertions.assertTrue(new File(new File(qrz, "retry1"), "a.qrz").exists());
+    }
+
+    @Test
+    public void suiteFailingEveryAttempt() throws Exception {
+        FakeQFTest qftest = new FakeQFTest().returns("a.qft", 3, 2, 3).returns("b.qft", 0);
+        SuiteRunner runner = runner(2);
+        //only the last attempt counts
+        Assertions.assertEquals(Character.valueOf((char) 3), run(runner, qftest, "a.qft", "b.qft"));
+        Map<String, SuiteResult> results = results(runner);
+
+        Assertions.assertEquals(3, (int) qftest.calls.get("a.qft"));
+        Assertions.assertEquals(3, results.get("a.qft").getAttempts());
+        Assertions.assertEquals(3, results.get("a.qft").getReturnValue());
+        Assertions.assertFalse(results.get("a.qft").isFlaky());
+        Assertions.assertTrue(new File(new File(logdir, "qrz"), "a.qrz").exists());
+        Assertions.assertFalse(new File(logdir, SuiteRunner.FLAKY_DIR).exists());
+    }
+
+    @Test
+    public void suiteRunningOutOfRetries() throws Exception {
+        //would pass on the third attempt, but there is only one retry
+        FakeQFTest qftest = new FakeQFTest().returns("a.qft", 2, 2, 0);
+        SuiteRunner runner = runner(1);
+        Assertions.assertEquals(Character.valueOf((char) 2), run(runner, qftest, "a.qft"));
+        Assertions.assertEquals(2, (int) qftest.calls.get("a.qft"));
+        Assertions.assertEquals(2, results(runner).get("a.qft").getAttempts());
+
+        //warnings are below the retry level
+        qftest = new FakeQFTest().returns("w.qft", 1, 0);
+        Assertions.assertEquals(Character.valueOf((char) 1), run(runner(1), qftest, "w.qft"));
+        Assertions.assertEquals(1, (int) qftest.calls.get("w.qft"));
+    }
+
+    @Test
+    public void agentSideLoopReportsItsOutcome() throws Exception {
+        File ws = new File(logdir, "ws");
+        Assertions.assertTrue(ws.mkdirs());
+        Assertions.assertTrue(new File(ws, "a.qft").createNewFile());
+        Assertions.assertTrue(new File(ws, "b.qft").createNewFile());
+        FakeQFTest qftest = new FakeQFTest()
+                .returns(new File(ws, "a.qft").getPath(), 0)
+                .returns(new File(ws, "b.qft").getPath(), 2);
+
+        SuiteRunner.Outcome outcome = new FilePath(ws).act(new SuiteRunner.AgentSideLoop(
+                runner(0), Collections.singletonList(new Suites("*.qft", "")), null, TaskListener.NULL
+        ) {
+            @Override
+            Launcher launcher(TaskListener listener) {
+                return qftest;
+            }
+        });
+
+        Assertions.assertEquals(Character.valueOf((char) 2), outcome.returnValue);
+        Assertions.assertEquals(2, outcome.results.size());
+        Assertions.assertEquals(new File(ws, "a.qft").getPath(), outcome.results.get(0).getSuitename());
+        Assertions.assertEquals(0, outcome.results.get(0).getReturnValue());
+        Assertions.assertEquals(2, outcome.results.get(1).getReturnValue());
+        Assertions.assertTrue(new File(logdir, "qrz/b.qrz").isFile());
+    }
+
+    @Test
+    public void agentSideLoopRefusesWhatItCannotHonor() throws Exception {
+        QFTestStep params = new QFTestStep(Collections.emptyList());
+        params.setAgentSideExecution(true);
+        Launcher plain = new FakeQFTest();
+        SuiteRunner.AgentSideLoop.check(plain, params);
+
+        //e.g. docker.inside
+        Assertions.assertThrows(AbortException.class,
+                () -> SuiteRunner.AgentSideLoop.check(new Launcher.DecoratedLauncher(plain), params));
+
+        params.setAgentLabel("qftest");
+        Assertions.assertThrows(AbortException.class, () -> SuiteRunner.AgentSideLoop.check(plain, params));
+
+        params.setAgentSideExecution(false);
+        SuiteRunner.AgentSideLoop.check(new Launcher.DecoratedLauncher(plain), params);
+    }
+
+    @Test
+    public void failFastKillsTheOtherCalls() throws Exception {
+        FakeQFTest qftest = new FakeQFTest()
+                .returns("ok.qft", 0)
+                .hangs("hang.qft")
+                .returns("fail.qft", 3)
+                .returns("pending.qft", 0);
+        QFTestStep params = new QFTestStep(Collections.emptyList());
+        params.setParallelism(2);
+        params.setFailFast(FailFast.EXCEPTION.name());
+        SuiteRunner runner = runner(params);
+
+        //one worker is stuck with hang.qft, so the other one runs fail.qft
+        Assertions.assertEquals(Character.valueOf((char) 3),
+                run(runner, qftest, "ok.qft", "hang.qft", "fail.qft", "pending.qft"));
+
+        Assertions.assertEquals(Collections.singleton("hang.qft"), qftest.killed);
+        Assertions.assertNull(qftest.calls.get("pending.qft"));
+        Map<String, SuiteResult> results = results(runner);
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertEquals(0, results.get("ok.qft").getReturnValue());
+        Assertions.assertEquals(3, results.get("fail.qft").getReturnValue());
+        //the incomplete runlog of the cancelled call is dropped
+        Assertions.assertTrue(new File(logdir, "qrz/worker0/ok.qrz").exists()
+                || new File(logdir, "qrz/worker1/ok.qrz").exists());
+        Assertions.assertFalse(new File(logdir, "qrz/worker0/hang.qrz").exists());
+        Assertions.assertFalse(new File(logdir, "qrz/worker1/hang.qrz").exists());
+    }
+
+    /* a runner whose minutes only take 50 ms */
+    private SuiteRunner fastWatchdog(QFTestStep params) throws Exception {
+        return new SuiteRunner(
+                new QFTestExecutor.Imp.Setup(new FilePath(logdir), "qftest", true), params, new EnvVars()
+        ) {
+            @Override
+            long minutesToMillis(int minutes) {
+                return minutes * 50L;
+            }
+
+            @Override
+            long watchdogInterval() {
+                return 10;
+            }
+        };
+    }
+
+    @Test
+    public void callExceedingItsTimeLimitIsKilled() throws Exception {
+        FakeQFTest qftest = new FakeQFTest().hangs("hang.qft").returns("ok.qft", 0);
+        QFTestStep params = new QFTestStep(Collections.emptyList());
+        params.setSuiteTimeout(2);
+        SuiteRunner runner = fastWatchdog(params);
+
+        Assertions.assertEquals(Character.valueOf((char) 3), run(runner, qftest, "hang.qft", "ok.qft"));
+        Assertions.assertEquals(Collections.singleton("hang.qft"), qftest.killed);
+        Map<String, SuiteResult> results = results(runner);
+        //recorded as test exception, not with the return value of the killed process
+        Assertions.assertEquals(3, results.get("hang.qft").getReturnValue());
+        Assertions.assertEquals(0, results.get("ok.qft").getReturnValue());
+    }
+
+    @Test
+    public void callWithoutOutputIsKilled() throws Exception {
+        FakeQFTest qftest = new FakeQFTest().hangs("silent.qft");
+        QFTestStep params = new QFTestStep(Collections.emptyList());
+        params.setOutputTimeout(1);
+        SuiteRunner runner = fastWatchdog(params);
+
+        Assertions.assertEquals(Character.valueOf((char) 3), run(runner, qftest, "silent.qft"));
+        Assertions.assertEquals(Collections.singleton("silent.qft"), qftest.killed);
+        Assertions.assertEquals(3, results(runner).get("silent.qft").getReturnValue());
+    }
+
+    @Test
+    public void killedCallStopsTheRunOnTheDaemon() throws Exception {
+        FakeQFTest qftest = new FakeQFTest().hangs("hang.qft").returns("ok.qft", 0);
+        try (ServerSocket daemon = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            QFTestStep params = new QFTestStep(Collections.emptyList());
+            params.setDaemonEndpoints(InetAddress.getLoopbackAddress().getHostAddress() + ":" + daemon.getLocalPort());
+            params.setSuiteTimeout(2);
+            SuiteRunner runner = fastWatchdog(params);
+
+            Assertions.assertEquals(Character.valueOf((char) 3), run(runner, qftest, "hang.qft", "ok.qft"));
+        }
+        //killing the -calldaemon client alone would leave the daemon busy with hang.qft
+        Assertions.assertEquals(1, qftest.stoppedRuns.get());
+        Assertions.assertEquals(1, (int) qftest.calls.get("ok.qft"));
+    }
+}
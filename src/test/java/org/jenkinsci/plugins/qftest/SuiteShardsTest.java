@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+class SuiteShardsTest {
+
+    private static List<String> names(List<Suites> suites) {
+        return suites.stream().map(Suites::getSuitename).collect(Collectors.toList());
+    }
+
+    @Test
+    public void balancedByDuration() {
+        Map<String, Long> estimates = new HashMap<>();
+        estimates.put("long\t", 90L);
+        estimates.put("a\t", 30L);
+        estimates.put("b\t", 30L);
+        estimates.put("c\t", 30L);
+
+        List<Suites> suites = Arrays.asList(
+                new Suites("a", ""), new Suites("b", ""), new Suites("c", ""), new Suites("long", "")
+        );
+        SuiteShards shards = new SuiteShards(suites, estimates, "/ws", 2);
+
+        Assertions.assertEquals(Collections.singletonList("long"), names(shards.get(0)));
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), names(shards.get(1)));
+        Assertions.assertEquals(90, shards.getLoad(0));
+        Assertions.assertEquals(90, shards.getLoad(1));
+    }
+
+    @Test
+    public void independentOfExpansionOrder() {
+        List<Suites> suites = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            suites.add(new Suites("s" + i, ""));
+        }
+        List<Suites> reversed = new ArrayList<>(suites);
+        Collections.reverse(reversed);
+
+        List<String> covered = new ArrayList<>();
+        for (int shard = 0; shard < 3; shard++) {
+            List<String> a = names(new SuiteShards(suites, Collections.emptyMap(), "/ws", 3).get(shard));
+            List<String> b = names(new SuiteShards(reversed, Collections.emptyMap(), "/ws", 3).get(shard));
+            Collections.sort(a);
+            Collections.sort(b);
+            Assertions.assertEquals(a, b);
+            covered.addAll(a);
+        }
+        Assertions.assertEquals(20, covered.size());
+        Assertions.assertEquals(20, covered.stream().distinct().count());
+    }
+
+    @Test
+    public void independentOfWorkspace() {
+        Map<String, Long> estimates = new HashMap<>();
+        for (int i = 0; i < 12; i++) {
+            estimates.put("suites/s" + i + ".qft\t", (i % 4 + 1) * 10L);
+        }
+        List<Suites> first = new ArrayList<>();
+        List<Suites> second = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            first.add(new Suites("/agents/a/workspace/job/suites/s" + i + ".qft", ""));
+            second.add(new Suites("C:\\agents\\b\\workspace\\job@2\\suites\\s" + (11 - i) + ".qft", ""));
+        }
+        SuiteShards a = new SuiteShards(first, estimates, "/agents/a/workspace/job", 3);
+        SuiteShards b = new SuiteShards(second, estimates, "C:\\agents\\b\\workspace\\job@2", 3);
+
+        long total = 0;
+        for (int shard = 0; shard < 3; shard++) {
+            List<String> inA = a.get(shard).stream()
+                    .map(sf -> SuiteDurations.relative(sf.getSuitename(), "/agents/a/workspace/job"))
+                    .sorted().collect(Collectors.toList());
+            List<String> inB = b.get(shard).stream()
+                    .map(sf -> SuiteDurations.relative(sf.getSuitename(), "C:\\agents\\b\\workspace\\job@2"))
+                    .sorted().collect(Collectors.toList());
+            Assertions.assertEquals(inA, inB);
+            Assertions.assertEquals(a.getLoad(shard), b.getLoad(shard));
+            total += a.getLoad(shard);
+        }
+        //the estimates recorded for the relative paths have been found
+        Assertions.assertEquals(300, total);
+    }
+}
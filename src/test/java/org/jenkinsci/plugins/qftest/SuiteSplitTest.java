@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+class SuiteSplitTest {
+
+    private static final String SUITE =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<RootStep id=\"_0\" name=\"root\">\n"
+            + "  <TestSet id=\"login\" name=\"Login\">\n"
+            + "    <SetupSequence id=\"_1\"/>\n"
+            + "    <TestCase id=\"login-ok\" name=\"Valid\"/>\n"
+            + "    <TestSet name=\"Nested\">\n"
+            + "      <TestCase id=\"login-locked\" name=\"Locked\"/>\n"
+            + "    </TestSet>\n"
+            + "  </TestSet>\n"
+            + "  <TestCase name=\"Smoke\"/>\n"
+            + "  <TestSet name=\"Reports\">\n"
+            + "    <TestCase id=\"report-pdf\"/>\n"
+            + "    <TestCase name=\"Without id\"/>\n"
+            + "  </TestSet>\n"
+            + "  <PackageRoot id=\"_2\">\n"
+            + "    <Procedure name=\"helper\"/>\n"
+            + "  </PackageRoot>\n"
+            + "</RootStep>\n";
+
+    private static InputStream suite(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void perTestSet() throws IOException {
+        Assertions.assertEquals(Arrays.asList("login", "1", "2"), SuiteSplit.TESTSET.units(suite(SUITE)));
+    }
+
+    @Test
+    public void perTestCase() throws IOException {
+        //the test cases of the last set cannot all be selected by ID
+        Assertions.assertEquals(Arrays.asList("login-ok", "login-locked", "1", "2"),
+                SuiteSplit.TESTCASE.units(suite(SUITE)));
+    }
+
+    @Test
+    public void noTests() throws IOException {
+        Assertions.assertEquals(Collections.emptyList(), SuiteSplit.TESTCASE.units(suite("<RootStep/>")));
+        Assertions.assertThrows(IOException.class, () -> SuiteSplit.TESTSET.units(suite("<RootStep>")));
+    }
+}
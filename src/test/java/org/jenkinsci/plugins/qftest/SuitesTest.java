@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+class SuitesTest {
+
+    @TempDir
+    File ws;
+
+    @Test
+    public void deriveKeepsTimeout() {
+        Suites sf = new Suites("suites", "-variable x=1 -suitesfile");
+        sf.setTimeout(15);
+
+        Suites expanded = sf.considerSuitesfile().derive("suites/a.qft", "-variable x=1");
+        Assertions.assertEquals("suites/a.qft", expanded.getSuitename());
+        Assertions.assertEquals(Integer.valueOf(15), expanded.getTimeout());
+
+        sf.setTimeout(-1);
+        Assertions.assertNull(sf.derive("b.qft", "").getTimeout());
+    }
+
+    @Test
+    public void suitesfileLinesBecomeSuites() throws Exception {
+        File dir = new File(ws, "lists");
+        Assertions.assertTrue(new File(dir, "a.qft").getParentFile().mkdirs());
+        Assertions.assertTrue(new File(dir, "a.qft").createNewFile());
+        Assertions.assertTrue(new File(ws, "b.qft").createNewFile());
+
+        Suites sf = new Suites("", "-variable x=1 -suitesfile lists/all.txt").considerSuitesfile();
+        Assertions.assertTrue(sf.isSuitesfile());
+        sf.setTimeout(5);
+
+        List<Suites> listed = sf.expandSuitesfile(Arrays.asList(
+                "# smoke tests",
+                "a.qft -test login",
+                "",
+                "b.qft -test \"Report PDF\""
+        ), dir, ws);
+
+        Assertions.assertEquals(2, listed.size());
+        //relative to the suitesfile first, then to the workspace
+        Assertions.assertEquals(new File(dir, "a.qft").getPath(), listed.get(0).getSuitename());
+        Assertions.assertEquals("-variable x=1 -test login", listed.get(0).getCustomParam());
+        Assertions.assertEquals(new File(ws, "b.qft").getPath(), listed.get(1).getSuitename());
+        Assertions.assertEquals(Integer.valueOf(5), listed.get(1).getTimeout());
+        Assertions.assertFalse(listed.get(1).isSuitesfile());
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.qftest;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class WorkerIsolationTest {
+
+    @TempDir
+    File ws;
+
+    private final Launcher launcher = new Launcher.LocalLauncher(TaskListener.NULL);
+
+    private WorkerIsolation.Worker get(WorkerIsolation isolation, int worker) throws Exception {
+        //no virtual display, so no Xvfb is needed
+        return isolation.get(worker, false, launcher, new FilePath(ws), TaskListener.NULL, "");
+    }
+
+    @Test
+    public void buildsOnTheSameAgentGetDistinctPorts() throws Exception {
+        WorkerIsolation build1 = new WorkerIsolation();
+        WorkerIsolation build2 = new WorkerIsolation();
+        try {
+            Set<Integer> bases = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertTrue(bases.add(get(build1, i).portBase));
+                Assertions.assertTrue(bases.add(get(build2, i).portBase));
+            }
+            Assertions.assertSame(get(build1, 0), get(build1, 0));
+        } finally {
+            build1.close(TaskListener.NULL);
+            build2.close(TaskListener.NULL);
+        }
+    }
+
+    @Test
+    public void portsInUseAreSkipped() throws Exception {
+        WorkerIsolation probe = new WorkerIsolation();
+        int free = get(probe, 0).portBase;
+        probe.close(TaskListener.NULL);
+
+        WorkerIsolation isolation = new WorkerIsolation();
+        try (ServerSocket other = new ServerSocket(free + 5, 1, InetAddress.getLoopbackAddress())) {
+            WorkerIsolation.Worker w = get(isolation, 0);
+            Assertions.assertTrue(w.portBase > other.getLocalPort()
+                    || w.portBase + WorkerIsolation.PORT_RANGE_SIZE <= other.getLocalPort(), w.toString());
+        } finally {
+            isolation.close(TaskListener.NULL);
+        }
+    }
+
+    @Test
+    public void closeReleasesThePorts() throws Exception {
+        WorkerIsolation isolation = new WorkerIsolation();
+        WorkerIsolation.Worker w = get(isolation, 0);
+        Assertions.assertTrue(w.cfgdir.exists());
+        isolation.close(TaskListener.NULL);
+        Assertions.assertFalse(w.cfgdir.exists());
+        Assertions.assertThrows(IOException.class, () -> get(isolation, 0));
+
+        WorkerIsolation next = new WorkerIsolation();
+        try {
+            Assertions.assertEquals(w.portBase, get(next, 0).portBase);
+        } finally {
+            next.close(TaskListener.NULL);
+        }
+    }
+
+    @Test
+    public void concurrentCallsSetUpTheWorkerOnce() throws Exception {
+        WorkerIsolation isolation = new WorkerIsolation();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            int reserved = WorkerIsolation.Ports.reserved();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<WorkerIsolation.Worker>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(pool.submit((Callable<WorkerIsolation.Worker>) () -> {
+                    start.await();
+                    return get(isolation, 0);
+                }));
+            }
+            start.countDown();
+            WorkerIsolation.Worker first = calls.get(0).get();
+            for (Future<WorkerIsolation.Worker> call : calls) {
+                Assertions.assertSame(first, call.get());
+            }
+            //no port range has been leaked by a second set up
+            Assertions.assertEquals(reserved + 1, WorkerIsolation.Ports.reserved());
+        } finally {
+            pool.shutdownNow();
+            isolation.close(TaskListener.NULL);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.qftest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class WorkerPoolTest {
+
+    private static Character max(Character a, Character b) {
+        if (a == null || b == null) {
+            return (a != null ? a : b);
+        }
+        return (char) Math.max(a, b);
+    }
+
+    private static List<Integer> units(int n) {
+        List<Integer> ret = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    @Test
+    public void runsAtMostParallelismUnitsAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+
+        WorkerPool<Integer> pool = new WorkerPool<>(units(20).iterator(), 3);
+        Character ret = pool.run((unit, worker) -> {
+            Assertions.assertTrue(worker >= 0 && worker < 3);
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            done.add(unit);
+            return (char) (unit == 7 ? 2 : 0);
+        }, WorkerPoolTest::max);
+
+        Assertions.assertEquals(3, peak.get());
+        Assertions.assertEquals(20, done.size());
+        Assertions.assertEquals(Character.valueOf((char) 2), ret);
+    }
+
+    @Test
+    public void handsOutUnitsInOrder() throws Exception {
+        List<Integer> pulled = new ArrayList<>();
+        Iterator<Integer> all = units(10).iterator();
+        Iterator<Integer> recording = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return all.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                Integer ret = all.next();
+                pulled.add(ret);
+                return ret;
+            }
+        };
+
+        new WorkerPool<>(recording, 4).run((unit, worker) -> (char) 0, WorkerPoolTest::max);
+        Assertions.assertEquals(units(10), pulled);
+    }
+
+    @Test
+    public void nothingToRun() throws Exception {
+        Assertions.assertNull(new WorkerPool<>(Collections.<Integer>emptyIterator(), 2)
+                .run((unit, worker) -> (char) 0, WorkerPoolTest::max));
+    }
+
+    @Test
+    public void failureStopsOtherWorkers() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+
+        WorkerPool<Integer> pool = new WorkerPool<>(Arrays.asList(0, 1, 2, 3, 4).iterator(), 2);
+        Assertions.assertThrows(IllegalStateException.class, () -> pool.run((unit, worker) -> {
+            started.incrementAndGet();
+            if (unit == 0) {
+                blocked.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            }
+            blocked.await();
+            throw new IllegalStateException("broken");
+        }, WorkerPoolTest::max));
+
+        Assertions.assertTrue(interrupted.await(10, TimeUnit.SECONDS), "running unit not interrupted");
+        Assertions.assertEquals(2, started.get());
+    }
+
+    @Test
+    public void abortInterruptsWorkers() throws Exception {
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+
+        WorkerPool<Integer> pool = new WorkerPool<>(units(10).iterator(), 2);
+        Thread caller = new Thread(() -> {
+            try {
+                pool.run((unit, worker) -> {
+                    running.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return (char) 0;
+                }, WorkerPoolTest::max);
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        caller.start();
+        Assertions.assertTrue(running.await(10, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(TimeUnit.SECONDS.toMillis(10));
+
+        Assertions.assertTrue(thrown.get() instanceof InterruptedException, "not aborted: " + thrown.get());
+        Assertions.assertTrue(interrupted.await(10, TimeUnit.SECONDS), "running units not interrupted");
+    }
+}